@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * AnomalyDetector flags the reporting artefacts in the daily counts of every
+ * borough: spikes in new cases or new deaths, such as a backlog reported on one
+ * day, and gaps, where a day or a value that was reported before is missing.
+ *
+ * The records of each borough are read once, in date order, keeping only an
+ * exponentially weighted moving mean and variance of each count. A count more than
+ * THRESHOLD standard deviations above the mean is a spike, and is capped before it
+ * updates the mean so one artefact does not hide the next, while a lasting rise is
+ * still followed. Records arriving later
+ * are scored against the same state, so new rows are checked without reading the
+ * history again.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class AnomalyDetector
+{
+    /**
+     * The kinds of artefact found
+     */
+    public enum Kind { SPIKE, GAP }
+
+    //the counts checked, in the order of the state arrays
+    public static final List<CovidMetric> METRICS = List.of(CovidMetric.NEW_CASES, CovidMetric.NEW_DEATHS);
+
+    //weight of the newest day in the moving mean and variance, about a 20 day memory
+    public static final double ALPHA = 0.1;
+
+    //number of standard deviations above the mean that makes a spike
+    public static final double THRESHOLD = 4.0;
+
+    //days of a count needed before spikes are looked for
+    public static final int WARMUP_DAYS = 14;
+
+    //smallest excess over the mean that makes a spike, so tiny counts are not flagged
+    public static final double MIN_EXCESS = 5;
+
+    //records read so far, and their number at the time
+    private List<CovidData> detectedRecords;
+    private int detectedSize;
+
+    private final HashMap<String, BoroughState> states = new HashMap<>();
+    //anomalies of each borough, keyed by epoch day
+    private final HashMap<String, TreeMap<Long, List<Anomaly>>> anomalies = new HashMap<>();
+
+    /**
+     * Forgets what has been read and reads all the records
+     */
+    public synchronized void detect(List<CovidData> records) {
+        long start = System.nanoTime();
+        states.clear();
+        anomalies.clear();
+        addAll(records);
+        detectedRecords = records;
+        detectedSize = records.size();
+        MetricsRegistry.getInstance().timer("anomalies.detect").recordSince(start);
+    }
+
+    /**
+     * Makes sure the anomalies are those of the records, reading only the rows added
+     * to them since the last call if they grew in place, or all of them if they are
+     * different records
+     */
+    public synchronized void ensureDetected(List<CovidData> records) {
+        if (records == detectedRecords && records.size() == detectedSize) {
+            return;
+        }
+        if (records == detectedRecords && records.size() > detectedSize) {
+            addAll(records.subList(detectedSize, records.size()));
+            detectedSize = records.size();
+            return;
+        }
+        detect(records);
+    }
+
+    /**
+     * Reads rows added to records that were read before, when the grown records are a
+     * new list. Nothing is read if the old records are not the ones read last; they
+     * are then all read by the next ensureDetected.
+     *
+     * @param oldRecords The records before the rows were added.
+     * @param oldSize    Their number before the rows were added.
+     * @param records    The records with the rows added.
+     * @param newRecords The rows added.
+     */
+    public synchronized void append(List<CovidData> oldRecords, int oldSize, List<CovidData> records, List<CovidData> newRecords) {
+        if (oldRecords != detectedRecords || oldSize != detectedSize) {
+            return;
+        }
+        addAll(newRecords);
+        detectedRecords = records;
+        detectedSize = records.size();
+        MetricsRegistry.getInstance().counter("anomalies.appendedRecords").add(newRecords.size());
+    }
+
+    /**
+     * Reads again the boroughs of rows that a revision changed, deleted or inserted,
+     * when the revised records are a new list. The boroughs are independent, so the
+     * others keep their state. Nothing is read if the old records are not the ones
+     * read last; they are then all read by the next ensureDetected.
+     *
+     * @param oldRecords  The records before the revision.
+     * @param oldSize     Their number before the revision.
+     * @param records     The revised records.
+     * @param revisedRows The old and new values of the rows the revision touched.
+     */
+    public synchronized void revise(List<CovidData> oldRecords, int oldSize, List<CovidData> records, List<CovidData> revisedRows) {
+        if (oldRecords != detectedRecords || oldSize != detectedSize) {
+            return;
+        }
+        long start = System.nanoTime();
+        HashSet<String> boroughs = new HashSet<>();
+        for (CovidData record : revisedRows) {
+            boroughs.add(record.getBorough());
+        }
+        ArrayList<CovidData> boroughRecords = new ArrayList<>();
+        for (CovidData record : records) {
+            if (boroughs.contains(record.getBorough())) {
+                boroughRecords.add(record);
+            }
+        }
+        states.keySet().removeAll(boroughs);
+        anomalies.keySet().removeAll(boroughs);
+        addAll(boroughRecords);
+        detectedRecords = records;
+        detectedSize = records.size();
+        MetricsRegistry.getInstance().timer("anomalies.revise").recordSince(start);
+    }
+
+    /**
+     * Returns the anomalies of a borough, oldest first
+     */
+    public synchronized List<Anomaly> getAnomalies(String borough) {
+        TreeMap<Long, List<Anomaly>> byDay = anomalies.get(borough);
+        ArrayList<Anomaly> result = new ArrayList<>();
+        if (byDay != null) {
+            for (List<Anomaly> dayAnomalies : byDay.values()) {
+                result.addAll(dayAnomalies);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the anomalies of a borough on one day
+     */
+    public synchronized List<Anomaly> getAnomalies(String borough, long epochDay) {
+        TreeMap<Long, List<Anomaly>> byDay = anomalies.get(borough);
+        List<Anomaly> dayAnomalies = byDay == null ? null : byDay.get(epochDay);
+        return dayAnomalies == null ? Collections.emptyList() : Collections.unmodifiableList(dayAnomalies);
+    }
+
+    /**
+     * Returns the boroughs with an anomaly between two epoch days (inclusive)
+     */
+    public synchronized Set<String> getBoroughsWithAnomalies(long fromDay, long toDay) {
+        HashSet<String> boroughs = new HashSet<>();
+        for (String borough : anomalies.keySet()) {
+            if (!anomalies.get(borough).subMap(fromDay, true, toDay, true).isEmpty()) {
+                boroughs.add(borough);
+            }
+        }
+        return boroughs;
+    }
+
+    /**
+     * Scores records in date order, carrying on from the state of their boroughs
+     */
+    private void addAll(List<CovidData> records) {
+        //day and position of every record, sorted so the records need not be copied
+        long[] keys = new long[records.size()];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = (records.get(row).getEpochDay() << 32) + row;
+        }
+        Arrays.sort(keys);
+        for (long key : keys) {
+            add(records.get((int) key));
+        }
+    }
+
+    /**
+     * Scores one record and updates the state of its borough
+     */
+    private void add(CovidData record) {
+        String borough = record.getBorough();
+        BoroughState state = states.computeIfAbsent(borough, name -> new BoroughState());
+        long day = record.getEpochDay();
+        //records for days already passed are scored but do not move the borough on
+        if (day > state.lastDay) {
+            if (state.lastDay != Long.MIN_VALUE && day > state.lastDay + 1) {
+                flag(new Anomaly(borough, day, null, Kind.GAP, day - state.lastDay - 1, 0));
+            }
+            state.lastDay = day;
+        }
+
+        for (int i = 0; i < METRICS.size(); i++) {
+            CovidMetric metric = METRICS.get(i);
+            int value = metric.getValue(record);
+            if (value == CovidMetric.MISSING) {
+                if (state.counts[i] > 0) {
+                    flag(new Anomaly(borough, day, metric, Kind.GAP, CovidMetric.MISSING, state.means[i]));
+                }
+                continue;
+            }
+
+            double fed = value;
+            if (state.counts[i] >= WARMUP_DAYS) {
+                double limit = state.means[i] + THRESHOLD * Math.sqrt(state.variances[i]);
+                if (value - state.means[i] > MIN_EXCESS && value > limit) {
+                    flag(new Anomaly(borough, day, metric, Kind.SPIKE, value, state.means[i]));
+                    fed = Math.max(limit, state.means[i] + MIN_EXCESS);
+                }
+            }
+            if (state.counts[i] == 0) {
+                state.means[i] = fed;
+            }
+            else {
+                double difference = fed - state.means[i];
+                double increment = ALPHA * difference;
+                state.means[i] += increment;
+                state.variances[i] = (1 - ALPHA) * (state.variances[i] + difference * increment);
+            }
+            state.counts[i]++;
+        }
+    }
+
+    private void flag(Anomaly anomaly) {
+        anomalies.computeIfAbsent(anomaly.borough, borough -> new TreeMap<>())
+            .computeIfAbsent(anomaly.epochDay, day -> new ArrayList<>())
+            .add(anomaly);
+    }
+
+    /**
+     * The moving statistics of the counts of one borough
+     */
+    private static class BoroughState
+    {
+        private long lastDay = Long.MIN_VALUE;
+        private final double[] means = new double[METRICS.size()];
+        private final double[] variances = new double[METRICS.size()];
+        private final int[] counts = new int[METRICS.size()];
+    }
+
+    /**
+     * One artefact in the counts of a borough
+     */
+    public static class Anomaly
+    {
+        private final String borough;
+        private final long epochDay;
+        private final CovidMetric metric;
+        private final Kind kind;
+        private final double value;
+        private final double expected;
+
+        private Anomaly(String borough, long epochDay, CovidMetric metric, Kind kind, double value, double expected) {
+            this.borough = borough;
+            this.epochDay = epochDay;
+            this.metric = metric;
+            this.kind = kind;
+            this.value = value;
+            this.expected = expected;
+        }
+
+        public String getBorough() {
+            return borough;
+        }
+
+        public long getEpochDay() {
+            return epochDay;
+        }
+
+        /**
+         * Returns the count affected, or null for days missing before this one
+         */
+        public CovidMetric getMetric() {
+            return metric;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the count reported, -1 if it is missing, or the number of days
+         * missing before this one
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the moving mean of the count before this day
+         */
+        public double getExpected() {
+            return expected;
+        }
+
+        @Override
+        public String toString() {
+            if (metric == null) {
+                return (long) value + " days missing before this day";
+            }
+            if (kind == Kind.GAP) {
+                return metric.getLabel() + " missing";
+            }
+            return metric.getLabel() + " spike: " + (long) value + String.format(" (expected about %.0f)", expected);
+        }
+    }
+}
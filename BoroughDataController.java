@@ -12,6 +12,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.Tooltip;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Controller for the new window that opens when a specific borough is clicked on the map
@@ -59,6 +65,9 @@ public class BoroughDataController
     
     private ArrayList<CovidData> filteredBoroughRecords;
     
+    // Background colour of the rows with a spike or reporting gap
+    private static final String ANOMALY_COLOUR = "#FFD6D6";
+    
     private DataManipulator dataManipulator;
     
     /**
@@ -84,21 +93,106 @@ public class BoroughDataController
         workplacesGMRColumn.setCellValueFactory(new PropertyValueFactory<>("workplacesGMR"));
         residentialGMRColumn.setCellValueFactory(new PropertyValueFactory<>("residentialGMR"));
         
+        // Add the smoothed columns of new cases and new deaths
+        for (CovidMetric metric : RollingAnalytics.METRICS) {
+            String name = metric == CovidMetric.NEW_CASES ? "Cases" : "Deaths";
+            addRollingColumn(name + " 7-day avg", "%.1f",
+                (series, day) -> series.getShortAverage(metric, day));
+            addRollingColumn(name + " 14-day avg", "%.1f",
+                (series, day) -> series.getLongAverage(metric, day));
+            addRollingColumn(name + " week growth", "%+.0f%%",
+                (series, day) -> series.getWeekOverWeekGrowth(metric, day) * 100);
+            addRollingColumn(name + " doubling days", "%.1f",
+                (series, day) -> series.getDoublingDays(metric, day));
+        }
+        
+        // Add a column for every derived metric
+        for (DerivedMetric metric : DerivedMetricRegistry.getDefault().getMetrics()) {
+            addNumberColumn(metric.getName(), "%.2f", metric::evaluate);
+        }
+        
+        // Highlight the rows with a spike or reporting gap, explaining them in a tooltip
+        tableView.setRowFactory(table -> new TableRow<CovidData>() {
+            @Override
+            protected void updateItem(CovidData record, boolean empty) {
+                super.updateItem(record, empty);
+                List<AnomalyDetector.Anomaly> anomalies = empty || record == null ? List.of()
+                    : dataManipulator.getAnomalies(record.getBorough(), record.getEpochDay());
+                if (anomalies.isEmpty()) {
+                    setStyle("");
+                    setTooltip(null);
+                }
+                else {
+                    setStyle("-fx-background-color: " + ANOMALY_COLOUR + ";");
+                    StringBuilder text = new StringBuilder();
+                    for (AnomalyDetector.Anomaly anomaly : anomalies) {
+                        text.append(text.length() == 0 ? "" : "\n").append(anomaly);
+                    }
+                    setTooltip(new Tooltip(text.toString()));
+                }
+            }
+        });
+        
         // Set items to the table view
         tableView.setItems(getData());
         
         // Add options to the combo box for filtering
         ObservableList<String> items = FXCollections.observableArrayList("Date", "New cases", "Total cases", "New deaths", "Google mobility data");
+        for (DerivedMetric metric : DerivedMetricRegistry.getDefault().getMetrics()) {
+            items.add(metric.getName());
+        }
         comboBox.setItems(items);
     }
     
+    /**
+     * Adds a column showing a value of the rolling series of each row's borough on the
+     * row's date. Unknown values are left blank.
+     * @param title  The heading of the column.
+     * @param format The format of the values.
+     * @param value  Reads the value of a series on an epoch day.
+     */
+    private void addRollingColumn(String title, String format, RollingValue value) {
+        addNumberColumn(title, format, record -> {
+            RollingAnalytics.Series series = dataManipulator.getRollingSeries(record.getBorough());
+            return series == null ? Double.NaN : value.get(series, record.getEpochDay());
+        });
+    }
+    
+    /**
+     * Adds a column showing a number computed from each row. NaN is left blank.
+     * @param title  The heading of the column.
+     * @param format The format of the values.
+     * @param value  Computes the value of a row.
+     */
+    private void addNumberColumn(String title, String format, ToDoubleFunction<CovidData> value) {
+        TableColumn<CovidData, Double> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.applyAsDouble(cell.getValue())));
+        column.setCellFactory(tableColumn -> new TableCell<CovidData, Double>() {
+            @Override
+            protected void updateItem(Double number, boolean empty) {
+                super.updateItem(number, empty);
+                setText(empty || number == null || number.isNaN() ? null : String.format(format, number));
+            }
+        });
+        tableView.getColumns().add(column);
+    }
+    
+    /**
+     * Reads one value of a rolling series
+     */
+    private interface RollingValue {
+        double get(RollingAnalytics.Series series, long epochDay);
+    }
+    
     /**
      * Get the value from the combo box for way of sorting and update the table accordingly
      */
     @FXML
     private void handleSorterSelection() { 
+        long start = System.nanoTime();
         String selectedSort = comboBox.getValue();
         tableView.setItems(getSortedData(selectedSort)); 
+        MetricsRegistry.getInstance().timer("handler.handleSorterSelection").recordSince(start);
     }
     
     /**
@@ -110,29 +204,9 @@ public class BoroughDataController
         // Create a new list to store sorted records
         ArrayList<CovidData> sortedList = new ArrayList<>(filteredBoroughRecords);
         // Check if a sorting criteria is selected
-        if (selectedSort != null) {
-            switch (selectedSort) {
-                case "Date":
-                    // Sort by date in descending order
-                    Collections.sort(sortedList, Comparator.comparing(CovidData::getLocalDate).reversed());
-                    break;
-                case "New cases":
-                    // Sort by new cases in descending order
-                    Collections.sort(sortedList, Comparator.comparingInt(CovidData::getNewCases).reversed());
-                    break;
-                case "Total cases":
-                    // Sort by total cases in descending order
-                    Collections.sort(sortedList, Comparator.comparingInt(CovidData::getTotalCases).reversed());
-                    break;
-                case "New deaths":
-                    // Sort by new deaths in descending order
-                    Collections.sort(sortedList, Comparator.comparingInt(CovidData::getNewDeaths).reversed());
-                    break;
-                case "Google mobility data":
-                    // Sort by total average mobility data in descending order
-                    Collections.sort(sortedList, Comparator.comparingInt(CovidData::getTotalAverageMobilityData).reversed());
-                    break;
-            }
+        Comparator<CovidData> comparator = getComparator(selectedSort);
+        if (comparator != null) {
+            Collections.sort(sortedList, comparator);
         }
         // Convert the sorted list to an observable list
         ObservableList<CovidData> sortedObservableList = FXCollections.observableArrayList();
@@ -142,6 +216,44 @@ public class BoroughDataController
         return sortedObservableList;
     }
     
+    /**
+     * Returns the comparator for the selected sorting criteria. Every criteria sorts in descending order.
+     * @param selectedSort The selected sorting criteria.
+     * @return The comparator, or null if no known criteria is selected.
+     */
+    static Comparator<CovidData> getComparator(String selectedSort) {
+        if (selectedSort == null) {
+            return null;
+        }
+        switch (selectedSort) {
+            case "Date":
+                // Sort by date in descending order
+                return Comparator.comparing(CovidData::getLocalDate).reversed();
+            case "New cases":
+                // Sort by new cases in descending order
+                return Comparator.comparingInt(CovidData::getNewCases).reversed();
+            case "Total cases":
+                // Sort by total cases in descending order
+                return Comparator.comparingInt(CovidData::getTotalCases).reversed();
+            case "New deaths":
+                // Sort by new deaths in descending order
+                return Comparator.comparingInt(CovidData::getNewDeaths).reversed();
+            case "Google mobility data":
+                // Sort by total average mobility data in descending order
+                return Comparator.comparingInt(CovidData::getTotalAverageMobilityData).reversed();
+            default:
+                // Sort by a derived metric in descending order, rows without a value last
+                DerivedMetric metric = DerivedMetricRegistry.getDefault().find(selectedSort);
+                if (metric == null) {
+                    return null;
+                }
+                return Comparator.comparingDouble((CovidData record) -> {
+                    double value = metric.evaluate(record);
+                    return Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value;
+                }).reversed();
+        }
+    }
+    
     /**
      * Retrieves the filtered borough data and returns it as an observable list.
      * @return An observable list of CovidData representing the filtered borough data.
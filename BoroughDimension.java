@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.opencsv.CSVReader;
+
+/**
+ * BoroughDimension is the one list of the London boroughs, read from the
+ * boroughs.csv file next to the data set: an id, the ONS code, the abbreviation
+ * shown on the map, the name used in the data set, the population (ONS mid-2020
+ * estimate), the area in square kilometres and the ids of the neighbouring
+ * boroughs.
+ *
+ * Every borough has a compact id, its position in the list, which records carry
+ * so that boroughs are compared and attributes looked up by index rather than by
+ * name. A name that is not in the file, such as one of a test data set, is given
+ * the next id when first seen, with unknown attributes.
+ *
+ * Results keyed by borough name are enriched with the attributes by a hash join:
+ * one lookup per result rather than one per record.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class BoroughDimension
+{
+    //file of the boroughs, found next to the data set
+    public static final String BOROUGHS_FILE = "boroughs.csv";
+
+    /**
+     * The numeric attributes of a borough
+     */
+    public enum Attribute { POPULATION, AREA }
+
+    //boroughs by id, and the ids of the names and abbreviations
+    private volatile Borough[] boroughs = new Borough[0];
+    private final ConcurrentHashMap<String, Integer> idsByName = new ConcurrentHashMap<>();
+    private final HashMap<String, Integer> idsByAbbreviation = new HashMap<>();
+
+    /**
+     * Holds the dimension used by the application, read from the boroughs file the
+     * first time it is asked for, so it is then returned without taking a lock
+     */
+    private static class DefaultHolder
+    {
+        private static final BoroughDimension DEFAULT = load();
+    }
+
+    /**
+     * Returns the dimension used by the application, read from the boroughs file
+     */
+    public static BoroughDimension getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Reads the dimension from the boroughs file, with no boroughs if it cannot be read
+     */
+    private static BoroughDimension load() {
+        BoroughDimension dimension = new BoroughDimension();
+        InputStream stream = BoroughDimension.class.getResourceAsStream(BOROUGHS_FILE);
+        if (stream == null) {
+            System.out.println("No " + BOROUGHS_FILE + " found; borough attributes are unknown");
+        }
+        else {
+            try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                dimension.read(reader);
+            }
+            catch (IOException e) {
+                System.out.println("Something Went Wrong?!");
+                e.printStackTrace();
+            }
+        }
+        return dimension;
+    }
+
+    /**
+     * Adds the boroughs of a csv file laid out like the boroughs file. The ids in
+     * the file must follow on from the boroughs already known.
+     */
+    public synchronized void read(Reader reader) throws IOException {
+        CSVReader csvReader = new CSVReader(reader);
+        String[] line;
+        //skip the first row (column headers)
+        csvReader.readNext();
+        while ((line = csvReader.readNext()) != null) {
+            if (line.length < 7) {
+                continue;
+            }
+            int id = Integer.parseInt(line[0].trim());
+            if (id != boroughs.length) {
+                throw new IOException("Borough id " + id + " is out of order in " + BOROUGHS_FILE);
+            }
+            int[] neighbours = new int[0];
+            if (!line[6].isBlank()) {
+                String[] ids = line[6].split(";");
+                neighbours = new int[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    neighbours[i] = Integer.parseInt(ids[i].trim());
+                }
+            }
+            add(new Borough(id, line[1].trim(), line[2].trim(), line[3].trim(),
+                Double.parseDouble(line[4].trim()), Double.parseDouble(line[5].trim()), neighbours));
+        }
+    }
+
+    /**
+     * Returns the id of a borough name, giving a new id to a name not seen before.
+     * Meant for the names of loaded records; look up the names of queries with findId.
+     */
+    public int getId(String name) {
+        Integer id = idsByName.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = idsByName.get(name);
+            if (id == null) {
+                id = boroughs.length;
+                add(new Borough(id, null, null, name, Double.NaN, Double.NaN, new int[0]));
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the id of a borough name, or -1 if the name has no id, without giving it one
+     */
+    public int findId(String name) {
+        Integer id = name == null ? null : idsByName.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the borough of an id
+     */
+    public Borough get(int id) {
+        return boroughs[id];
+    }
+
+    /**
+     * Returns the number of ids given out, including those of names not in the boroughs file
+     */
+    public int size() {
+        return boroughs.length;
+    }
+
+    /**
+     * Returns the borough of a record, through the id it carries
+     */
+    public Borough get(CovidData record) {
+        return boroughs[record.getBoroughId()];
+    }
+
+    /**
+     * Returns the borough shown on the map with an abbreviation, or null if there is none
+     */
+    public synchronized Borough getByAbbreviation(String abbreviation) {
+        Integer id = idsByAbbreviation.get(abbreviation);
+        return id == null ? null : boroughs[id];
+    }
+
+    /**
+     * Returns the boroughs read from the boroughs file, in id order
+     */
+    public List<Borough> getBoroughs() {
+        ArrayList<Borough> known = new ArrayList<>();
+        for (Borough borough : boroughs) {
+            if (borough.code != null) {
+                known.add(borough);
+            }
+        }
+        return Collections.unmodifiableList(known);
+    }
+
+    /**
+     * Returns the names of the boroughs read from the boroughs file, in alphabetical order
+     */
+    public List<String> getNames() {
+        ArrayList<String> names = new ArrayList<>();
+        for (Borough borough : getBoroughs()) {
+            names.add(borough.name);
+        }
+        names.sort(null);
+        return names;
+    }
+
+    /**
+     * Joins results keyed by borough name to the boroughs, looking each name up once.
+     * Names without an id, which no record has, are left out.
+     *
+     * @param results The results of a query, by borough name.
+     * @return        The same results keyed by borough, in id order.
+     */
+    public <V> Map<Borough, V> join(Map<String, V> results) {
+        ArrayList<Borough> joined = new ArrayList<>();
+        for (String name : results.keySet()) {
+            int id = findId(name);
+            if (id >= 0) {
+                joined.add(boroughs[id]);
+            }
+        }
+        joined.sort(Comparator.comparingInt(Borough::getId));
+        LinkedHashMap<Borough, V> enriched = new LinkedHashMap<>();
+        for (Borough borough : joined) {
+            enriched.put(borough, results.get(borough.name));
+        }
+        return enriched;
+    }
+
+    private void add(Borough borough) {
+        Borough[] grown = Arrays.copyOf(boroughs, boroughs.length + 1);
+        grown[borough.id] = borough;
+        boroughs = grown;
+        idsByName.put(borough.name, borough.id);
+        if (borough.abbreviation != null) {
+            idsByAbbreviation.put(borough.abbreviation, borough.id);
+        }
+    }
+
+    /**
+     * One London borough
+     */
+    public static class Borough
+    {
+        private final int id;
+        private final String code;
+        private final String abbreviation;
+        private final String name;
+        private final double population;
+        private final double area;
+        private final int[] neighbours;
+
+        private Borough(int id, String code, String abbreviation, String name, double population, double area, int[] neighbours) {
+            this.id = id;
+            this.code = code;
+            this.abbreviation = abbreviation;
+            this.name = name;
+            this.population = population;
+            this.area = area;
+            this.neighbours = neighbours;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns the ONS code, or null for a borough not in the boroughs file
+         */
+        public String getCode() {
+            return code;
+        }
+
+        public String getAbbreviation() {
+            return abbreviation;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the population, or NaN if it is unknown
+         */
+        public double getPopulation() {
+            return population;
+        }
+
+        /**
+         * Returns the area in square kilometres, or NaN if it is unknown
+         */
+        public double getArea() {
+            return area;
+        }
+
+        public double get(Attribute attribute) {
+            return attribute == Attribute.POPULATION ? population : area;
+        }
+
+        /**
+         * Returns the ids of the boroughs sharing a border with this one
+         */
+        public int[] getNeighbours() {
+            return neighbours.clone();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
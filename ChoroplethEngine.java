@@ -0,0 +1,322 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * ChoroplethEngine computes one metric for every borough in a single pass over a
+ * list of records, derives class breaks from the resulting values and assigns each
+ * borough a map colour.
+ *
+ * Results are cached per list of records, metric, date and classification method,
+ * so returning to the map for the same selection does not repeat the work.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class ChoroplethEngine
+{
+    //colours of the classes, from the lowest values to the highest
+    public static final String[] CLASS_COLOURS = {"#66FF99", "#FFFF66", "#FFCC66", "#FF6666"};
+
+    //colour of a borough without any data for the chosen metric
+    public static final String NO_DATA_COLOUR = "#CCCCCC";
+
+    private static final int CACHE_SIZE = 16;
+
+    private final Map<CacheKey, Result> cache = new LinkedHashMap<CacheKey, Result>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Computes the metric for every borough found in the records and classifies the values.
+     *
+     * @param records The records to summarise, usually all records or the records in the selected range.
+     * @param metric  The metric to show on the map.
+     * @param asOf    Only records up to and including this date are used, or null to use every record.
+     * @param method  The method used to derive the class breaks.
+     * @return        The value, class and colour of every borough.
+     */
+    public Result compute(List<CovidData> records, CovidMetric metric, LocalDate asOf, ClassBreaks.Method method) {
+        CacheKey key = new CacheKey(records, metric, asOf, method);
+        synchronized (cache) {
+            Result cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return classify(key, metric, computeValues(records, metric, asOf), method);
+    }
+
+    /**
+     * Computes a derived metric for every borough found in the records and classifies the values.
+     *
+     * @param records The records to summarise, usually all records or the records in the selected range.
+     * @param metric  The derived metric to show on the map.
+     * @param asOf    Only records up to and including this date are used, or null to use every record.
+     * @param method  The method used to derive the class breaks.
+     * @return        The value, class and colour of every borough.
+     */
+    public Result compute(List<CovidData> records, DerivedMetric metric, LocalDate asOf, ClassBreaks.Method method) {
+        CacheKey key = new CacheKey(records, metric, asOf, method);
+        synchronized (cache) {
+            Result cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return classify(key, null, computeValues(records, metric, asOf), method);
+    }
+
+    /**
+     * Derives the class breaks of the values and caches the result
+     */
+    private Result classify(CacheKey key, CovidMetric metric, Map<String, Double> values, ClassBreaks.Method method) {
+        double[] data = new double[values.size()];
+        int i = 0;
+        for (double value : values.values()) {
+            data[i++] = value;
+        }
+        ClassBreaks breaks = ClassBreaks.of(data, CLASS_COLOURS.length, method);
+        Result result = new Result(metric, values, breaks);
+
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Summarises the metric for every borough in one pass over the records.
+     * Boroughs that only have missing values for the metric are left out.
+     */
+    public static Map<String, Double> computeValues(List<CovidData> records, CovidMetric metric, LocalDate asOf) {
+        long lastDay = asOf == null ? Long.MAX_VALUE : asOf.toEpochDay();
+        BoroughDimension dimension = BoroughDimension.getDefault();
+        //summaries indexed by the borough ids of the records
+        BoroughSummary[] summaries = new BoroughSummary[dimension.size()];
+
+        for (CovidData record : records) {
+            int value = metric.getValue(record);
+            if (value == CovidMetric.MISSING) {
+                continue;
+            }
+            long day = record.getEpochDay();
+            if (day > lastDay) {
+                continue;
+            }
+            int id = record.getBoroughId();
+            if (id >= summaries.length) {
+                summaries = Arrays.copyOf(summaries, dimension.size());
+            }
+            if (summaries[id] == null) {
+                summaries[id] = new BoroughSummary();
+            }
+            summaries[id].add(day, value);
+        }
+
+        HashMap<String, Double> values = new HashMap<>();
+        for (int id = 0; id < summaries.length; id++) {
+            if (summaries[id] != null) {
+                values.put(dimension.get(id).getName(), summaries[id].get(metric.getAggregation()));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Summarises the columns of a derived metric for every borough in one pass over
+     * the records, then evaluates the metric on the summaries and the attributes of
+     * each borough. Boroughs for which the metric cannot be computed are left out.
+     */
+    public static Map<String, Double> computeValues(List<CovidData> records, DerivedMetric metric, LocalDate asOf) {
+        long lastDay = asOf == null ? Long.MAX_VALUE : asOf.toEpochDay();
+        CovidMetric[] columns = metric.getMetrics().toArray(new CovidMetric[0]);
+        BoroughDimension.Attribute[] attributes = metric.getAttributes().toArray(new BoroughDimension.Attribute[0]);
+        BoroughDimension dimension = BoroughDimension.getDefault();
+        //summaries of the columns indexed by the borough ids of the records
+        BoroughSummary[][] summaries = new BoroughSummary[dimension.size()][];
+
+        for (CovidData record : records) {
+            long day = record.getEpochDay();
+            if (day > lastDay) {
+                continue;
+            }
+            int id = record.getBoroughId();
+            if (id >= summaries.length) {
+                summaries = Arrays.copyOf(summaries, dimension.size());
+            }
+            BoroughSummary[] boroughSummaries = summaries[id];
+            if (boroughSummaries == null) {
+                boroughSummaries = new BoroughSummary[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    boroughSummaries[i] = new BoroughSummary();
+                }
+                summaries[id] = boroughSummaries;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                int value = columns[i].getValue(record);
+                if (value != CovidMetric.MISSING) {
+                    boroughSummaries[i].add(day, value);
+                }
+            }
+        }
+
+        HashMap<String, Double> values = new HashMap<>();
+        double[] columnValues = new double[DerivedMetric.SUMMARY_LENGTH];
+        for (int id = 0; id < summaries.length; id++) {
+            if (summaries[id] == null) {
+                continue;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                BoroughSummary summary = summaries[id][i];
+                columnValues[DerivedMetric.getSummaryIndex(columns[i])] = summary.count == 0 ? Double.NaN : summary.get(columns[i].getAggregation());
+            }
+            BoroughDimension.Borough borough = dimension.get(id);
+            for (BoroughDimension.Attribute attribute : attributes) {
+                columnValues[DerivedMetric.getSummaryIndex(attribute)] = borough.get(attribute);
+            }
+            double value = metric.evaluate(columnValues);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                values.put(borough.getName(), value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The outcome of a choropleth computation
+     */
+    public static class Result
+    {
+        private final CovidMetric metric;
+        private final Map<String, Double> values;
+        private final ClassBreaks breaks;
+
+        private Result(CovidMetric metric, Map<String, Double> values, ClassBreaks breaks) {
+            this.metric = metric;
+            this.values = values;
+            this.breaks = breaks;
+        }
+
+        /**
+         * Returns the metric shown, or null if it is a derived metric
+         */
+        public CovidMetric getMetric() {
+            return metric;
+        }
+
+        public ClassBreaks getBreaks() {
+            return breaks;
+        }
+
+        /**
+         * Returns the value of the metric for the borough, or null if it has no data
+         */
+        public Double getValue(String borough) {
+            return values.get(borough);
+        }
+
+        /**
+         * Returns the class index of the borough, or -1 if it has no data
+         */
+        public int getClassIndex(String borough) {
+            Double value = values.get(borough);
+            if (value == null) {
+                return -1;
+            }
+            return breaks.classify(value);
+        }
+
+        /**
+         * Returns the map colour of the borough
+         */
+        public String getColour(String borough) {
+            return colourOf(getClassIndex(borough));
+        }
+    }
+
+    /**
+     * Returns the colour of a class index, or the no data colour for -1
+     */
+    public static String colourOf(int classIndex) {
+        if (classIndex < 0 || classIndex >= CLASS_COLOURS.length) {
+            return NO_DATA_COLOUR;
+        }
+        return CLASS_COLOURS[classIndex];
+    }
+
+    /**
+     * Running sum, count and newest value of a metric for one borough
+     */
+    private static class BoroughSummary
+    {
+        private long sum;
+        private int count;
+        private long latestDay = Long.MIN_VALUE;
+        private int latestValue;
+
+        private void add(long day, int value) {
+            sum += value;
+            count++;
+            if (day > latestDay) {
+                latestDay = day;
+                latestValue = value;
+            }
+        }
+
+        private double get(CovidMetric.Aggregation aggregation) {
+            switch (aggregation) {
+                case SUM:
+                    return sum;
+                case MEAN:
+                    return (double) sum / count;
+                default:
+                    return latestValue;
+            }
+        }
+    }
+
+    /**
+     * Identifies a computation; the records are compared by identity and size
+     * because the lists are replaced or appended to rather than edited.
+     */
+    private static class CacheKey
+    {
+        private final List<CovidData> records;
+        private final int size;
+        //a CovidMetric, or a DerivedMetric compared by identity
+        private final Object metric;
+        private final LocalDate asOf;
+        private final ClassBreaks.Method method;
+
+        private CacheKey(List<CovidData> records, Object metric, LocalDate asOf, ClassBreaks.Method method) {
+            this.records = records;
+            this.size = records.size();
+            this.metric = metric;
+            this.asOf = asOf;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey key = (CacheKey) other;
+            return records == key.records && size == key.size && metric == key.metric
+                && Objects.equals(asOf, key.asOf) && method == key.method;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(records), size, metric, asOf, method);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * ClassBreaks derives the boundaries between colour classes of a choropleth
+ * map from the data itself, so the map stays readable whatever metric or
+ * data set is shown.
+ *
+ * A set of breaks is stored as the upper bound of every class except the last
+ * one; a value belongs to the first class whose upper bound it does not exceed.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class ClassBreaks
+{
+    /**
+     * The methods available for deriving class breaks
+     */
+    public enum Method { QUANTILE, JENKS }
+
+    private final double[] upperBounds;
+
+    private ClassBreaks(double[] upperBounds) {
+        this.upperBounds = upperBounds;
+    }
+
+    /**
+     * Derives breaks for the given values using the chosen method.
+     *
+     * @param values  The values to be classified, in any order.
+     * @param classes The maximum number of classes wanted.
+     * @param method  The method used to place the breaks.
+     * @return        The breaks between the classes.
+     */
+    public static ClassBreaks of(double[] values, int classes, Method method) {
+        if (method == Method.JENKS) {
+            return jenks(values, classes);
+        }
+        return quantile(values, classes);
+    }
+
+    /**
+     * Places the breaks so that every class holds roughly the same number of values.
+     */
+    public static ClassBreaks quantile(double[] values, int classes) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        if (n == 0 || classes < 2) {
+            return new ClassBreaks(new double[0]);
+        }
+
+        double[] bounds = new double[classes - 1];
+        int count = 0;
+        for (int i = 1; i < classes; i++) {
+            int position = (int) Math.ceil((double) i * n / classes) - 1;
+            double bound = sorted[Math.max(0, position)];
+            //skip duplicate bounds so that no class is left empty
+            if (count == 0 || bound > bounds[count - 1]) {
+                bounds[count++] = bound;
+            }
+        }
+        //the largest value always belongs to the last class
+        if (count > 0 && bounds[count - 1] >= sorted[n - 1]) {
+            count--;
+        }
+        return new ClassBreaks(Arrays.copyOf(bounds, count));
+    }
+
+    /**
+     * Places the breaks using the Jenks natural breaks method, which minimises the
+     * variance of the values within each class.
+     */
+    public static ClassBreaks jenks(double[] values, int classes) {
+        double[] data = values.clone();
+        Arrays.sort(data);
+        int n = data.length;
+        classes = Math.min(classes, (int) Arrays.stream(data).distinct().count());
+        if (classes < 2) {
+            return new ClassBreaks(new double[0]);
+        }
+
+        //lowerClassLimits[l][j] is the 1-based index of the first value in class j
+        //when the first l values are split into j classes
+        int[][] lowerClassLimits = new int[n + 1][classes + 1];
+        double[][] varianceCombinations = new double[n + 1][classes + 1];
+        for (int j = 1; j <= classes; j++) {
+            lowerClassLimits[1][j] = 1;
+            for (int l = 2; l <= n; l++) {
+                varianceCombinations[l][j] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        for (int l = 2; l <= n; l++) {
+            double sum = 0;
+            double sumSquares = 0;
+            double variance = 0;
+            for (int m = 1; m <= l; m++) {
+                int lowerIndex = l - m + 1;
+                double value = data[lowerIndex - 1];
+                sum += value;
+                sumSquares += value * value;
+                variance = sumSquares - (sum * sum) / m;
+                int previous = lowerIndex - 1;
+                if (previous != 0) {
+                    for (int j = 2; j <= classes; j++) {
+                        double candidate = variance + varianceCombinations[previous][j - 1];
+                        if (varianceCombinations[l][j] >= candidate) {
+                            lowerClassLimits[l][j] = lowerIndex;
+                            varianceCombinations[l][j] = candidate;
+                        }
+                    }
+                }
+            }
+            lowerClassLimits[l][1] = 1;
+            varianceCombinations[l][1] = variance;
+        }
+
+        double[] bounds = new double[classes - 1];
+        int k = n;
+        for (int j = classes; j >= 2; j--) {
+            int lowerIndex = lowerClassLimits[k][j];
+            bounds[j - 2] = data[lowerIndex - 2];
+            k = lowerIndex - 1;
+        }
+        return new ClassBreaks(bounds);
+    }
+
+    /**
+     * Returns the index of the class the value belongs to, from 0 to getClassCount() - 1
+     */
+    public int classify(double value) {
+        for (int i = 0; i < upperBounds.length; i++) {
+            if (value <= upperBounds[i]) {
+                return i;
+            }
+        }
+        return upperBounds.length;
+    }
+
+    /**
+     * Returns the number of classes these breaks separate
+     */
+    public int getClassCount() {
+        return upperBounds.length + 1;
+    }
+
+    /**
+     * Returns the upper bound of every class except the last one
+     */
+    public double[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+}
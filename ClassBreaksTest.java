@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The test class ClassBreaksTest.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class ClassBreaksTest
+{
+    /**
+     * Default constructor for test class ClassBreaksTest
+     */
+    public ClassBreaksTest()
+    {
+    }
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp()
+    {
+    }
+
+    /**
+     * Tests that quantile breaks put the same number of values in every class.
+     */
+    @Test
+    public void testQuantile() {
+        double[] values = {8, 1, 7, 2, 6, 3, 5, 4};
+        ClassBreaks breaks = ClassBreaks.quantile(values, 4);
+
+        assertEquals(4, breaks.getClassCount());
+        assertArrayEquals(new double[] {2, 4, 6}, breaks.getUpperBounds());
+        assertEquals(0, breaks.classify(1));
+        assertEquals(1, breaks.classify(3));
+        assertEquals(3, breaks.classify(8));
+    }
+
+    /**
+     * Tests that repeated values do not create empty classes.
+     */
+    @Test
+    public void testQuantileWithDuplicates() {
+        double[] values = {5, 5, 5, 5, 5, 9};
+        ClassBreaks breaks = ClassBreaks.quantile(values, 4);
+
+        assertEquals(2, breaks.getClassCount());
+        assertEquals(0, breaks.classify(5));
+        assertEquals(1, breaks.classify(9));
+    }
+
+    /**
+     * Tests that Jenks breaks separate clearly grouped values.
+     */
+    @Test
+    public void testJenks() {
+        double[] values = {1, 2, 3, 50, 51, 52, 100, 101, 102, 500};
+        ClassBreaks breaks = ClassBreaks.jenks(values, 4);
+
+        assertArrayEquals(new double[] {3, 52, 102}, breaks.getUpperBounds());
+        assertEquals(0, breaks.classify(2));
+        assertEquals(1, breaks.classify(51));
+        assertEquals(2, breaks.classify(101));
+        assertEquals(3, breaks.classify(500));
+    }
+
+    /**
+     * Tests that a single value ends up in a single class.
+     */
+    @Test
+    public void testSingleValue() {
+        ClassBreaks breaks = ClassBreaks.jenks(new double[] {42}, 4);
+
+        assertEquals(1, breaks.getClassCount());
+        assertEquals(0, breaks.classify(42));
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+    }
+}
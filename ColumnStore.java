@@ -0,0 +1,186 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * ColumnStore is a storage backend keeping the records as columns of numbers
+ * rather than as CovidData objects. Dates are kept as days since 1970-01-01 and
+ * boroughs as small ids, with every metric in a column of its own.
+ *
+ * DataManipulator sees a store through asList(), a read-only list that creates
+ * a short-lived CovidData for each row as it is read, while the queries that
+ * matter most read the columns directly.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public interface ColumnStore extends AutoCloseable
+{
+    /**
+     * Returns the number of rows
+     */
+    int size();
+
+    /**
+     * Returns the date of a row as days since 1970-01-01
+     */
+    int getEpochDay(int row);
+
+    /**
+     * Returns the borough id of a row
+     */
+    int getBoroughId(int row);
+
+    /**
+     * Returns the value of a metric in a row, or -1 if it is missing
+     */
+    int getValue(CovidMetric metric, int row);
+
+    /**
+     * Returns the name of the borough with the given id
+     */
+    String getBoroughName(int boroughId);
+
+    /**
+     * Returns the id of a borough, or -1 if the store has no rows for it
+     */
+    int getBoroughId(String boroughName);
+
+    /**
+     * Returns the id in the default BoroughDimension of the borough with the given id
+     */
+    int getDimensionId(int boroughId);
+
+    /**
+     * Returns the number of segments the rows are kept in. The rows of a segment are
+     * consecutive; a store without segments has one segment holding every row.
+     */
+    default int getSegmentCount() {
+        return 1;
+    }
+
+    /**
+     * Returns the first row of a segment
+     */
+    default int getSegmentStart(int segment) {
+        return 0;
+    }
+
+    /**
+     * Returns the row after the last row of a segment
+     */
+    default int getSegmentEnd(int segment) {
+        return size();
+    }
+
+    /**
+     * Returns true if the store keeps the minimum and maximum of each column per
+     * segment, so that mayMatch and mayHaveValues can rule segments out
+     */
+    default boolean hasZoneMaps() {
+        return false;
+    }
+
+    /**
+     * Returns false only if no row of the segment can fall between the two days
+     * (inclusive) and belong to the borough. A borough id of -1 matches any borough.
+     */
+    default boolean mayMatch(int segment, long fromDay, long toDay, int boroughId) {
+        return true;
+    }
+
+    /**
+     * Returns false only if every value of the metric in the segment is missing
+     */
+    default boolean mayHaveValues(int segment, CovidMetric metric) {
+        return true;
+    }
+
+    /**
+     * Adds the values of a metric in the rows of a segment to the totals of their
+     * boroughs, at the given position of each borough's totals. Missing values and
+     * boroughs whose totals are null or beyond the array are left out.
+     */
+    default void addTotals(int segment, CovidMetric metric, long[][] totalsById, int index) {
+        for (int row = getSegmentStart(segment); row < getSegmentEnd(segment); row++) {
+            int boroughId = getBoroughId(row);
+            if (boroughId >= totalsById.length || totalsById[boroughId] == null) {
+                continue;
+            }
+            int value = getValue(metric, row);
+            if (value != CovidMetric.MISSING) {
+                totalsById[boroughId][index] += value;
+            }
+        }
+    }
+
+    /**
+     * Returns true if rows can be added to the store with add
+     */
+    default boolean canAppend() {
+        return false;
+    }
+
+    /**
+     * Appends a record as a new row
+     */
+    default void add(CovidData record) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot take new rows");
+    }
+
+    /**
+     * Releases the memory held by the store. The store cannot be used afterwards.
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates the record of a row
+     */
+    default CovidData get(int row) {
+        int boroughId = getBoroughId(row);
+        return new CovidData(LocalDate.ofEpochDay(getEpochDay(row)).toString(), getBoroughName(boroughId), getDimensionId(boroughId),
+            getValue(CovidMetric.RETAIL_RECREATION_GMR, row), getValue(CovidMetric.GROCERY_PHARMACY_GMR, row),
+            getValue(CovidMetric.PARKS_GMR, row), getValue(CovidMetric.TRANSIT_GMR, row),
+            getValue(CovidMetric.WORKPLACES_GMR, row), getValue(CovidMetric.RESIDENTIAL_GMR, row),
+            getValue(CovidMetric.NEW_CASES, row), getValue(CovidMetric.TOTAL_CASES, row),
+            getValue(CovidMetric.NEW_DEATHS, row), getValue(CovidMetric.TOTAL_DEATHS, row));
+    }
+
+    /**
+     * Returns the rows of the store as a read-only list of records
+     */
+    default List<CovidData> asList() {
+        return new RecordList(this);
+    }
+
+    /**
+     * A read-only list view of the rows of a store
+     */
+    class RecordList extends AbstractList<CovidData> implements RandomAccess
+    {
+        private final ColumnStore store;
+
+        public RecordList(ColumnStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public CovidData get(int index) {
+            if (index < 0 || index >= store.size()) {
+                throw new IndexOutOfBoundsException("Row " + index + " of " + store.size());
+            }
+            return store.get(index);
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        public ColumnStore getStore() {
+            return store;
+        }
+    }
+}
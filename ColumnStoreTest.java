@@ -0,0 +1,235 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The test class ColumnStoreTest.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class ColumnStoreTest
+{
+    //a data set of 33 boroughs over 40 days, so the packed store has a full block and a partial last one
+    private File dataFile;
+    private ArrayList<CovidData> heapRecords;
+
+    /**
+     * Default constructor for test class ColumnStoreTest
+     */
+    public ColumnStoreTest()
+    {
+    }
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        StringWriter synthetic = new StringWriter();
+        new SyntheticDataGenerator().setSeed(7).setDays(40).setStartDate(LocalDate.of(2020, 2, 1))
+            .setMissingRate(0.05).write(synthetic);
+        String[] lines = synthetic.toString().split("\n");
+
+        // Hand written rows first, within the first block: totals that go down,
+        // missing values, large negative mobility and a quoted borough
+        ArrayList<String> fileLines = new ArrayList<>();
+        fileLines.add(lines[0]);
+        fileLines.add("2020-01-01,Camden,-80,-75,-90,-85,-70,30,12,500,1,40");
+        fileLines.add("2020-01-02,Camden,,,,,,,8,450,0,38");
+        fileLines.add("2020-01-03,Camden,-60,-50,-40,-30,-20,10,,,,");
+        fileLines.add("2020-01-04,Camden,-60,-50,-40,-30,-20,10,5,470,2,41");
+        fileLines.add("2020-01-04,\"Kingston Upon Thames\",1,2,3,4,5,6,7,8,9,10");
+        for (int i = 1; i < lines.length; i++) {
+            fileLines.add(lines[i]);
+        }
+        dataFile = File.createTempFile("stores", ".csv");
+        dataFile.deleteOnExit();
+        Files.write(dataFile.toPath(), fileLines);
+
+        heapRecords = new CovidDataLoader().load(dataFile);
+        assertEquals(33 * 40 + 5, heapRecords.size());
+    }
+
+    /**
+     * Tests that the off-heap store gives back the rows and totals of the heap loader.
+     */
+    @Test
+    public void testOffHeapColumnStore() {
+        OffHeapColumnStore store = new OffHeapColumnStore();
+        try {
+            new CovidDataLoader().load(dataFile, store::add);
+            assertSameRecords(heapRecords, store);
+            assertSameTotals(heapRecords, store);
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Tests that the packed store decodes the rows and totals of the heap loader,
+     * from the packed blocks and from the unpacked last block.
+     */
+    @Test
+    public void testPackedColumnStore() {
+        PackedColumnStore store = new PackedColumnStore();
+        new CovidDataLoader().load(dataFile, store::add);
+
+        assertEquals(2, store.getSegmentCount()); // one packed block and a partial last block
+        assertSameRecords(heapRecords, store);
+        assertSameTotals(heapRecords, store);
+
+        // Rows read out of order, so delta encoded blocks are decoded again
+        for (int row = store.size() - 1; row >= 0; row -= 97) {
+            assertSameRecord(heapRecords.get(row), store.get(row));
+        }
+    }
+
+    /**
+     * Tests that the segmented store maps back the rows and totals of the heap loader,
+     * with a partial last segment.
+     */
+    @Test
+    public void testSegmentedColumnStore() throws IOException {
+        File directory = Files.createTempDirectory("segments").toFile();
+        try {
+            try (SegmentedColumnStore.Writer writer = new SegmentedColumnStore.Writer(directory, 500)) {
+                new CovidDataLoader().load(dataFile, writer::add);
+            }
+            try (SegmentedColumnStore store = new SegmentedColumnStore(directory)) {
+                assertEquals(3, store.getSegmentCount());
+                assertSameRecords(heapRecords, store);
+                assertSameTotals(heapRecords, store);
+            }
+        }
+        finally {
+            try (Stream<Path> files = Files.walk(directory.toPath())) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that a cursor with a date, borough and metric query returns the rows of a
+     * full load that match, with the other metrics missing.
+     */
+    @Test
+    public void testRecordCursor() throws IOException {
+        LocalDate from = LocalDate.of(2020, 1, 2);
+        LocalDate to = LocalDate.of(2020, 2, 10);
+        List<String> boroughs = List.of("Camden", "Kingston Upon Thames", "Westminster");
+        EnumSet<CovidMetric> metrics = EnumSet.of(CovidMetric.TOTAL_CASES, CovidMetric.PARKS_GMR);
+
+        ArrayList<CovidData> expected = new ArrayList<>();
+        for (CovidData record : heapRecords) {
+            LocalDate date = LocalDate.parse(record.getDate());
+            if (!date.isBefore(from) && !date.isAfter(to) && boroughs.contains(record.getBorough())) {
+                expected.add(record);
+            }
+        }
+
+        ArrayList<CovidData> found = new ArrayList<>();
+        RecordQuery query = new RecordQuery().setDateRange(from, to).setBoroughs(boroughs).setMetrics(metrics);
+        try (RecordCursor cursor = new CovidDataLoader().open(dataFile, query)) {
+            while (cursor.next()) {
+                found.add(cursor.toRecord());
+            }
+            assertEquals(heapRecords.size(), cursor.getScannedRows());
+            assertEquals(expected.size(), cursor.getMatchedRows());
+        }
+
+        assertEquals(4 + 3 * 10, expected.size()); // three Camden days and Kingston, then ten days of the three boroughs
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDate(), found.get(i).getDate());
+            assertEquals(expected.get(i).getBorough(), found.get(i).getBorough());
+            assertEquals(expected.get(i).getBoroughId(), found.get(i).getBoroughId());
+            for (CovidMetric metric : CovidMetric.values()) {
+                int value = metrics.contains(metric) ? metric.getValue(expected.get(i)) : CovidMetric.MISSING;
+                assertEquals(value, metric.getValue(found.get(i)), metric + " of row " + i);
+            }
+        }
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+        dataFile.delete();
+    }
+
+    private static void assertSameRecords(List<CovidData> expected, ColumnStore store) {
+        assertEquals(expected.size(), store.size());
+        List<CovidData> rows = store.asList();
+        for (int row = 0; row < expected.size(); row++) {
+            assertSameRecord(expected.get(row), rows.get(row));
+        }
+    }
+
+    private static void assertSameRecord(CovidData expected, CovidData actual) {
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getBorough(), actual.getBorough());
+        assertEquals(expected.getBoroughId(), actual.getBoroughId());
+        for (CovidMetric metric : CovidMetric.values()) {
+            assertEquals(metric.getValue(expected), metric.getValue(actual), metric + " of " + expected.getDate() + " " + expected.getBorough());
+        }
+    }
+
+    /**
+     * Checks addTotals over every segment against totals added up from the records
+     */
+    private static void assertSameTotals(List<CovidData> expected, ColumnStore store) {
+        CovidMetric[] metrics = CovidMetric.values();
+        List<String> boroughs = List.of("Camden", "Kingston Upon Thames", "Westminster");
+        long[][] totalsById = new long[0][];
+        for (String borough : boroughs) {
+            int id = store.getBoroughId(borough);
+            totalsById = Arrays.copyOf(totalsById, Math.max(totalsById.length, id + 1));
+            totalsById[id] = new long[metrics.length];
+        }
+        for (int segment = 0; segment < store.getSegmentCount(); segment++) {
+            for (int i = 0; i < metrics.length; i++) {
+                store.addTotals(segment, metrics[i], totalsById, i);
+            }
+        }
+
+        for (String borough : boroughs) {
+            long[] heapTotals = new long[metrics.length];
+            for (CovidData record : expected) {
+                if (record.getBorough().equals(borough)) {
+                    for (int i = 0; i < metrics.length; i++) {
+                        int value = metrics[i].getValue(record);
+                        if (value != CovidMetric.MISSING) {
+                            heapTotals[i] += value;
+                        }
+                    }
+                }
+            }
+            assertArrayEquals(heapTotals, totalsById[store.getBoroughId(borough)], borough);
+        }
+    }
+}
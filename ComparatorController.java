@@ -10,6 +10,18 @@ import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Parent;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.VBox;
+import javafx.scene.layout.Priority;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Controller for the comparator page (challenge task)
@@ -34,6 +46,12 @@ public class ComparatorController
     @FXML
     private CheckBox checkBoxDeaths;
     
+    // List for picking any number of boroughs to compare at once
+    private ListView<String> boroughListView;
+    
+    // Derived metric compared alongside the ticked data types, if one is chosen
+    private ComboBox<DerivedMetric> derivedComboBox;
+    
     private DataManipulator dataManipulator;
     
     /**
@@ -43,116 +61,124 @@ public class ComparatorController
     private void initialize() {
         // Singleton instance of data manipulator
         dataManipulator = DataManipulator.getInstance();
-        // Define a list of borough names
-        ObservableList<String> boroughs = FXCollections.observableArrayList(
-            "Kingston Upon Thames",
-            "Hammersmith And Fulham",
-            "Hackney",
-            "Barking And Dagenham",
-            "Tower Hamlets",
-            "Lewisham",
-            "Islington",
-            "Bexley",
-            "Wandsworth",
-            "Haringey",
-            "Enfield",
-            "Sutton",
-            "Merton",
-            "Havering",
-            "Brent",
-            "Hounslow",
-            "Camden",
-            "Greenwich",
-            "Harrow",
-            "Ealing",
-            "Southwark",
-            "Newham",
-            "Kensington And Chelsea",
-            "City Of London",
-            "Bromley",
-            "Hillingdon",
-            "Redbridge",
-            "Croydon",
-            "Richmond Upon Thames",
-            "Barnet",
-            "Westminster",
-            "Waltham Forest",
-            "Lambeth"
-        );
+        // The borough names, from the borough dimension
+        ObservableList<String> boroughs = FXCollections.observableArrayList(BoroughDimension.getDefault().getNames());
 
         // Populate the ComboBox with the list of borough names
         boroughComboBox1.setItems(boroughs);
         boroughComboBox2.setItems(boroughs);
+        
+        addBoroughListView(boroughs);
     }
     
     /**
-     * Retrieves the total data value for the specified borough and data type.
-     * 
-     * @param selectedBorough The name of the borough for which data is retrieved.
-     * @param neededDataType The column of data needed, such as "New Cases" or "New Deaths".
-     * @return The total data value for the specified borough and data type.
+     * Adds a multiple selection list next to the bar chart for comparing many boroughs,
+     * under a combo box for choosing a derived metric to compare
      */
-    private int getBarChartData(String selectedBorough, String neededDataType) {
-        int totalDataValue = 0;
-        int dataValue = -1;
+    private void addBoroughListView(ObservableList<String> boroughs) {
+        boroughListView = new ListView<>(boroughs);
+        boroughListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        boroughListView.setPrefWidth(200);
+        boroughListView.getSelectionModel().getSelectedItems().addListener((ListChangeListener<String>) change -> handleListSelection());
         
-        // Filter records for the specified borough
-        ArrayList<CovidData> filteredBoroughRecords = dataManipulator.getFilterByBorough(selectedBorough, true);
+        derivedComboBox = new ComboBox<>(FXCollections.observableArrayList(DerivedMetricRegistry.getDefault().getMetrics()));
+        derivedComboBox.setPromptText("Derived metric");
+        derivedComboBox.setPrefWidth(200);
+        derivedComboBox.setOnAction(event -> updateBarChart());
         
-        for (CovidData record : filteredBoroughRecords) {
-            // Retrieve data value based on the needed data type
-            if (neededDataType.equals("New Cases")) {
-                dataValue = record.getNewCases();
-            } else if (neededDataType.equals("New Deaths")) {
-                // Adjust new deaths by a scale of 100 for better visualization on the bar chart
-                dataValue = (record.getNewDeaths() * 100);
-            }
-            
-            // Accumulate valid data values
-            if (dataValue != -1) {
-                totalDataValue += dataValue;
+        VBox sidePanel = new VBox(10, derivedComboBox, boroughListView);
+        VBox.setVgrow(boroughListView, Priority.ALWAYS);
+        
+        Parent parent = barChart.getParent();
+        if (parent instanceof BorderPane) {
+            ((BorderPane) parent).setRight(sidePanel);
+        }
+        else if (parent instanceof Pane) {
+            AnchorPane.setTopAnchor(sidePanel, 10.0);
+            AnchorPane.setRightAnchor(sidePanel, 10.0);
+            ((Pane) parent).getChildren().add(sidePanel);
+        }
+    }
+    
+    /**
+     * Returns the boroughs to compare, taken from the list when any borough is
+     * selected in it and from the two combo boxes otherwise.
+     */
+    private List<String> getSelectedBoroughs() {
+        List<String> selectedBoroughs = new ArrayList<>(boroughListView.getSelectionModel().getSelectedItems());
+        if (selectedBoroughs.isEmpty()) {
+            String selectedBorough1 = boroughComboBox1.getValue();
+            String selectedBorough2 = boroughComboBox2.getValue();
+            if (selectedBorough1 != null && selectedBorough2 != null) {
+                selectedBoroughs.add(selectedBorough1);
+                selectedBoroughs.add(selectedBorough2);
             }
         }
-        
-        return totalDataValue;
+        return selectedBoroughs;
     }
     
     /**
      * Updates the bar chart with data based on the selected boroughs and checkboxes.
+     * The totals of every borough and data type are computed together in one pass
+     * and the chart is replaced in a single batch.
      */
     private void updateBarChart() {
-        // Clear existing data in the bar chart
-        barChart.getData().clear();
-        
-        String selectedBorough1 = boroughComboBox1.getValue();
-        String selectedBorough2 = boroughComboBox2.getValue();
+        List<String> selectedBoroughs = getSelectedBoroughs();
         boolean newCasesSelected = checkBoxCases.isSelected();
         boolean newDeathsSelected = checkBoxDeaths.isSelected();
+        DerivedMetric derivedMetric = derivedComboBox.getValue();
         
-        // Proceed only if both boroughs are selected and at least one checkbox is selected
-        if (selectedBorough1 != null && selectedBorough2 != null && (newCasesSelected || newDeathsSelected)) {
-            // Add series for new cases if selected
-            if (newCasesSelected) {
-                int newCases1 = getBarChartData(selectedBorough1, checkBoxCases.getText());
-                int newCases2 = getBarChartData(selectedBorough2, checkBoxCases.getText());
-                XYChart.Series<String, Integer> series1 = new XYChart.Series<>();
-                series1.setName("New Cases");
-                series1.getData().add(new XYChart.Data<>(selectedBorough1, newCases1));
-                series1.getData().add(new XYChart.Data<>(selectedBorough2, newCases2));
-                barChart.getData().add(series1);
-            }
+        // Proceed only if boroughs are selected and at least one checkbox or a derived metric is selected
+        if (selectedBoroughs.isEmpty() || !(newCasesSelected || newDeathsSelected || derivedMetric != null)) {
+            barChart.getData().clear();
+            return;
+        }
+        
+        List<CovidMetric> metrics = new ArrayList<>();
+        if (newCasesSelected) {
+            metrics.add(CovidMetric.NEW_CASES);
+        }
+        if (newDeathsSelected) {
+            metrics.add(CovidMetric.NEW_DEATHS);
+        }
+        HashMap<String, long[]> totals = dataManipulator.getBoroughTotals(selectedBoroughs, metrics, true);
+        
+        List<XYChart.Series<String, Integer>> seriesList = new ArrayList<>();
+        for (int i = 0; i < metrics.size(); i++) {
+            CovidMetric metric = metrics.get(i);
+            // Adjust new deaths by a scale of 100 for better visualization on the bar chart
+            int scale = metric == CovidMetric.NEW_DEATHS ? 100 : 1;
             
-            // Add series for new deaths if selected
-            if (newDeathsSelected) {
-                int newDeaths1 = getBarChartData(selectedBorough1, checkBoxDeaths.getText());
-                int newDeaths2 = getBarChartData(selectedBorough2, checkBoxDeaths.getText());
-                XYChart.Series<String, Integer> series2 = new XYChart.Series<>();
-                series2.setName("New Deaths");
-                series2.getData().add(new XYChart.Data<>(selectedBorough1, newDeaths1));
-                series2.getData().add(new XYChart.Data<>(selectedBorough2, newDeaths2));
-                barChart.getData().add(series2);
+            XYChart.Series<String, Integer> series = new XYChart.Series<>();
+            series.setName(metric.getLabel());
+            for (String borough : selectedBoroughs) {
+                series.getData().add(new XYChart.Data<>(borough, (int) (totals.get(borough)[i] * scale)));
             }
+            seriesList.add(series);
         }
+        if (derivedMetric != null) {
+            // Derived values are rounded to whole numbers like the other bars
+            Map<String, Double> values = dataManipulator.getDerivedValues(derivedMetric, dataManipulator.getRecordsInRange() != null);
+            XYChart.Series<String, Integer> series = new XYChart.Series<>();
+            series.setName(derivedMetric.getName());
+            for (String borough : selectedBoroughs) {
+                Double value = values.get(borough);
+                series.getData().add(new XYChart.Data<>(borough, value == null ? 0 : (int) Math.round(value)));
+            }
+            seriesList.add(series);
+        }
+        barChart.getData().setAll(seriesList);
+    }
+    
+    /**
+     * Handles a change of the boroughs selected in the list.
+     */
+    private void handleListSelection() {
+        List<String> selectedBoroughs = boroughListView.getSelectionModel().getSelectedItems();
+        if (!selectedBoroughs.isEmpty()) {
+            barChart.setTitle(String.join(", ", selectedBoroughs));
+        }
+        updateBarChart();
     }
     
     /**
@@ -160,6 +186,7 @@ public class ComparatorController
      */
     @FXML
     private void handleBoroughSelection() { 
+        long start = System.nanoTime();
         // Get the selected boroughs from the combo boxes
         String selectedBorough1 = boroughComboBox1.getValue();
         String selectedBorough2 = boroughComboBox2.getValue();
@@ -168,6 +195,8 @@ public class ComparatorController
         if (selectedBorough1 != null && selectedBorough2 != null) {
             // Check if the selected boroughs are different
             if (!selectedBorough1.equals(selectedBorough2)) {
+                // The combo boxes take over from the list
+                boroughListView.getSelectionModel().clearSelection();
                 // Set the title of the bar chart to display the selected boroughs for comparison
                 barChart.setTitle(selectedBorough1 + "\nvs\n" + selectedBorough2);
                 // Update the bar chart with new data
@@ -185,6 +214,7 @@ public class ComparatorController
                 boroughComboBox2.getSelectionModel().clearSelection();
             }
         }
+        MetricsRegistry.getInstance().timer("handler.handleBoroughSelection").recordSince(start);
     }
 
     
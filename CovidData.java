@@ -19,6 +19,17 @@ public class CovidData {
     */
     private String borough;
     
+    /*
+    The parsed form of the date, created the first time it is needed
+    */
+    private LocalDate localDate;
+    
+    /*
+    The compact id of the borough in the BoroughDimension, given by the store or cursor
+    the record comes from, or interned when the record is created
+    */
+    private final int boroughId;
+    
     
     /*
     The COVID information that's collected daily for each London borough
@@ -47,8 +58,21 @@ public class CovidData {
                         int parksGMR, int transitGMR, int workplacesGMR, int residentialGMR, 
                         int newCases, int totalCases, int newDeaths, int totalDeaths) {
 
+        this(date, borough, BoroughDimension.getDefault().getId(borough), retailRecreationGMR, groceryPharmacyGMR,
+            parksGMR, transitGMR, workplacesGMR, residentialGMR, newCases, totalCases, newDeaths, totalDeaths);
+    }
+    
+    /**
+     * Creates a record whose borough id in the default BoroughDimension is already
+     * known, so the name is not looked up again
+     */
+    public CovidData(String date, String borough, int boroughId, int retailRecreationGMR, int groceryPharmacyGMR, 
+                        int parksGMR, int transitGMR, int workplacesGMR, int residentialGMR, 
+                        int newCases, int totalCases, int newDeaths, int totalDeaths) {
+
         this.date = date;
         this.borough = borough;
+        this.boroughId = boroughId;
         this.retailRecreationGMR = retailRecreationGMR;
         this.groceryPharmacyGMR = groceryPharmacyGMR;
         this.parksGMR = parksGMR;
@@ -70,12 +94,29 @@ public class CovidData {
      * return date in LocalDate format
      */
     public LocalDate getLocalDate() {
-        return LocalDate.parse(date);
+        if (localDate == null) {
+            localDate = LocalDate.parse(date);
+        }
+        return localDate;
+    }
+    
+    /**
+     * return date as the number of days since 1970-01-01
+     */
+    public long getEpochDay() {
+        return getLocalDate().toEpochDay();
     }
 
     public String getBorough() {
         return borough;
     }
+    
+    /**
+     * return the id of the borough in the BoroughDimension
+     */
+    public int getBoroughId() {
+        return boroughId;
+    }
 
 
     public int getRetailRecreationGMR() {
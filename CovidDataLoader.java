@@ -1,10 +1,30 @@
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import com.opencsv.CSVParser;
 import com.opencsv.CSVReader;
 import java.net.URISyntaxException;
 
@@ -15,45 +35,330 @@ import java.net.URISyntaxException;
  */
 
 public class CovidDataLoader {
+    
+    //number of bytes of the file read by the last load, where following the file starts
+    private long loadedBytes;
  
     /** 
      * Return an ArrayList containing the rows in the Covid London data set csv file.
      */
     public ArrayList<CovidData> load() {
-        System.out.println("Begin loading Covid London dataset...");
-        ArrayList<CovidData> records = new ArrayList<CovidData>();
+        return load(getDefaultFile());
+    }
+    
+    /**
+     * Returns the Covid London data set csv file shipped with the application.
+     */
+    public File getDefaultFile() {
         try{
             URL url = getClass().getResource("covid_london.csv");
-            CSVReader reader = new CSVReader(new FileReader(new File(url.toURI()).getAbsolutePath()));
+            return new File(url.toURI());
+        } catch(URISyntaxException e){
+            System.out.println("Something Went Wrong?!");
+            e.printStackTrace();
+            return new File("covid_london.csv");
+        }
+    }
+    
+    /** 
+     * Return an ArrayList containing the rows of a csv file laid out like the
+     * Covid London data set.
+     */
+    public ArrayList<CovidData> load(File file) {
+        ArrayList<CovidData> records = new ArrayList<CovidData>();
+        load(file, records::add);
+        return records;
+    }
+    
+    /** 
+     * Passes each row of a csv file laid out like the Covid London data set to the
+     * consumer as it is read, so the rows can be stored without first being
+     * collected in a list. Returns the number of rows read.
+     */
+    public long load(File file, Consumer<CovidData> consumer) {
+        System.out.println("Begin loading Covid London dataset...");
+        long rows = 0;
+        DataLayerEvents.CsvLoad event = new DataLayerEvents.CsvLoad();
+        event.begin();
+        long start = System.nanoTime();
+        CountingInputStream bytes = null;
+        try{
+            bytes = new CountingInputStream(new FileInputStream(file.getAbsolutePath()));
+            CSVReader reader = new CSVReader(new InputStreamReader(bytes, StandardCharsets.UTF_8));
             String [] line;
             //skip the first row (column headers)
             reader.readNext();
             while ((line = reader.readNext()) != null) {
-                
-                String date    = line[0];
-                String borough    = line[1];    
-                int retailRecreationGMR    = convertInt(line[2]);    
-                int groceryPharmacyGMR    = convertInt(line[3]);    
-                int parksGMR    = convertInt(line[4]);    
-                int transitGMR    = convertInt(line[5]);    
-                int workplacesGMR    = convertInt(line[6]);    
-                int residentialGMR    = convertInt(line[7]);    
-                int newCases    = convertInt(line[8]);    
-                int totalCases    = convertInt(line[9]);    
-                int newDeaths    = convertInt(line[10]);    
-                int totalDeaths    = convertInt(line[11]);                
-
-                CovidData record = new CovidData(date,borough,retailRecreationGMR,
-                    groceryPharmacyGMR,parksGMR,transitGMR,workplacesGMR,
-                    residentialGMR,newCases,totalCases,newDeaths,totalDeaths);
-                records.add(record);
+                consumer.accept(parseRecord(line));
+                rows++;
             }
-        } catch(IOException | URISyntaxException e){
+            reader.close();
+        } catch(IOException e){
             System.out.println("Something Went Wrong?!");
             e.printStackTrace();
         }
-        System.out.println("Number of Loaded Records: " + records.size());
-        return records;
+        
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.timer("csv.load").recordSince(start);
+        metrics.counter("csv.rows").add(rows);
+        metrics.counter("csv.bytes").add(file.length());
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.rows = rows;
+            event.bytes = file.length();
+            event.commit();
+        }
+        
+        loadedBytes = bytes == null ? 0 : bytes.count;
+        System.out.println("Number of Loaded Records: " + rows);
+        return rows;
+    }
+    
+    /**
+     * Opens a cursor over the rows of a csv file that match a query, decoding only
+     * the columns the query asks for. Unlike load, the rows are not kept.
+     */
+    public RecordCursor open(File file, RecordQuery query) throws IOException {
+        return new RecordCursor(file, query);
+    }
+    
+    /**
+     * Returns the rows of a csv file that match a query as a stream of records, read
+     * as the stream is consumed. Metrics not asked for are missing. Close the stream
+     * when done, for example with try-with-resources.
+     */
+    public Stream<CovidData> stream(File file, RecordQuery query) throws IOException {
+        return open(file, query).stream();
+    }
+    
+    /**
+     * Returns the number of bytes of the file read by the last load
+     */
+    public long getLoadedBytes() {
+        return loadedBytes;
+    }
+    
+    /**
+     * Follows a csv file that is appended to, passing the rows added after the given
+     * byte offset to the listener as they arrive, a batch at a time. The file is
+     * watched with a WatchService on a background thread, and only the new bytes are
+     * read; a line is parsed once it is complete. Call close on the returned
+     * Follower to stop following.
+     *
+     * @param file     The file to follow.
+     * @param offset   The number of bytes already read, usually getLoadedBytes().
+     * @param listener Receives each batch of new rows, on the follower's thread.
+     */
+    public Follower follow(File file, long offset, Consumer<List<CovidData>> listener) throws IOException {
+        return follow(file, offset, listener, null);
+    }
+    
+    /**
+     * Follows a csv file as above, also noticing when the file is rewritten rather
+     * than appended to: when it is replaced or becomes shorter. The rewritten file is
+     * then handed to onRewrite, which reads it and returns the number of bytes it
+     * read, from where following carries on.
+     *
+     * @param file      The file to follow.
+     * @param offset    The number of bytes already read, usually getLoadedBytes().
+     * @param listener  Receives each batch of new rows, on the follower's thread.
+     * @param onRewrite Reads a rewritten file, on the follower's thread; if null a
+     *                  rewritten file is followed from its new end.
+     */
+    public Follower follow(File file, long offset, Consumer<List<CovidData>> listener, LongSupplier onRewrite) throws IOException {
+        Follower follower = new Follower(file, offset, listener, onRewrite);
+        follower.thread.start();
+        return follower;
+    }
+    
+    /**
+     * Creates a record from the columns of one row of the csv file.
+     */
+    private CovidData parseRecord(String[] line) {
+        String date    = line[0];
+        String borough    = line[1];    
+        int retailRecreationGMR    = convertInt(line[2]);    
+        int groceryPharmacyGMR    = convertInt(line[3]);    
+        int parksGMR    = convertInt(line[4]);    
+        int transitGMR    = convertInt(line[5]);    
+        int workplacesGMR    = convertInt(line[6]);    
+        int residentialGMR    = convertInt(line[7]);    
+        int newCases    = convertInt(line[8]);    
+        int totalCases    = convertInt(line[9]);    
+        int newDeaths    = convertInt(line[10]);    
+        int totalDeaths    = convertInt(line[11]);                
+
+        return new CovidData(date,borough,retailRecreationGMR,
+            groceryPharmacyGMR,parksGMR,transitGMR,workplacesGMR,
+            residentialGMR,newCases,totalCases,newDeaths,totalDeaths);
+    }
+
+    /**
+     * Follower watches a csv file for appended rows. The file's directory is watched
+     * for changes, and the file is also checked every few seconds in case a change
+     * notice is missed, as happens on some network drives.
+     */
+    public class Follower implements AutoCloseable {
+        
+        //longest wait between checks of the file, in seconds
+        private static final int POLL_SECONDS = 2;
+        
+        private final File file;
+        private final Consumer<List<CovidData>> listener;
+        private final LongSupplier onRewrite;
+        private final WatchService watchService;
+        private final Thread thread;
+        private final CSVParser parser = new CSVParser();
+        private long offset;
+        
+        private Follower(File file, long offset, Consumer<List<CovidData>> listener, LongSupplier onRewrite) throws IOException {
+            this.file = file.getAbsoluteFile();
+            this.offset = offset;
+            this.listener = listener;
+            this.onRewrite = onRewrite;
+            Path directory = this.file.getParentFile().toPath();
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            thread = new Thread(this::run, "csv-follower");
+            thread.setDaemon(true);
+        }
+        
+        /**
+         * Returns the number of bytes of the file read so far
+         */
+        public synchronized long getOffset() {
+            return offset;
+        }
+        
+        /**
+         * Stops following the file
+         */
+        @Override
+        public void close() {
+            try {
+                watchService.close();
+            } catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+        
+        private void run() {
+            try {
+                while (true) {
+                    WatchKey key = watchService.poll(POLL_SECONDS, TimeUnit.SECONDS);
+                    boolean replaced = false;
+                    if (key != null) {
+                        //a created file has replaced the one followed; other events only say something changed
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                && file.getName().equals(String.valueOf(event.context()))) {
+                                replaced = true;
+                            }
+                        }
+                        key.reset();
+                    }
+                    if (replaced) {
+                        readRewritten();
+                    }
+                    else {
+                        readAppended();
+                    }
+                }
+            } catch(ClosedWatchServiceException | InterruptedException e){
+                //closed, stop following
+            }
+        }
+        
+        /**
+         * Hands a rewritten file to onRewrite and carries on from where it stopped reading
+         */
+        private synchronized void readRewritten() {
+            if (onRewrite == null) {
+                System.out.println("Followed file " + file + " was rewritten; following from its new end");
+                offset = file.length();
+                return;
+            }
+            offset = onRewrite.getAsLong();
+        }
+        
+        /**
+         * Reads and passes on the complete lines added since the last read
+         */
+        private synchronized void readAppended() {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < offset) {
+                    readRewritten();
+                    return;
+                }
+                if (size == offset) {
+                    return;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - offset, Integer.MAX_VALUE - 8));
+                channel.read(buffer, offset);
+                byte[] bytes = buffer.array();
+                int end = buffer.position();
+                while (end > 0 && bytes[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    return;
+                }
+                
+                List<CovidData> rows = new ArrayList<>();
+                String text = new String(bytes, 0, end, StandardCharsets.UTF_8);
+                for (String line : text.split("\r?\n")) {
+                    //the header is skipped when following a file from its start
+                    if (line.isEmpty() || (offset == 0 && rows.isEmpty() && line.startsWith("date,"))) {
+                        continue;
+                    }
+                    try {
+                        rows.add(parseRecord(parser.parseLine(line)));
+                    } catch(IOException | RuntimeException e){
+                        //such as an unterminated quote; the offset still moves past the line
+                        System.out.println("Skipping malformed row: " + line);
+                    }
+                }
+                offset += end;
+                MetricsRegistry.getInstance().counter("csv.followedRows").add(rows.size());
+                if (!rows.isEmpty()) {
+                    listener.accept(rows);
+                }
+            } catch(IOException e){
+                System.out.println("Something Went Wrong?!");
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Input stream counting the bytes read through it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
     }
 
     /**
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The test class CovidDataLoaderTest.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class CovidDataLoaderTest
+{
+    private File dataFile;
+
+    /**
+     * Default constructor for test class CovidDataLoaderTest
+     */
+    public CovidDataLoaderTest()
+    {
+    }
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        dataFile = File.createTempFile("follow", ".csv");
+        dataFile.deleteOnExit();
+        Files.write(dataFile.toPath(), List.of(
+            SyntheticDataGenerator.HEADER,
+            "2022-01-01,Borough1,1,1,1,1,1,1,1,1,1,1"));
+    }
+
+    /**
+     * Tests that a followed file passes on appended rows, skipping a malformed row
+     * and still reading the rows after it.
+     */
+    @Test
+    public void testFollowSkipsMalformedRows() throws IOException, InterruptedException {
+        CovidDataLoader loader = new CovidDataLoader();
+        assertEquals(1, loader.load(dataFile).size());
+
+        LinkedBlockingQueue<CovidData> arrived = new LinkedBlockingQueue<>();
+        try (CovidDataLoader.Follower follower = loader.follow(dataFile, loader.getLoadedBytes(), arrived::addAll)) {
+            // A stray quote leaves the field unterminated
+            append("2022-01-02,\"Borough1,1,1,1,1,1,1,2,3,1,2\n");
+            append("2022-01-03,Borough1,1,1,1,1,1,1,4,7,0,2\n");
+
+            CovidData record = arrived.poll(15, TimeUnit.SECONDS);
+            assertNotNull(record); // the row after the malformed one arrives
+            assertEquals("2022-01-03", record.getDate());
+            assertEquals(7, record.getTotalCases());
+            assertTrue(arrived.isEmpty());
+            assertEquals(dataFile.length(), follower.getOffset()); // the malformed row was read past
+        }
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+        dataFile.delete();
+    }
+
+    private void append(String text) throws IOException {
+        Files.write(dataFile.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+}
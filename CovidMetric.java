@@ -0,0 +1,81 @@
+/**
+ * CovidMetric lists the numeric columns of a CovidData record together with
+ * how each column should be summarised over several days.
+ *
+ * Cumulative columns (total cases, total deaths) are summarised by their newest
+ * known value, daily columns (new cases, new deaths) by their sum, and the Google
+ * mobility columns by their mean.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public enum CovidMetric
+{
+    NEW_CASES("New Cases", Aggregation.SUM),
+    TOTAL_CASES("Total Cases", Aggregation.LATEST),
+    NEW_DEATHS("New Deaths", Aggregation.SUM),
+    TOTAL_DEATHS("Total Deaths", Aggregation.LATEST),
+    RETAIL_RECREATION_GMR("Retail & Recreation Mobility", Aggregation.MEAN),
+    GROCERY_PHARMACY_GMR("Grocery & Pharmacy Mobility", Aggregation.MEAN),
+    PARKS_GMR("Parks Mobility", Aggregation.MEAN),
+    TRANSIT_GMR("Transit Mobility", Aggregation.MEAN),
+    WORKPLACES_GMR("Workplaces Mobility", Aggregation.MEAN),
+    RESIDENTIAL_GMR("Residential Mobility", Aggregation.MEAN);
+
+    /**
+     * The way values of a metric are combined over a range of days
+     */
+    public enum Aggregation { SUM, MEAN, LATEST }
+
+    //value used by the data set when a column is empty
+    public static final int MISSING = -1;
+
+    private final String label;
+    private final Aggregation aggregation;
+
+    private CovidMetric(String label, Aggregation aggregation) {
+        this.label = label;
+        this.aggregation = aggregation;
+    }
+
+    /**
+     * Returns the value of this metric in the given record
+     */
+    public int getValue(CovidData record) {
+        switch (this) {
+            case NEW_CASES:
+                return record.getNewCases();
+            case TOTAL_CASES:
+                return record.getTotalCases();
+            case NEW_DEATHS:
+                return record.getNewDeaths();
+            case TOTAL_DEATHS:
+                return record.getTotalDeaths();
+            case RETAIL_RECREATION_GMR:
+                return record.getRetailRecreationGMR();
+            case GROCERY_PHARMACY_GMR:
+                return record.getGroceryPharmacyGMR();
+            case PARKS_GMR:
+                return record.getParksGMR();
+            case TRANSIT_GMR:
+                return record.getTransitGMR();
+            case WORKPLACES_GMR:
+                return record.getWorkplacesGMR();
+            default:
+                return record.getResidentialGMR();
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
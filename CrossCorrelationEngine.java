@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * CrossCorrelationEngine measures how closely each Google mobility column leads new
+ * cases. For every borough, and for London as a whole, it correlates the mobility
+ * on each day with the new cases a number of days later, for every lag from 0 up to
+ * a maximum.
+ *
+ * Each correlation is one pass over the days that updates running means and
+ * co-moments, so no lag is re-summed from scratch. The series are independent and
+ * are computed in parallel. Results are reused for as long as the same records and
+ * lags are asked for.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class CrossCorrelationEngine
+{
+    //the mobility columns correlated with new cases, in the order of the results
+    public static final List<CovidMetric> MOBILITY_METRICS = List.of(
+        CovidMetric.RETAIL_RECREATION_GMR, CovidMetric.GROCERY_PHARMACY_GMR, CovidMetric.PARKS_GMR,
+        CovidMetric.TRANSIT_GMR, CovidMetric.WORKPLACES_GMR, CovidMetric.RESIDENTIAL_GMR);
+
+    public static final int DEFAULT_MAX_LAG = 28;
+
+    //name of the series of London as a whole
+    public static final String LONDON = "London";
+
+    //fewest pairs of days a correlation is computed from
+    private static final int MIN_PAIRS = 3;
+
+    //records and lags of the last computation, with its result
+    private List<CovidData> computedRecords;
+    private int computedSize;
+    private int computedMaxLag = -1;
+    private Result result;
+
+    /**
+     * Returns the correlations for the records, computing them first if the records
+     * or lags have changed since the last call.
+     *
+     * @param records The records to correlate, usually those in the selected range.
+     * @param maxLag  The longest lag, in days.
+     */
+    public synchronized Result getResult(List<CovidData> records, int maxLag) {
+        if (records != computedRecords || records.size() != computedSize || maxLag != computedMaxLag) {
+            result = compute(records, maxLag);
+            computedRecords = records;
+            computedSize = records.size();
+            computedMaxLag = maxLag;
+        }
+        return result;
+    }
+
+    /**
+     * Correlates every mobility column with new cases at every lag, for every borough
+     * and for London, in parallel.
+     *
+     * @param records The records to correlate.
+     * @param maxLag  The longest lag, in days.
+     */
+    public static Result compute(List<CovidData> records, int maxLag) {
+        if (maxLag < 0) {
+            throw new IllegalArgumentException("Negative lag " + maxLag);
+        }
+        long start = System.nanoTime();
+        ArrayList<CovidMetric> metrics = new ArrayList<>(MOBILITY_METRICS);
+        metrics.add(CovidMetric.NEW_CASES);
+        DailySeries daily = DailySeries.of(records, metrics);
+
+        ArrayList<String> seriesNames = new ArrayList<>(daily.getBoroughs());
+        seriesNames.add(LONDON);
+        int londonIndex = seriesNames.size() - 1;
+        double[][][] correlations = new double[seriesNames.size()][MOBILITY_METRICS.size()][maxLag + 1];
+
+        //one task per series and mobility column
+        IntStream.range(0, seriesNames.size() * MOBILITY_METRICS.size()).parallel().forEach(task -> {
+            int series = task / MOBILITY_METRICS.size();
+            CovidMetric metric = MOBILITY_METRICS.get(task % MOBILITY_METRICS.size());
+            double[] mobility;
+            double[] cases;
+            if (series == londonIndex) {
+                mobility = daily.getLondonValues(metric);
+                cases = daily.getLondonValues(CovidMetric.NEW_CASES);
+            }
+            else {
+                mobility = DailySeries.toDoubles(daily.getValues(seriesNames.get(series), metric));
+                cases = DailySeries.toDoubles(daily.getValues(seriesNames.get(series), CovidMetric.NEW_CASES));
+            }
+            for (int lag = 0; lag <= maxLag; lag++) {
+                correlations[series][task % MOBILITY_METRICS.size()][lag] = laggedCorrelation(mobility, cases, lag);
+            }
+        });
+
+        MetricsRegistry.getInstance().timer("correlation.compute").recordSince(start);
+        return new Result(seriesNames, maxLag, correlations);
+    }
+
+    /**
+     * Returns the Pearson correlation of x on each day with y lag days later, over
+     * the days where both are known. The means and co-moments are updated one pair
+     * at a time. NaN if there are too few pairs or either side does not vary.
+     */
+    static double laggedCorrelation(double[] x, double[] y, int lag) {
+        long n = 0;
+        double meanX = 0;
+        double meanY = 0;
+        double sumSquaresX = 0;
+        double sumSquaresY = 0;
+        double coMoment = 0;
+        for (int day = 0; day + lag < y.length; day++) {
+            double xValue = x[day];
+            double yValue = y[day + lag];
+            if (Double.isNaN(xValue) || Double.isNaN(yValue)) {
+                continue;
+            }
+            n++;
+            double deltaX = xValue - meanX;
+            meanX += deltaX / n;
+            double deltaY = yValue - meanY;
+            meanY += deltaY / n;
+            sumSquaresX += deltaX * (xValue - meanX);
+            sumSquaresY += deltaY * (yValue - meanY);
+            coMoment += deltaX * (yValue - meanY);
+        }
+        if (n < MIN_PAIRS || sumSquaresX == 0 || sumSquaresY == 0) {
+            return Double.NaN;
+        }
+        return coMoment / Math.sqrt(sumSquaresX * sumSquaresY);
+    }
+
+    /**
+     * The correlations of every series, mobility column and lag
+     */
+    public static class Result
+    {
+        private final List<String> seriesNames;
+        private final int maxLag;
+        //indexed by series, mobility column and lag
+        private final double[][][] correlations;
+
+        private Result(List<String> seriesNames, int maxLag, double[][][] correlations) {
+            this.seriesNames = List.copyOf(seriesNames);
+            this.maxLag = maxLag;
+            this.correlations = correlations;
+        }
+
+        /**
+         * Returns the names of the series: every borough, then London
+         */
+        public List<String> getSeriesNames() {
+            return seriesNames;
+        }
+
+        public int getMaxLag() {
+            return maxLag;
+        }
+
+        /**
+         * Returns the correlation of a mobility column with new cases lag days later,
+         * or NaN if it could not be computed
+         *
+         * @throws IllegalArgumentException if the series or metric is unknown
+         */
+        public double getCorrelation(String series, CovidMetric metric, int lag) {
+            if (lag < 0 || lag > maxLag) {
+                throw new IllegalArgumentException("Lag " + lag + " is outside 0 to " + maxLag);
+            }
+            return correlations[indexOfSeries(series)][indexOfMetric(metric)][lag];
+        }
+
+        /**
+         * Returns the lag at which a mobility column is most strongly correlated with
+         * new cases, either way, or -1 if no correlation could be computed
+         */
+        public int getStrongestLag(String series, CovidMetric metric) {
+            double[] byLag = correlations[indexOfSeries(series)][indexOfMetric(metric)];
+            int strongest = -1;
+            for (int lag = 0; lag < byLag.length; lag++) {
+                if (!Double.isNaN(byLag[lag]) && (strongest < 0 || Math.abs(byLag[lag]) > Math.abs(byLag[strongest]))) {
+                    strongest = lag;
+                }
+            }
+            return strongest;
+        }
+
+        private int indexOfSeries(String series) {
+            int i = seriesNames.indexOf(series);
+            if (i < 0) {
+                throw new IllegalArgumentException("Unknown series " + series);
+            }
+            return i;
+        }
+
+        private static int indexOfMetric(CovidMetric metric) {
+            int i = MOBILITY_METRICS.indexOf(metric);
+            if (i < 0) {
+                throw new IllegalArgumentException(metric + " is not a mobility column");
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * DailySeries lays out some metrics of the records as one array per borough and
+ * metric, with one entry per day from the first to the last day of the records.
+ * Days without a record, or with an empty column, hold CovidMetric.MISSING. Time
+ * series analyses can then step through the days by index rather than searching
+ * the records for each day.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class DailySeries
+{
+    private final List<CovidMetric> metrics;
+    private final long firstDay;
+    private final int days;
+    //values of each borough, one row per metric, in borough name order
+    private final TreeMap<String, int[][]> valuesByBorough;
+
+    private DailySeries(List<CovidMetric> metrics, long firstDay, int days, TreeMap<String, int[][]> valuesByBorough) {
+        this.metrics = metrics;
+        this.firstDay = firstDay;
+        this.days = days;
+        this.valuesByBorough = valuesByBorough;
+    }
+
+    /**
+     * Lays out the metrics of every borough found in the records in one pass. When
+     * a borough has several records for a day, the last one is kept.
+     *
+     * @param records The records to lay out.
+     * @param metrics The metrics to keep.
+     */
+    public static DailySeries of(List<CovidData> records, List<CovidMetric> metrics) {
+        long firstDay = Long.MAX_VALUE;
+        long lastDay = Long.MIN_VALUE;
+        for (CovidData record : records) {
+            long day = record.getEpochDay();
+            firstDay = Math.min(firstDay, day);
+            lastDay = Math.max(lastDay, day);
+        }
+        int days = records.isEmpty() ? 0 : (int) (lastDay - firstDay + 1);
+
+        TreeMap<String, int[][]> valuesByBorough = new TreeMap<>();
+        CovidMetric[] metricArray = metrics.toArray(new CovidMetric[0]);
+        for (CovidData record : records) {
+            int[][] values = valuesByBorough.get(record.getBorough());
+            if (values == null) {
+                values = new int[metricArray.length][days];
+                for (int[] column : values) {
+                    Arrays.fill(column, CovidMetric.MISSING);
+                }
+                valuesByBorough.put(record.getBorough(), values);
+            }
+            int day = (int) (record.getEpochDay() - firstDay);
+            for (int i = 0; i < metricArray.length; i++) {
+                values[i][day] = metricArray[i].getValue(record);
+            }
+        }
+        return new DailySeries(List.copyOf(metrics), firstDay, days, valuesByBorough);
+    }
+
+    /**
+     * Returns the epoch day of the first entry of every array
+     */
+    public long getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns the number of days, which is the length of every array
+     */
+    public int getDays() {
+        return days;
+    }
+
+    /**
+     * Returns the names of the boroughs, in alphabetical order
+     */
+    public List<String> getBoroughs() {
+        return Collections.unmodifiableList(new ArrayList<>(valuesByBorough.keySet()));
+    }
+
+    /**
+     * Returns the daily values of a metric for a borough. The array is shared and
+     * must not be changed.
+     *
+     * @return The values, or null if the borough has no records.
+     * @throws IllegalArgumentException if the metric was not laid out
+     */
+    public int[] getValues(String borough, CovidMetric metric) {
+        int i = indexOf(metric);
+        int[][] values = valuesByBorough.get(borough);
+        return values == null ? null : values[i];
+    }
+
+    /**
+     * Returns the daily values of a metric for London as a whole, combining the
+     * boroughs the way the metric is summarised: daily and cumulative counts are
+     * added up and mobility is averaged. Days without any value are NaN.
+     *
+     * @throws IllegalArgumentException if the metric was not laid out
+     */
+    public double[] getLondonValues(CovidMetric metric) {
+        int i = indexOf(metric);
+        double[] totals = new double[days];
+        int[] counts = new int[days];
+        for (int[][] values : valuesByBorough.values()) {
+            for (int day = 0; day < days; day++) {
+                if (values[i][day] != CovidMetric.MISSING) {
+                    totals[day] += values[i][day];
+                    counts[day]++;
+                }
+            }
+        }
+        for (int day = 0; day < days; day++) {
+            if (counts[day] == 0) {
+                totals[day] = Double.NaN;
+            }
+            else if (metric.getAggregation() == CovidMetric.Aggregation.MEAN) {
+                totals[day] /= counts[day];
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Converts daily values to doubles, with missing values as NaN
+     */
+    public static double[] toDoubles(int[] values) {
+        double[] doubles = new double[values.length];
+        for (int day = 0; day < values.length; day++) {
+            doubles[day] = values[day] == CovidMetric.MISSING ? Double.NaN : values[day];
+        }
+        return doubles;
+    }
+
+    private int indexOf(CovidMetric metric) {
+        int i = metrics.indexOf(metric);
+        if (i < 0) {
+            throw new IllegalArgumentException(metric + " was not laid out");
+        }
+        return i;
+    }
+}
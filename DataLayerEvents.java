@@ -0,0 +1,113 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * DataLayerEvents holds the Java Flight Recorder events emitted around the hot
+ * paths of the data layer and the user interface. They cost next to nothing
+ * unless a recording is running, for example one started with
+ * -XX:StartFlightRecording:filename=viewer.jfr, and appear under
+ * "Covid Data Viewer" in JDK Mission Control.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public final class DataLayerEvents
+{
+    private DataLayerEvents() {
+    }
+
+    @Name("covid.CsvLoad")
+    @Label("CSV Load")
+    @Category({"Covid Data Viewer", "Data"})
+    @Description("Parsing of a csv data set into records")
+    public static class CsvLoad extends Event
+    {
+        @Label("File")
+        public String file;
+
+        @Label("Rows")
+        public long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("covid.RangeUpdate")
+    @Label("Range Update")
+    @Category({"Covid Data Viewer", "Data"})
+    @Description("Selection of the records within the chosen date range")
+    public static class RangeUpdate extends Event
+    {
+        @Label("From")
+        public String from;
+
+        @Label("To")
+        public String to;
+
+        @Label("Records Scanned")
+        public long scanned;
+
+        @Label("Records In Range")
+        public long selected;
+    }
+
+    @Name("covid.BoroughFilter")
+    @Label("Borough Filter")
+    @Category({"Covid Data Viewer", "Data"})
+    @Description("Selection of the records of one borough")
+    public static class BoroughFilter extends Event
+    {
+        @Label("Borough")
+        public String borough;
+
+        @Label("Selected Range Only")
+        public boolean selectedRange;
+
+        @Label("Records Scanned")
+        public long scanned;
+
+        @Label("Records Found")
+        public long found;
+    }
+
+    @Name("covid.StatisticsPass")
+    @Label("Statistics Pass")
+    @Category({"Covid Data Viewer", "Statistics"})
+    @Description("One fused pass feeding records to every registered statistic")
+    public static class StatisticsPass extends Event
+    {
+        @Label("Records")
+        public long records;
+
+        @Label("Statistics")
+        public int statistics;
+    }
+
+    @Name("covid.Statistic")
+    @Label("Statistic")
+    @Category({"Covid Data Viewer", "Statistics"})
+    @Description("Producing and formatting the value of one statistic for display")
+    public static class StatisticValue extends Event
+    {
+        @Label("Statistic")
+        public String statistic;
+
+        @Label("Value")
+        public String value;
+    }
+
+    @Name("covid.FxmlLoad")
+    @Label("FXML Load")
+    @Category({"Covid Data Viewer", "User Interface"})
+    @Description("Loading of an FXML page, including its controller's initialize")
+    public static class FxmlLoad extends Event
+    {
+        @Label("File")
+        public String file;
+    }
+}
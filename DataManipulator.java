@@ -1,6 +1,23 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.time.LocalDate;
+import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
 import javafx.beans.property.SimpleObjectProperty;
 import com.google.common.annotations.VisibleForTesting;
 
@@ -16,6 +33,15 @@ public class DataManipulator
     //instance variable to hold the singleton class DataManipulator
     private static DataManipulator instance;
     
+    //system property choosing where loaded records are kept: "heap" (the default), "offheap", "packed" or "segmented"
+    public static final String STORAGE_PROPERTY = "covid.storage";
+    
+    //system property naming the directory of the segmented column files, by default next to the csv file
+    public static final String SEGMENT_DIRECTORY_PROPERTY = "covid.storage.dir";
+    
+    //system property which, when true, makes the application follow the csv file for appended rows
+    public static final String FOLLOW_PROPERTY = "covid.follow";
+    
     //instance variable for an instance of CovidDataLoader class
     private CovidDataLoader loader;
     
@@ -31,20 +57,111 @@ public class DataManipulator
     //Property wrapping a LocalDate object of EndDate
     private final ObjectProperty<LocalDate> fromDateProperty = new SimpleObjectProperty<>();
     
+    //swapped by the FX thread when records are appended or revised, and read by the query threads
     @VisibleForTesting
-    public ArrayList<CovidData> records;
+    public volatile List<CovidData> records;
     
     @VisibleForTesting
     public ArrayList<CovidData> recordsInRange;
     
     private ArrayList<CovidData> filteredBoroughRecords;
     
+    //Borough and range choice that produced filteredBoroughRecords, for patching it when records change
+    private String filteredBoroughName;
+    private boolean filteredSelectedRange;
+    
+    //Engine computing the borough map colours, which keeps a cache of recent results
+    private final ChoroplethEngine choroplethEngine = new ChoroplethEngine();
+    
+    //Engine computing the registered statistics shown on the stats panel
+    private final StatisticsEngine statisticsEngine = new StatisticsEngine(StatisticRegistry.getDefault());
+    
+    //Moving averages and growth of the daily counts of each borough
+    private final RollingAnalytics rollingAnalytics = new RollingAnalytics();
+    
+    //Correlations of mobility with later new cases, kept for the last records asked for
+    private final CrossCorrelationEngine crossCorrelationEngine = new CrossCorrelationEngine();
+    
+    //Engine grouping boroughs whose case curves took a similar course, which keeps a cache of recent results
+    private final TrajectoryClustering trajectoryClustering = new TrajectoryClustering();
+    
+    //Spikes and gaps in the daily counts, kept up to date as records are added
+    private final AnomalyDetector anomalyDetector = new AnomalyDetector();
+    
+    //Estimates of the reproduction number, kept up to date as records are added
+    private RtEstimator rtEstimator = new RtEstimator(RtEstimator.DEFAULT_SERIAL_INTERVAL_MEAN, RtEstimator.DEFAULT_SERIAL_INTERVAL_SD);
+    
+    //Sketches of the distribution of daily values, by borough and block of days
+    private final DistributionIndex distributionIndex = new DistributionIndex();
+    
+    //Number of times the loaded records have been changed in place
+    private volatile long revision;
+    
+    //Property wrapping the revision, for pages that refresh when records arrive
+    private final ReadOnlyLongWrapper revisionProperty = new ReadOnlyLongWrapper();
+    
+    //Positions of the records sorted by date, with their days, for answering date range queries
+    private int[] rowsByDate;
+    private long[] daysByDate;
+    private List<CovidData> dateIndexedRecords;
+    private int dateIndexedSize;
+    
     /**
      * Constructor for DataManipulator
      */
     private DataManipulator() {
         loader = new CovidDataLoader();
-        records = loader.load();
+        records = loadRecords(loader, loader.getDefaultFile());
+        anomalyDetector.detect(records);
+        distributionIndex.build(records);
+    }
+    
+    /**
+     * Constructor for a DataManipulator over records that were already loaded
+     */
+    private DataManipulator(List<CovidData> records) {
+        loader = new CovidDataLoader();
+        this.records = records;
+    }
+    
+    /**
+     * Returns a standalone DataManipulator over the given records, separate from the
+     * singleton used by the application. Used when running without the user interface.
+     */
+    public static DataManipulator forRecords(List<CovidData> records) {
+        return new DataManipulator(records);
+    }
+    
+    /**
+     * Loads the records of a csv file into the storage chosen by the storage system
+     * property: an ArrayList of records, an OffHeapColumnStore, a compressed
+     * PackedColumnStore, or a SegmentedColumnStore of memory-mapped files for data
+     * sets larger than memory. Column stores are read
+     * through a list view so the heap only holds the records currently in use.
+     */
+    public static List<CovidData> loadRecords(CovidDataLoader loader, File file) {
+        String storage = System.getProperty(STORAGE_PROPERTY, "heap");
+        if (storage.equals("offheap")) {
+            OffHeapColumnStore store = new OffHeapColumnStore();
+            loader.load(file, store::add);
+            return store.asList();
+        }
+        if (storage.equals("packed")) {
+            PackedColumnStore store = new PackedColumnStore();
+            loader.load(file, store::add);
+            return store.asList();
+        }
+        if (storage.equals("segmented")) {
+            File directory = new File(System.getProperty(SEGMENT_DIRECTORY_PROPERTY, file.getPath() + ".segments"));
+            try {
+                return SegmentedColumnStore.openOrBuild(directory, file, loader).asList();
+            }
+            catch (IOException e) {
+                System.out.println("Could not open the column files in " + directory + ", loading into memory instead");
+                e.printStackTrace();
+            }
+        }
+        return loader.load(file);
     }
     
     /**
@@ -65,14 +182,7 @@ public class DataManipulator
      * is a valid date from the Covid Database.
      */
     public boolean checkValidDate(LocalDate date) {
-        boolean valid = false;
-        for (CovidData record: records) {
-            LocalDate validDate = record.getLocalDate();
-            if (date.equals(validDate)) {
-                valid = true;
-            }
-        }
-        return valid;
+        return !getRecordsBetween(date, date).isEmpty();
     }
     
     /**
@@ -83,8 +193,11 @@ public class DataManipulator
      * @return              An ArrayList of CovidData objects filtered by the specified borough.
      */
     public ArrayList<CovidData> getFilterByBorough(String boroughName, boolean selectedRange) {
+        DataLayerEvents.BoroughFilter event = new DataLayerEvents.BoroughFilter();
+        event.begin();
+        long start = System.nanoTime();
         ArrayList<CovidData> filteredBoroughRecords = new ArrayList<>(); 
-        ArrayList<CovidData> chosenRecords;
+        List<CovidData> chosenRecords;
         if (selectedRange == true) {
             chosenRecords = recordsInRange;
         }
@@ -92,12 +205,45 @@ public class DataManipulator
             chosenRecords = records;
         }
         
-        for (CovidData record: chosenRecords) {
-            if (record.getBorough().equals(boroughName)) {
-                filteredBoroughRecords.add(record);
+        ColumnStore store = storeOf(chosenRecords);
+        if (store != null) {
+            //compare borough ids and create only the records that match
+            int boroughId = store.getBoroughId(boroughName);
+            for (int segment = 0; boroughId >= 0 && segment < store.getSegmentCount(); segment++) {
+                if (!store.mayMatch(segment, Long.MIN_VALUE, Long.MAX_VALUE, boroughId)) {
+                    continue;
+                }
+                for (int row = store.getSegmentStart(segment); row < store.getSegmentEnd(segment); row++) {
+                    if (store.getBoroughId(row) == boroughId) {
+                        filteredBoroughRecords.add(store.get(row));
+                    }
+                }
+            }
+        }
+        else {
+            //compare the compact borough ids the records carry; a name without an id has no records
+            int boroughId = BoroughDimension.getDefault().findId(boroughName);
+            if (boroughId >= 0) {
+                for (CovidData record: chosenRecords) {
+                    if (record.getBoroughId() == boroughId) {
+                        filteredBoroughRecords.add(record);
+                    }
+                }
             }
         }
         this.filteredBoroughRecords = filteredBoroughRecords;        
+        this.filteredBoroughName = boroughName;
+        this.filteredSelectedRange = selectedRange;
+        
+        MetricsRegistry.getInstance().timer("query.getFilterByBorough").recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.borough = boroughName;
+            event.selectedRange = selectedRange;
+            event.scanned = chosenRecords.size();
+            event.found = filteredBoroughRecords.size();
+            event.commit();
+        }
         return filteredBoroughRecords;
     }
     
@@ -108,40 +254,515 @@ public class DataManipulator
      * @return                       The total number of deaths from the newest available record within the filtered borough.
      */
     public int getNewestTotalDeath(ArrayList<CovidData> filteredBoroughRecords) {
-        CovidData newestRecord = null;
-        ArrayList<CovidData> emptyDeathRecords = new ArrayList<>(); //arraylist used to not include if the newest date has no value for total deaths
-        boolean foundNewestDeathRecord = false;
+        long newestDay = Long.MIN_VALUE;
         int totalDeaths = -1;
         
-        //while loop until a non empty newest total death record is found
-        while (foundNewestDeathRecord == false) {
-            LocalDate newestDate = LocalDate.of(2000, 1, 1); //default date
-            for (CovidData currentRecord : filteredBoroughRecords) {
-               LocalDate currentDate = currentRecord.getLocalDate();
-               
-               //if the record has already been ruled out as missing total deaths skip it
-               if (emptyDeathRecords.contains(currentRecord)) {
-                       continue;
-                   }
-                   
-               //update newest date if the current iteration is more recent
-               if (newestDate.isBefore(currentDate)) {
-                   newestRecord = currentRecord;
-                   newestDate = newestRecord.getLocalDate();
-               }
-            }
-            //check if the newest date is not empty if it is add it to the banned arraylist
-            totalDeaths = newestRecord.getTotalDeaths();
-            if (totalDeaths != -1) {
-                foundNewestDeathRecord = true;
+        //single pass keeping the newest record that has a value for total deaths
+        for (CovidData currentRecord : filteredBoroughRecords) {
+            if (currentRecord.getTotalDeaths() == -1) {
+                continue;
             }
-            else {
-                emptyDeathRecords.add(newestRecord);
+            long currentDay = currentRecord.getEpochDay();
+            if (currentDay > newestDay) {
+                newestDay = currentDay;
+                totalDeaths = currentRecord.getTotalDeaths();
             }
         }
         return totalDeaths;
     }
     
+    /**
+     * Calculates the total of every requested metric for every requested borough in a
+     * single pass over the records. Missing values are left out of the totals.
+     * 
+     * @param boroughNames  The names of the boroughs to total.
+     * @param metrics       The metrics to total, in the order of the returned arrays.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              The totals of each borough, one entry per metric.
+     */
+    public HashMap<String, long[]> getBoroughTotals(Collection<String> boroughNames, List<CovidMetric> metrics, boolean selectedRange) {
+        HashMap<String, long[]> totals = new HashMap<>();
+        for (String boroughName : boroughNames) {
+            totals.put(boroughName, new long[metrics.size()]);
+        }
+        CovidMetric[] metricArray = metrics.toArray(new CovidMetric[0]);
+        
+        //all the records until a range has been selected
+        List<CovidData> chosenRecords = selectedRange && recordsInRange != null ? recordsInRange : records;
+        ColumnStore store = storeOf(chosenRecords);
+        if (store != null) {
+            addBoroughTotals(store, totals, metricArray);
+            return totals;
+        }
+        //borough ids of the dimension mapped to the totals, null for boroughs not asked for
+        BoroughDimension dimension = BoroughDimension.getDefault();
+        long[][] totalsById = new long[dimension.size()][];
+        for (String boroughName : boroughNames) {
+            int boroughId = dimension.findId(boroughName);
+            if (boroughId >= 0) {
+                totalsById[boroughId] = totals.get(boroughName);
+            }
+        }
+        for (CovidData record : chosenRecords) {
+            int boroughId = record.getBoroughId();
+            long[] boroughTotals = boroughId < totalsById.length ? totalsById[boroughId] : null;
+            if (boroughTotals == null) {
+                continue;
+            }
+            for (int i = 0; i < metricArray.length; i++) {
+                int value = metricArray[i].getValue(record);
+                if (value != CovidMetric.MISSING) {
+                    boroughTotals[i] += value;
+                }
+            }
+        }
+        return totals;
+    }
+    
+    /**
+     * Adds up the metric columns of a column store for the boroughs in the totals
+     */
+    private static void addBoroughTotals(ColumnStore store, HashMap<String, long[]> totals, CovidMetric[] metricArray) {
+        //borough ids of the store mapped to the totals, null for boroughs not asked for
+        long[][] totalsById = new long[0][];
+        for (String boroughName : totals.keySet()) {
+            int boroughId = store.getBoroughId(boroughName);
+            if (boroughId >= 0) {
+                totalsById = Arrays.copyOf(totalsById, Math.max(totalsById.length, boroughId + 1));
+                totalsById[boroughId] = totals.get(boroughName);
+            }
+        }
+        for (int segment = 0; segment < store.getSegmentCount(); segment++) {
+            for (int i = 0; i < metricArray.length; i++) {
+                if (store.mayHaveValues(segment, metricArray[i])) {
+                    store.addTotals(segment, metricArray[i], totalsById, i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the column store behind a list of records, or null if the records are
+     * ordinary objects
+     */
+    private static ColumnStore storeOf(List<CovidData> records) {
+        if (records instanceof ColumnStore.RecordList) {
+            return ((ColumnStore.RecordList) records).getStore();
+        }
+        return null;
+    }
+    
+    /**
+     * Computes one statistic over the records of a borough between two dates
+     * (inclusive) without changing the selected range.
+     * 
+     * @param from      The first date of the range.
+     * @param to        The last date of the range.
+     * @param borough   The name of the borough, or null for all boroughs.
+     * @param statistic The statistic to compute.
+     * @return          The value of the statistic.
+     */
+    public double computeStatistic(LocalDate from, LocalDate to, String borough, Statistic statistic) {
+        Statistic.Accumulator accumulator = statistic.newAccumulator();
+        int boroughId = BoroughDimension.getDefault().findId(borough);
+        if (borough != null && boroughId < 0) {
+            return accumulator.getValue();
+        }
+        for (CovidData record : getRecordsBetween(from, to)) {
+            if (borough == null || record.getBoroughId() == boroughId) {
+                accumulator.add(record);
+            }
+        }
+        return accumulator.getValue();
+    }
+    
+    /**
+     * Adds newly arrived records, such as the rows appended to a followed csv file.
+     * The date index and the selected range are extended with just the new records
+     * rather than rebuilt, and the caches keyed on the records see the new size.
+     * Must be called on the JavaFX application thread.
+     * 
+     * @param newRecords The records to add.
+     */
+    public void appendRecords(List<CovidData> newRecords) {
+        if (newRecords.isEmpty()) {
+            return;
+        }
+        List<CovidData> oldRecords = records;
+        int oldSize = oldRecords.size();
+        ColumnStore store = storeOf(oldRecords);
+        if (store != null) {
+            if (!store.canAppend()) {
+                System.out.println("The loaded storage cannot take new records; " + newRecords.size() + " records ignored");
+                return;
+            }
+            for (CovidData record : newRecords) {
+                store.add(record);
+            }
+        }
+        else {
+            //a new list rather than adding in place, as background tasks may be reading the old one
+            ArrayList<CovidData> grown = new ArrayList<>(oldSize + newRecords.size());
+            grown.addAll(oldRecords);
+            grown.addAll(newRecords);
+            records = grown;
+        }
+        extendDateIndex(oldRecords, oldSize);
+        anomalyDetector.append(oldRecords, oldSize, records, newRecords);
+        rtEstimator.append(oldRecords, oldSize, records, newRecords);
+        distributionIndex.append(oldRecords, oldSize, records, newRecords);
+        
+        if (recordsInRange != null && getFromDate() != null && getToDate() != null) {
+            long fromDay = getFromDate().toEpochDay();
+            long toDay = getToDate().toEpochDay();
+            ArrayList<CovidData> grownRange = new ArrayList<>(recordsInRange);
+            for (CovidData record : newRecords) {
+                if (record.getEpochDay() >= fromDay && record.getEpochDay() <= toDay) {
+                    grownRange.add(record);
+                }
+            }
+            recordsInRange = grownRange;
+        }
+        
+        revision++;
+        revisionProperty.set(revision);
+        MetricsRegistry.getInstance().counter("data.appendedRecords").add(newRecords.size());
+    }
+    
+    /**
+     * Reads a new revision of the data set and applies only the rows it inserts,
+     * changes or deletes. Must be called on the JavaFX application thread.
+     * 
+     * @param file The csv file of the new revision.
+     * @return     The change set that was applied.
+     */
+    public RecordDiff ingestRevision(File file) {
+        RecordDiff diff = RecordDiff.compute(records, new CovidDataLoader(), file);
+        applyDiff(diff);
+        return diff;
+    }
+    
+    /**
+     * Applies a change set computed against the current records. Changed rows keep
+     * their position, deleted rows are removed and inserted rows are added at the end.
+     * The date index, the selected range, the last borough filter, the anomalies and
+     * the distribution index are patched with just the changes rather than rebuilt. Must be called on the JavaFX application thread.
+     * 
+     * @param diff The change set, computed against the current records.
+     */
+    public void applyDiff(RecordDiff diff) {
+        if (diff.getBase() != records || diff.getBaseSize() != records.size()) {
+            throw new IllegalStateException("The records changed after the diff was computed");
+        }
+        System.out.println("Applying data set revision: " + diff);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter("diff.inserted").add(diff.getInsertedCount());
+        metrics.counter("diff.changed").add(diff.getChangedCount());
+        metrics.counter("diff.deleted").add(diff.getDeletedCount());
+        if (diff.isEmpty()) {
+            return;
+        }
+        if (storeOf(records) != null) {
+            if (diff.getChangedCount() == 0 && diff.getDeletedCount() == 0) {
+                appendRecords(diff.getInserted());
+            }
+            else {
+                System.out.println("Column storage cannot change or delete rows; restart to load the revision");
+            }
+            return;
+        }
+        
+        List<CovidData> oldRecords = records;
+        int oldSize = oldRecords.size();
+        //new position of each old row, -1 once deleted
+        int[] newPositions = new int[oldSize];
+        ArrayList<CovidData> patched = new ArrayList<>(oldSize - diff.getDeletedCount() + diff.getInsertedCount());
+        //old records mapped to what replaces them, null for deleted ones
+        IdentityHashMap<CovidData, CovidData> replaced = new IdentityHashMap<>();
+        ArrayList<CovidData> deletedRows = new ArrayList<>(diff.getDeletedCount());
+        //new values of changed rows, then the inserted rows
+        ArrayList<CovidData> newRows = new ArrayList<>(diff.getChangedCount() + diff.getInsertedCount());
+        for (int row = 0; row < oldSize; row++) {
+            CovidData record = oldRecords.get(row);
+            if (diff.isDeleted(row)) {
+                newPositions[row] = -1;
+                replaced.put(record, null);
+                deletedRows.add(record);
+                continue;
+            }
+            CovidData newRecord = diff.getChanged().get(row);
+            if (newRecord != null) {
+                replaced.put(record, newRecord);
+                newRows.add(newRecord);
+                record = newRecord;
+            }
+            newPositions[row] = patched.size();
+            patched.add(record);
+        }
+        int firstInserted = patched.size();
+        patched.addAll(diff.getInserted());
+        newRows.addAll(diff.getInserted());
+        records = patched;
+        patchDateIndex(oldRecords, oldSize, newPositions, firstInserted);
+        //the touched rows only, so the next read on the application thread finds them up to date
+        ArrayList<CovidData> revisedRows = new ArrayList<>(deletedRows);
+        revisedRows.addAll(newRows);
+        anomalyDetector.revise(oldRecords, oldSize, records, revisedRows);
+        distributionIndex.revise(oldRecords, oldSize, records, deletedRows, newRows);
+        
+        if (recordsInRange != null && getFromDate() != null && getToDate() != null) {
+            long fromDay = getFromDate().toEpochDay();
+            long toDay = getToDate().toEpochDay();
+            recordsInRange = patchList(recordsInRange, replaced, diff.getInserted(),
+                record -> record.getEpochDay() >= fromDay && record.getEpochDay() <= toDay);
+        }
+        if (filteredBoroughRecords != null) {
+            String boroughName = filteredBoroughName;
+            boolean inRange = filteredSelectedRange && getFromDate() != null && getToDate() != null;
+            long fromDay = inRange ? getFromDate().toEpochDay() : Long.MIN_VALUE;
+            long toDay = inRange ? getToDate().toEpochDay() : Long.MAX_VALUE;
+            filteredBoroughRecords = patchList(filteredBoroughRecords, replaced, diff.getInserted(),
+                record -> record.getBorough().equals(boroughName)
+                    && record.getEpochDay() >= fromDay && record.getEpochDay() <= toDay);
+        }
+        
+        revision++;
+        revisionProperty.set(revision);
+    }
+    
+    /**
+     * Returns a copy of a list of records with replaced records swapped for their
+     * replacement, deleted ones left out, and inserted ones that pass the test added
+     */
+    private static ArrayList<CovidData> patchList(List<CovidData> list, IdentityHashMap<CovidData, CovidData> replaced,
+            List<CovidData> inserted, Predicate<CovidData> test) {
+        ArrayList<CovidData> patched = new ArrayList<>(list.size());
+        for (CovidData record : list) {
+            if (!replaced.containsKey(record)) {
+                patched.add(record);
+            }
+            else if (replaced.get(record) != null) {
+                patched.add(replaced.get(record));
+            }
+        }
+        for (CovidData record : inserted) {
+            if (test.test(record)) {
+                patched.add(record);
+            }
+        }
+        return patched;
+    }
+    
+    /**
+     * Starts following the loaded csv file, adding the rows appended to it as they
+     * arrive. Returns the follower, to be closed when the application stops, or null
+     * if the file cannot be followed.
+     */
+    public CovidDataLoader.Follower startFollowing() {
+        ColumnStore store = storeOf(records);
+        if (store != null && !store.canAppend()) {
+            System.out.println("The loaded storage cannot take new records, so the csv file is not followed");
+            return null;
+        }
+        File file = loader.getDefaultFile();
+        try {
+            return loader.follow(file, loader.getLoadedBytes(),
+                newRecords -> Platform.runLater(() -> appendRecords(newRecords)),
+                () -> {
+                    //diff on the follower's thread, apply on the application thread
+                    CovidDataLoader revisionLoader = new CovidDataLoader();
+                    RecordDiff diff = RecordDiff.compute(records, revisionLoader, file);
+                    Platform.runLater(() -> {
+                        if (diff.getBase() == records && diff.getBaseSize() == records.size()) {
+                            applyDiff(diff);
+                        }
+                        else {
+                            ingestRevision(file);
+                        }
+                    });
+                    return revisionLoader.getLoadedBytes();
+                });
+        }
+        catch (IOException e) {
+            System.out.println("Could not follow the csv file");
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the property wrapped revision, which changes whenever records are added
+     */
+    public ReadOnlyLongProperty getRevisionProperty() {
+        return revisionProperty.getReadOnlyProperty();
+    }
+    
+    /**
+     * Returns a value that changes whenever the loaded records change
+     */
+    public String getDataVersion() {
+        return revision + "-" + Integer.toHexString(System.identityHashCode(records)) + "-" + records.size();
+    }
+    
+    /**
+     * Returns the engine used to compute the statistics of the stats panel
+     */
+    public StatisticsEngine getStatisticsEngine() {
+        return statisticsEngine;
+    }
+    
+    /**
+     * Returns the moving averages and growth of the daily counts of a borough. The
+     * series cover all records, so the first days of a selected range are smoothed
+     * with the days before them.
+     * 
+     * @param boroughName The name of the borough.
+     * @return            The series of the borough, or null if it has no records.
+     */
+    public RollingAnalytics.Series getRollingSeries(String boroughName) {
+        return rollingAnalytics.getSeries(records, boroughName);
+    }
+    
+    /**
+     * Correlates every Google mobility column with the new cases of the days after,
+     * for every borough and for London as a whole.
+     * 
+     * @param maxLag        The longest lag between mobility and cases, in days.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              The correlation of every series, mobility column and lag.
+     */
+    public CrossCorrelationEngine.Result getCrossCorrelations(int maxLag, boolean selectedRange) {
+        return crossCorrelationEngine.getResult(selectedRange ? recordsInRange : records, maxLag);
+    }
+    
+    /**
+     * Returns the engine used to compute and colour the borough map
+     */
+    public ChoroplethEngine getChoroplethEngine() {
+        return choroplethEngine;
+    }
+    
+    /**
+     * Returns the spikes and reporting gaps found in the daily counts of a borough on one day
+     * 
+     * @param boroughName The name of the borough.
+     * @param epochDay    The day, as an epoch day.
+     * @return            The anomalies of that day, usually none.
+     */
+    public List<AnomalyDetector.Anomaly> getAnomalies(String boroughName, long epochDay) {
+        anomalyDetector.ensureDetected(records);
+        return anomalyDetector.getAnomalies(boroughName, epochDay);
+    }
+    
+    /**
+     * Returns the boroughs with a spike or reporting gap in their daily counts.
+     * 
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              The names of the boroughs with anomalies.
+     */
+    public Set<String> getBoroughsWithAnomalies(boolean selectedRange) {
+        anomalyDetector.ensureDetected(records);
+        boolean inRange = selectedRange && getFromDate() != null && getToDate() != null;
+        long fromDay = inRange ? getFromDate().toEpochDay() : Long.MIN_VALUE;
+        long toDay = inRange ? getToDate().toEpochDay() : Long.MAX_VALUE;
+        return anomalyDetector.getBoroughsWithAnomalies(fromDay, toDay);
+    }
+    
+    /**
+     * Returns quantiles of the daily values of a metric, such as the median new cases
+     * of a day, estimated from sketches built when the records were loaded.
+     * 
+     * @param boroughName   The name of the borough, or London for every borough together.
+     * @param metric        One of the metrics of DistributionIndex.METRICS.
+     * @param fractions     The quantiles wanted, each from 0 to 1.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              The quantiles in the same order, NaN if there are no values.
+     */
+    public double[] getQuantiles(String boroughName, CovidMetric metric, double[] fractions, boolean selectedRange) {
+        boolean inRange = selectedRange && getFromDate() != null && getToDate() != null;
+        long fromDay = inRange ? getFromDate().toEpochDay() : Long.MIN_VALUE;
+        long toDay = inRange ? getToDate().toEpochDay() : Long.MAX_VALUE;
+        return getQuantiles(boroughName, metric, fractions, fromDay, toDay);
+    }
+    
+    /**
+     * Returns quantiles of the daily values of a metric between two epoch days (inclusive).
+     * 
+     * @see #getQuantiles(String, CovidMetric, double[], boolean)
+     */
+    public double[] getQuantiles(String boroughName, CovidMetric metric, double[] fractions, long fromDay, long toDay) {
+        distributionIndex.ensureBuilt(records);
+        return distributionIndex.getQuantiles(boroughName, metric, fromDay, toDay, fractions);
+    }
+    
+    /**
+     * Returns the value of a derived metric for every borough, computed from its
+     * columns summarised over the records.
+     * 
+     * @param metric        The derived metric.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              The value of every borough for which it can be computed.
+     */
+    public Map<String, Double> getDerivedValues(DerivedMetric metric, boolean selectedRange) {
+        return ChoroplethEngine.computeValues(selectedRange ? recordsInRange : records, metric, null);
+    }
+    
+    /**
+     * Ranks the boroughs by a metric summarised over the records in a single pass.
+     * 
+     * @param metric        The metric to rank by.
+     * @param k             The number of boroughs to return.
+     * @param highest       True for the boroughs with the highest values, false for the lowest.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              Up to k boroughs, best first.
+     */
+    public List<RankingEngine.Ranked> getBoroughRanking(CovidMetric metric, int k, boolean highest, boolean selectedRange) {
+        return RankingEngine.rankBoroughs(selectedRange ? recordsInRange : records, metric, k, highest);
+    }
+    
+    /**
+     * Finds the leading boroughs of every day by a metric in a single pass.
+     * 
+     * @param metric        The metric to rank by.
+     * @param k             The number of boroughs to keep per day.
+     * @param highest       True for the boroughs with the highest values, false for the lowest.
+     * @param selectedRange A boolean flag indicating whether a selected date range is applied.
+     * @return              Up to k boroughs per epoch day, best first, in date order.
+     */
+    public TreeMap<Long, List<RankingEngine.Ranked>> getDailyLeaders(CovidMetric metric, int k, boolean highest, boolean selectedRange) {
+        return RankingEngine.rankDays(selectedRange ? recordsInRange : records, metric, k, highest);
+    }
+    
+    /**
+     * Returns the estimates of the reproduction number of every borough, brought up
+     * to date with the records
+     */
+    public RtEstimator getRtEstimator() {
+        RtEstimator estimator = rtEstimator;
+        estimator.update(records);
+        return estimator;
+    }
+    
+    /**
+     * Changes the serial interval the reproduction number is estimated with. The
+     * estimates are only recomputed if it differs from the current one.
+     * 
+     * @param mean The mean of the serial interval, in days.
+     * @param sd   Its standard deviation, in days.
+     */
+    public void setSerialInterval(double mean, double sd) {
+        if (mean != rtEstimator.getSerialIntervalMean() || sd != rtEstimator.getSerialIntervalSd()) {
+            rtEstimator = new RtEstimator(mean, sd);
+        }
+    }
+    
+    /**
+     * Returns the engine used to group boroughs with similar case curves
+     */
+    public TrajectoryClustering getTrajectoryClustering() {
+        return trajectoryClustering;
+    }
+    
     
     /**
      * Returnts the End Date
@@ -195,14 +816,267 @@ public class DataManipulator
      * to the selected date range (inclusive) to the 'recordsInRange' ArrayList.
      */
     public void updateRecordsInRange() {
+        DataLayerEvents.RangeUpdate event = new DataLayerEvents.RangeUpdate();
+        event.begin();
+        long start = System.nanoTime();
         recordsInRange = new ArrayList<>();
 
-        for (CovidData record : records) {
-            LocalDate recordDate = record.getLocalDate();
-            if (recordDate.isEqual(getFromDate()) || recordDate.isEqual(getToDate()) ||
-                (recordDate.isAfter(getFromDate()) && recordDate.isBefore(getToDate())))
-                recordsInRange.add(record);
+        ColumnStore store = storeOf(records);
+        if (store != null) {
+            //compare days and create only the records in range
+            long fromDay = getFromDate().toEpochDay();
+            long toDay = getToDate().toEpochDay();
+            for (int segment = 0; segment < store.getSegmentCount(); segment++) {
+                if (!store.mayMatch(segment, fromDay, toDay, -1)) {
+                    continue;
+                }
+                for (int row = store.getSegmentStart(segment); row < store.getSegmentEnd(segment); row++) {
+                    int day = store.getEpochDay(row);
+                    if (day >= fromDay && day <= toDay) {
+                        recordsInRange.add(store.get(row));
+                    }
+                }
+            }
+        }
+        else {
+            for (CovidData record : records) {
+                LocalDate recordDate = record.getLocalDate();
+                if (recordDate.isEqual(getFromDate()) || recordDate.isEqual(getToDate()) ||
+                    (recordDate.isAfter(getFromDate()) && recordDate.isBefore(getToDate())))
+                    recordsInRange.add(record);
+            }
+        }
+        
+        MetricsRegistry.getInstance().timer("query.updateRecordsInRange").recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.from = String.valueOf(getFromDate());
+            event.to = String.valueOf(getToDate());
+            event.scanned = records.size();
+            event.selected = recordsInRange.size();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Returns the records between two dates (inclusive), ordered by date. Unlike
+     * updateRecordsInRange this does not change the selected range, so it can be
+     * called from several threads at once.
+     * 
+     * @param from The first date of the range.
+     * @param to   The last date of the range.
+     * @return     An unmodifiable list of the records in the range.
+     */
+    public List<CovidData> getRecordsBetween(LocalDate from, LocalDate to) {
+        ColumnStore store = storeOf(records);
+        if (store != null && store.hasZoneMaps()) {
+            return getRowsBetween(records, store, from.toEpochDay(), to.toEpochDay());
+        }
+        List<CovidData> indexedRecords;
+        int[] sortedRows;
+        long[] sortedDays;
+        synchronized (this) {
+            if (rowsByDate == null || dateIndexedRecords != records || dateIndexedSize != records.size()) {
+                buildDateIndex();
+            }
+            indexedRecords = dateIndexedRecords;
+            sortedRows = rowsByDate;
+            sortedDays = daysByDate;
+        }
+        int start = firstIndexOnOrAfter(sortedDays, from.toEpochDay());
+        int end = firstIndexOnOrAfter(sortedDays, to.toEpochDay() + 1);
+        if (end <= start) {
+            return Collections.emptyList();
+        }
+        return new RowsView(indexedRecords, sortedRows, start, end);
+    }
+    
+    /**
+     * Finds the rows of a column store between two days using its zone maps instead
+     * of a date index, which for a store larger than memory would not fit in the heap.
+     * Only the rows found are sorted.
+     */
+    private static List<CovidData> getRowsBetween(List<CovidData> records, ColumnStore store, long fromDay, long toDay) {
+        long[] keys = new long[64];
+        int found = 0;
+        for (int segment = 0; segment < store.getSegmentCount(); segment++) {
+            if (!store.mayMatch(segment, fromDay, toDay, -1)) {
+                continue;
+            }
+            for (int row = store.getSegmentStart(segment); row < store.getSegmentEnd(segment); row++) {
+                long day = store.getEpochDay(row);
+                if (day >= fromDay && day <= toDay) {
+                    if (found == keys.length) {
+                        keys = Arrays.copyOf(keys, found * 2);
+                    }
+                    keys[found++] = (day << 32) + row;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, found);
+        int[] rows = new int[found];
+        for (int i = 0; i < found; i++) {
+            rows[i] = (int) keys[i];
+        }
+        return new RowsView(records, rows, 0, found);
+    }
+    
+    /**
+     * Sorts the positions of the records by date, keeping the original order within
+     * a day. Only the positions are sorted, so records kept in a column store are
+     * not created to build the index.
+     */
+    private void buildDateIndex() {
+        int size = records.size();
+        ColumnStore store = storeOf(records);
+        //day in the upper half and position in the lower half, so one sort orders both
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++) {
+            long day = store != null ? store.getEpochDay(row) : records.get(row).getEpochDay();
+            keys[row] = (day << 32) + row;
+        }
+        Arrays.sort(keys);
+        int[] rows = new int[size];
+        long[] days = new long[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) keys[i];
+            days[i] = keys[i] >> 32;
+        }
+        rowsByDate = rows;
+        daysByDate = days;
+        dateIndexedRecords = records;
+        dateIndexedSize = size;
+    }
+    
+    /**
+     * Extends the date index with the records added after the given size, as long as
+     * they are not older than the newest record already indexed; otherwise the index
+     * is dropped and rebuilt by the next query. The index arrays are copied rather
+     * than changed, as lists returned by getRecordsBetween still use them.
+     */
+    private synchronized void extendDateIndex(List<CovidData> oldRecords, int oldSize) {
+        if (rowsByDate == null || dateIndexedRecords != oldRecords || dateIndexedSize != oldSize) {
+            return;
+        }
+        int size = records.size();
+        ColumnStore store = storeOf(records);
+        int[] rows = Arrays.copyOf(rowsByDate, size);
+        long[] days = Arrays.copyOf(daysByDate, size);
+        long lastDay = oldSize == 0 ? Long.MIN_VALUE : days[oldSize - 1];
+        for (int row = oldSize; row < size; row++) {
+            long day = store != null ? store.getEpochDay(row) : records.get(row).getEpochDay();
+            if (day < lastDay) {
+                rowsByDate = null;
+                return;
+            }
+            rows[row] = row;
+            days[row] = day;
+            lastDay = day;
+        }
+        rowsByDate = rows;
+        daysByDate = days;
+        dateIndexedRecords = records;
+        dateIndexedSize = size;
+    }
+    
+    /**
+     * Patches the date index after a change set: deleted rows are dropped, kept rows
+     * move to their new positions, and the inserted rows, which start at firstInserted,
+     * are merged in by day. Changed rows keep their day, as the day is part of what
+     * matches rows across revisions, so nothing is sorted but the inserted rows.
+     */
+    private synchronized void patchDateIndex(List<CovidData> oldRecords, int oldSize, int[] newPositions, int firstInserted) {
+        if (rowsByDate == null || dateIndexedRecords != oldRecords || dateIndexedSize != oldSize) {
+            return;
+        }
+        int size = records.size();
+        long[] insertedKeys = new long[size - firstInserted];
+        for (int i = 0; i < insertedKeys.length; i++) {
+            insertedKeys[i] = (records.get(firstInserted + i).getEpochDay() << 32) + firstInserted + i;
+        }
+        Arrays.sort(insertedKeys);
+        
+        int[] rows = new int[size];
+        long[] days = new long[size];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < rowsByDate.length; i++) {
+            int row = newPositions[rowsByDate[i]];
+            if (row < 0) {
+                continue;
+            }
+            //inserted rows go after the kept rows of their day, as their positions are higher
+            while (next < insertedKeys.length && (insertedKeys[next] >> 32) < daysByDate[i]) {
+                rows[count] = (int) insertedKeys[next];
+                days[count++] = insertedKeys[next++] >> 32;
+            }
+            rows[count] = row;
+            days[count++] = daysByDate[i];
+        }
+        while (next < insertedKeys.length) {
+            rows[count] = (int) insertedKeys[next];
+            days[count++] = insertedKeys[next++] >> 32;
         }
+        rowsByDate = rows;
+        daysByDate = days;
+        dateIndexedRecords = records;
+        dateIndexedSize = size;
+    }
+    
+    /**
+     * Binary search for the first position whose day is not before the given day
+     */
+    private static int firstIndexOnOrAfter(long[] days, long day) {
+        int low = 0;
+        int high = days.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] < day) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * A read-only list of some of the records, in the order of a list of positions
+     */
+    private static class RowsView extends AbstractList<CovidData> implements RandomAccess
+    {
+        private final List<CovidData> records;
+        private final int[] rows;
+        private final int start;
+        private final int end;
+        
+        private RowsView(List<CovidData> records, int[] rows, int start, int end) {
+            this.records = records;
+            this.rows = rows;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public CovidData get(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + (end - start));
+            }
+            return records.get(rows[start + index]);
+        }
+        
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+    
+    /**
+     * Returns the current records. Read them once per query, as they may be swapped at any time.
+     */
+    public List<CovidData> getRecords() {
+        return records;
     }
     
     public ArrayList<CovidData> getRecordsInRange() {
@@ -4,7 +4,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
 import java.time.LocalDate;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
 
 /**
  * The test class DataManipulatorTest.
@@ -117,6 +123,12 @@ public class DataManipulatorTest
         assertEquals(2, filteredRecords.size()); // Expecting two records in filteredRecords
         assertEquals(sampleRecords.get(1), filteredRecords.get(0)); // Expecting second record in sampel Records
         assertEquals(sampleRecords.get(3), filteredRecords.get(1)); // Expecting fourth record in sampel Records
+        
+        // Test filtering by names without records, which are not added to the borough dimension
+        int boroughCount = BoroughDimension.getDefault().size();
+        assertTrue(dataManipulator.getFilterByBorough("No Such Borough", false).isEmpty());
+        assertTrue(dataManipulator.getFilterByBorough(null, false).isEmpty());
+        assertEquals(boroughCount, BoroughDimension.getDefault().size());
     }
     
     /**
@@ -175,6 +187,226 @@ public class DataManipulatorTest
         assertEquals(expectedRecordsInRange, dataManipulator.getRecordsInRange());
     }
     
+    /**
+     * Tests the 'getBoroughTotals' method of the DataManipulator class.
+     * Checks if the totals of several boroughs and metrics are computed correctly in one call.
+     */
+    @Test
+    public void testGetBoroughTotals() {
+        // Sample CovidData records
+        ArrayList<CovidData> sampleRecords = new ArrayList<>();
+        sampleRecords.add(new CovidData("2022-01-01", "Borough1", 1, 1, 1, 1, 1, 1, 5, 5, 1, 1));
+        sampleRecords.add(new CovidData("2022-01-01", "Borough2", 1, 1, 1, 1, 1, 1, 3, 3, 2, 2));
+        sampleRecords.add(new CovidData("2022-01-02", "Borough1", 1, 1, 1, 1, 1, 1, -1, 5, 4, 5));
+        sampleRecords.add(new CovidData("2022-01-02", "Borough3", 1, 1, 1, 1, 1, 1, 7, 7, 0, 0));
+        
+        // Set up DataManipulator instance with sample records
+        DataManipulator dataManipulator = DataManipulator.getInstance();
+        dataManipulator.records = sampleRecords;
+        
+        List<CovidMetric> metrics = List.of(CovidMetric.NEW_CASES, CovidMetric.NEW_DEATHS);
+        HashMap<String, long[]> totals = dataManipulator.getBoroughTotals(List.of("Borough1", "Borough2"), metrics, false);
+        
+        assertEquals(2, totals.size()); // Borough3 was not requested
+        assertArrayEquals(new long[] {5, 5}, totals.get("Borough1")); // Missing new cases are left out
+        assertArrayEquals(new long[] {3, 2}, totals.get("Borough2"));
+        
+        // Without a selected range the totals are over all the records
+        totals = DataManipulator.forRecords(sampleRecords).getBoroughTotals(List.of("Borough1"), metrics, true);
+        assertArrayEquals(new long[] {5, 5}, totals.get("Borough1"));
+    }
+    
+    /**
+     * Tests the 'ingestRevision' method of the DataManipulator class.
+     * Checks if a revised data set only inserts, changes and deletes the rows that differ,
+     * and if date range queries see the revision.
+     */
+    @Test
+    public void testIngestRevision() throws IOException {
+        // Sample CovidData records
+        ArrayList<CovidData> sampleRecords = new ArrayList<>();
+        sampleRecords.add(new CovidData("2022-01-01", "Borough1", 1, 1, 1, 1, 1, 1, 1, 1, 1, 1));
+        sampleRecords.add(new CovidData("2022-01-01", "Borough2", 1, 1, 1, 1, 1, 1, 1, 1, 1, 1));
+        sampleRecords.add(new CovidData("2022-01-02", "Borough1", 1, 1, 1, 1, 1, 1, 1, 1, 1, 1));
+        
+        DataManipulator dataManipulator = DataManipulator.forRecords(sampleRecords);
+        assertEquals(2, dataManipulator.getRecordsBetween(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 1, 1)).size());
+        double[] fractions = {0.5, 1};
+        assertArrayEquals(new double[] {1, 1}, dataManipulator.getQuantiles("Borough2", CovidMetric.NEW_CASES, fractions, false));
+        assertTrue(dataManipulator.getBoroughsWithAnomalies(false).isEmpty());
+        
+        // Revision changing Borough1 on the first day, dropping Borough2 and backfilling Borough3
+        File revision = File.createTempFile("revision", ".csv");
+        revision.deleteOnExit();
+        Files.write(revision.toPath(), List.of(
+            "date,area_name,retail_and_recreation,grocery_and_pharmacy,parks,transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths",
+            "2022-01-01,Borough1,1,1,1,1,1,1,9,9,1,1",
+            "2022-01-02,Borough1,1,1,1,1,1,1,1,1,1,1",
+            "2022-01-01,Borough3,1,1,1,1,1,1,2,2,0,0"));
+        
+        long revised = MetricsRegistry.getInstance().counter("distribution.revisedRecords").get();
+        RecordDiff diff = dataManipulator.ingestRevision(revision);
+        
+        assertEquals(1, diff.getInsertedCount());
+        assertEquals(1, diff.getChangedCount());
+        assertEquals(1, diff.getDeletedCount());
+        assertEquals(1, diff.getUnchangedCount());
+        
+        List<CovidData> firstDay = dataManipulator.getRecordsBetween(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 1, 1));
+        assertEquals(2, firstDay.size()); // Borough1 revised and Borough3 backfilled
+        assertEquals(9, firstDay.get(0).getNewCases());
+        assertEquals("Borough3", firstDay.get(1).getBorough());
+        assertEquals(3, dataManipulator.records.size());
+        
+        // The distribution index and anomalies were patched with the three touched rows, not rebuilt
+        assertEquals(revised + 3, MetricsRegistry.getInstance().counter("distribution.revisedRecords").get());
+        DataManipulator rebuilt = DataManipulator.forRecords(new ArrayList<>(dataManipulator.records));
+        for (String borough : List.of("Borough1", "Borough2", "Borough3", DistributionIndex.LONDON)) {
+            assertArrayEquals(rebuilt.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, false),
+                dataManipulator.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, false), borough);
+        }
+        assertTrue(Double.isNaN(dataManipulator.getQuantiles("Borough2", CovidMetric.NEW_CASES, fractions, false)[0]));
+        assertEquals(rebuilt.getBoroughsWithAnomalies(false), dataManipulator.getBoroughsWithAnomalies(false));
+    }
+
+    /**
+     * Tests the 'getRollingSeries' method of the DataManipulator class.
+     * Checks the moving averages, week-over-week growth and doubling time of a borough,
+     * with a missing day left out of its windows.
+     */
+    @Test
+    public void testGetRollingSeries() {
+        // Sample CovidData records: 10 new cases a day for a week, then 20 a day
+        ArrayList<CovidData> sampleRecords = new ArrayList<>();
+        for (int day = 0; day < 14; day++) {
+            int newCases = day == 3 ? -1 : (day < 7 ? 10 : 20);
+            sampleRecords.add(new CovidData(LocalDate.of(2022, 1, 1).plusDays(day).toString(), "Borough1", 1, 1, 1, 1, 1, 1, newCases, 1, 0, 1));
+        }
+
+        DataManipulator dataManipulator = DataManipulator.getInstance();
+        dataManipulator.records = sampleRecords;
+        RollingAnalytics.Series series = dataManipulator.getRollingSeries("Borough1");
+        long lastDay = LocalDate.of(2022, 1, 14).toEpochDay();
+
+        assertEquals(10.0, series.getShortAverage(CovidMetric.NEW_CASES, lastDay - 7), 1e-9);
+        assertEquals(20.0, series.getShortAverage(CovidMetric.NEW_CASES, lastDay), 1e-9);
+        assertEquals(200.0 / 13, series.getLongAverage(CovidMetric.NEW_CASES, lastDay), 1e-9); // missing day left out
+        assertEquals(1.0, series.getWeekOverWeekGrowth(CovidMetric.NEW_CASES, lastDay), 1e-9);
+        assertEquals(7.0, series.getDoublingDays(CovidMetric.NEW_CASES, lastDay), 1e-9);
+        assertTrue(Double.isNaN(series.getWeekOverWeekGrowth(CovidMetric.NEW_DEATHS, lastDay))); // no deaths
+        assertNull(dataManipulator.getRollingSeries("Borough2"));
+    }
+
+    /**
+     * Tests the 'getAnomalies' method of the DataManipulator class.
+     * Checks if spikes and reporting gaps are flagged, at load and in appended records.
+     */
+    @Test
+    public void testGetAnomalies() {
+        // Sample CovidData records: around 10 new cases a day for three weeks, with a spike on day 18 and day 19 missing
+        ArrayList<CovidData> sampleRecords = new ArrayList<>();
+        for (int day = 0; day < 21; day++) {
+            if (day != 19) {
+                int newCases = day == 18 ? 90 : 10 + day % 3;
+                sampleRecords.add(new CovidData(LocalDate.of(2022, 1, 1).plusDays(day).toString(), "Borough1", 1, 1, 1, 1, 1, 1, newCases, 1, 0, 1));
+            }
+        }
+
+        DataManipulator dataManipulator = DataManipulator.forRecords(sampleRecords);
+        long firstDay = LocalDate.of(2022, 1, 1).toEpochDay();
+
+        List<AnomalyDetector.Anomaly> spike = dataManipulator.getAnomalies("Borough1", firstDay + 18);
+        assertEquals(1, spike.size());
+        assertEquals(AnomalyDetector.Kind.SPIKE, spike.get(0).getKind());
+        assertEquals(CovidMetric.NEW_CASES, spike.get(0).getMetric());
+        assertEquals(AnomalyDetector.Kind.GAP, dataManipulator.getAnomalies("Borough1", firstDay + 20).get(0).getKind()); // day 19 missing
+        assertTrue(dataManipulator.getAnomalies("Borough1", firstDay + 17).isEmpty());
+
+        // An appended record with a missing new cases value
+        dataManipulator.appendRecords(List.of(new CovidData("2022-01-22", "Borough1", 1, 1, 1, 1, 1, 1, -1, 1, 0, 1)));
+        List<AnomalyDetector.Anomaly> gap = dataManipulator.getAnomalies("Borough1", firstDay + 21);
+        assertEquals(1, gap.size());
+        assertEquals(CovidMetric.NEW_CASES, gap.get(0).getMetric());
+        assertEquals(Set.of("Borough1"), dataManipulator.getBoroughsWithAnomalies(false));
+    }
+
+    /**
+     * Tests the quantiles of daily values over ranges covering whole and partial blocks of days.
+     */
+    @Test
+    public void testGetQuantiles() {
+        // Sample CovidData records: Borough1 has 0 to 59 new cases over 60 days, Borough2 100 to 159
+        ArrayList<CovidData> sampleRecords = new ArrayList<>();
+        for (int day = 0; day < 60; day++) {
+            String date = LocalDate.of(2022, 1, 1).plusDays(day).toString();
+            sampleRecords.add(new CovidData(date, "Borough1", 1, 1, 1, 1, 1, 1, day, 1, 0, 1));
+            sampleRecords.add(new CovidData(date, "Borough2", 1, 1, 1, 1, 1, 1, 100 + day, 1, 0, 1));
+        }
+
+        DataManipulator dataManipulator = DataManipulator.forRecords(sampleRecords);
+        long firstDay = LocalDate.of(2022, 1, 1).toEpochDay();
+        double[] fractions = {0.5, 0.9};
+
+        assertArrayEquals(new double[] {29, 53}, dataManipulator.getQuantiles("Borough1", CovidMetric.NEW_CASES, fractions, false));
+        assertArrayEquals(new double[] {59, 147}, dataManipulator.getQuantiles(DistributionIndex.LONDON, CovidMetric.NEW_CASES, fractions, false));
+        assertArrayEquals(new double[] {125, 137}, dataManipulator.getQuantiles("Borough2", CovidMetric.NEW_CASES, fractions, firstDay + 10, firstDay + 40));
+        assertTrue(Double.isNaN(dataManipulator.getQuantiles("Borough3", CovidMetric.NEW_CASES, fractions, false)[0]));
+        
+        // Appended days, a revised last day and a new borough give the same quantiles as building from scratch
+        ArrayList<CovidData> newRecords = new ArrayList<>();
+        newRecords.add(new CovidData("2022-03-01", "Borough1", 1, 1, 1, 1, 1, 1, 500, 1, 0, 1));
+        for (int day = 60; day < 70; day++) {
+            String date = LocalDate.of(2022, 1, 1).plusDays(day).toString();
+            newRecords.add(new CovidData(date, "Borough1", 1, 1, 1, 1, 1, 1, 2 * day, 1, 0, 1));
+            newRecords.add(new CovidData(date, "Borough3", 1, 1, 1, 1, 1, 1, 300 + day, 1, 0, 1));
+        }
+        long appended = MetricsRegistry.getInstance().counter("distribution.appendedRecords").get();
+        dataManipulator.appendRecords(newRecords);
+        assertEquals(appended + newRecords.size(), MetricsRegistry.getInstance().counter("distribution.appendedRecords").get());
+        ArrayList<CovidData> allRecords = new ArrayList<>(sampleRecords);
+        allRecords.addAll(newRecords);
+        DataManipulator rebuilt = DataManipulator.forRecords(allRecords);
+        for (String borough : List.of("Borough1", "Borough3", DistributionIndex.LONDON)) {
+            assertArrayEquals(rebuilt.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, false),
+                dataManipulator.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, false), borough);
+            assertArrayEquals(rebuilt.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, firstDay + 50, firstDay + 65),
+                dataManipulator.getQuantiles(borough, CovidMetric.NEW_CASES, fractions, firstDay + 50, firstDay + 65), borough);
+        }
+    }
+
+    /**
+     * Tests reading a borough dimension, joining results to it and evaluating a per-capita metric.
+     */
+    @Test
+    public void testBoroughDimension() throws IOException {
+        BoroughDimension dimension = new BoroughDimension();
+        dimension.read(new StringReader("id,code,abbreviation,name,population,area,neighbours\n"
+            + "0,E1,ONE,Borough1,200000,10.5,1\n"
+            + "1,E2,TWO,Borough2,50000,4,0\n"));
+
+        assertEquals(1, dimension.getId("Borough2"));
+        assertEquals("Borough1", dimension.getByAbbreviation("ONE").getName());
+        assertArrayEquals(new int[] {0}, dimension.get(1).getNeighbours());
+        assertEquals(2, dimension.getId("Borough3")); // a name not in the file gets the next id
+        assertTrue(Double.isNaN(dimension.get(2).getPopulation()));
+        assertEquals(List.of("Borough1", "Borough2"), dimension.getNames());
+
+        // The join keys the results by borough, in id order
+        HashMap<String, Double> results = new HashMap<>();
+        results.put("Borough2", 30.0);
+        results.put("Borough1", 40.0);
+        List<BoroughDimension.Borough> joined = new ArrayList<>(dimension.join(results).keySet());
+        assertEquals(List.of(dimension.get(0), dimension.get(1)), joined);
+
+        // 30 new cases in Borough2 are 60 per 100,000 residents
+        DerivedMetric perCapita = DerivedMetric.compile("Cases per 100k", "newCases * 100000 / population");
+        assertEquals(Set.of(BoroughDimension.Attribute.POPULATION), perCapita.getAttributes());
+        double[] summaries = new double[DerivedMetric.SUMMARY_LENGTH];
+        summaries[DerivedMetric.getSummaryIndex(CovidMetric.NEW_CASES)] = 30;
+        summaries[DerivedMetric.getSummaryIndex(BoroughDimension.Attribute.POPULATION)] = joined.get(1).getPopulation();
+        assertEquals(60.0, perCapita.evaluate(summaries), 1e-9);
+    }
+
     /**
      * Tears down the test fixture.
      *
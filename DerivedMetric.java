@@ -0,0 +1,480 @@
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * DerivedMetric is a metric defined by an arithmetic expression over the columns of
+ * a record, such as "newDeaths * 100 / newCases". Columns are named as in CovidData
+ * (newCases, parksGMR, ...) or as in CovidMetric (NEW_CASES, PARKS_GMR, ...), and
+ * may be combined with numbers, + - * / and brackets. The borough attributes
+ * population and area can be used too, as in "newCases * 100000 / population".
+ *
+ * The expression is parsed once and compiled into a tree of small lambdas, each
+ * specialised for its operation: columns are read through their getters, constant
+ * parts are folded, and an operation with a constant side captures the constant.
+ * Evaluating a row then calls straight through the tree rather than interpreting
+ * it. A missing column or a division by zero gives NaN.
+ *
+ * Over a range of days the columns are first summarised the way each one is, as
+ * CovidMetric describes, and the expression is evaluated on the summaries, so a
+ * ratio of daily counts is the ratio of their totals. An attribute over several
+ * boroughs is the total of the boroughs the records cover.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class DerivedMetric
+{
+    //length of the summaries evaluated by evaluate(double[]): the columns, then the attributes
+    public static final int SUMMARY_LENGTH = CovidMetric.values().length + BoroughDimension.Attribute.values().length;
+
+    private final String name;
+    private final String expression;
+    private final Set<CovidMetric> metrics;
+    private final Set<BoroughDimension.Attribute> attributes;
+    //the expression compiled over a record, and over summaries indexed by getSummaryIndex
+    private final ToDoubleFunction<CovidData> rowFunction;
+    private final ToDoubleFunction<double[]> summaryFunction;
+
+    private DerivedMetric(String name, String expression, Node tree) {
+        this.name = name;
+        this.expression = expression;
+        this.metrics = EnumSet.noneOf(CovidMetric.class);
+        this.attributes = EnumSet.noneOf(BoroughDimension.Attribute.class);
+        tree.collectColumns(metrics, attributes);
+        this.rowFunction = tree.compile(DerivedMetric::rowField, DerivedMetric::rowAttribute);
+        this.summaryFunction = tree.compile(metric -> summaries -> summaries[getSummaryIndex(metric)],
+            attribute -> summaries -> summaries[getSummaryIndex(attribute)]);
+    }
+
+    /**
+     * Parses and compiles an expression.
+     *
+     * @param name       The name the metric is shown under.
+     * @param expression The expression, such as "newDeaths * 100 / newCases".
+     * @return           The compiled metric.
+     * @throws IllegalArgumentException if the expression cannot be parsed
+     */
+    public static DerivedMetric compile(String name, String expression) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("A derived metric needs a name");
+        }
+        Parser parser = new Parser(expression);
+        Node tree = parser.parseExpression();
+        parser.expectEnd();
+        return new DerivedMetric(name.trim(), expression.trim(), tree);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Returns the columns the expression reads
+     */
+    public Set<CovidMetric> getMetrics() {
+        return EnumSet.copyOf(metrics);
+    }
+
+    /**
+     * Returns the borough attributes the expression reads
+     */
+    public Set<BoroughDimension.Attribute> getAttributes() {
+        return EnumSet.copyOf(attributes);
+    }
+
+    /**
+     * Returns the value of the metric for one record, NaN if it cannot be computed
+     */
+    public double evaluate(CovidData record) {
+        return rowFunction.applyAsDouble(record);
+    }
+
+    /**
+     * Returns the value of the metric from summaries of its columns over a range.
+     *
+     * @param summaries The summary of each column and attribute, of SUMMARY_LENGTH
+     *                  and indexed by getSummaryIndex, NaN where there are no values.
+     */
+    public double evaluate(double[] summaries) {
+        return summaryFunction.applyAsDouble(summaries);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Returns the index of a column in the summaries evaluated by evaluate(double[])
+     */
+    public static int getSummaryIndex(CovidMetric metric) {
+        return metric.ordinal();
+    }
+
+    /**
+     * Returns the index of an attribute in the summaries evaluated by evaluate(double[])
+     */
+    public static int getSummaryIndex(BoroughDimension.Attribute attribute) {
+        return CovidMetric.values().length + attribute.ordinal();
+    }
+
+    /**
+     * Returns the column of a name, ignoring case and underscores, or null if there is none
+     */
+    static CovidMetric metricOf(String name) {
+        String key = name.replace("_", "").toLowerCase();
+        for (CovidMetric metric : CovidMetric.values()) {
+            if (metric.name().replace("_", "").toLowerCase().equals(key)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the borough attribute of a name, ignoring case, or null if there is none
+     */
+    static BoroughDimension.Attribute attributeOf(String name) {
+        for (BoroughDimension.Attribute attribute : BoroughDimension.Attribute.values()) {
+            if (attribute.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a function reading a column of a record through its getter, NaN if missing
+     */
+    private static ToDoubleFunction<CovidData> rowField(CovidMetric metric) {
+        switch (metric) {
+            case NEW_CASES:
+                return record -> orNaN(record.getNewCases());
+            case TOTAL_CASES:
+                return record -> orNaN(record.getTotalCases());
+            case NEW_DEATHS:
+                return record -> orNaN(record.getNewDeaths());
+            case TOTAL_DEATHS:
+                return record -> orNaN(record.getTotalDeaths());
+            case RETAIL_RECREATION_GMR:
+                return record -> orNaN(record.getRetailRecreationGMR());
+            case GROCERY_PHARMACY_GMR:
+                return record -> orNaN(record.getGroceryPharmacyGMR());
+            case PARKS_GMR:
+                return record -> orNaN(record.getParksGMR());
+            case TRANSIT_GMR:
+                return record -> orNaN(record.getTransitGMR());
+            case WORKPLACES_GMR:
+                return record -> orNaN(record.getWorkplacesGMR());
+            default:
+                return record -> orNaN(record.getResidentialGMR());
+        }
+    }
+
+    /**
+     * Returns a function reading an attribute of the borough of a record through its id
+     */
+    private static ToDoubleFunction<CovidData> rowAttribute(BoroughDimension.Attribute attribute) {
+        BoroughDimension dimension = BoroughDimension.getDefault();
+        return record -> dimension.get(record.getBoroughId()).get(attribute);
+    }
+
+    private static double orNaN(int value) {
+        return value == CovidMetric.MISSING ? Double.NaN : value;
+    }
+
+    /**
+     * A node of the parsed expression, which compiles itself given a way of reading columns and attributes
+     */
+    private interface Node
+    {
+        <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes);
+
+        void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes);
+
+        /**
+         * Returns the value of the node if it does not read any column, otherwise NaN
+         */
+        default double constantValue() {
+            return Double.NaN;
+        }
+
+        default boolean isConstant() {
+            return false;
+        }
+    }
+
+    private static class Constant implements Node
+    {
+        private final double value;
+
+        private Constant(double value) {
+            this.value = value;
+        }
+
+        public <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes) {
+            return row -> value;
+        }
+
+        public void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes) {
+        }
+
+        public double constantValue() {
+            return value;
+        }
+
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static class Column implements Node
+    {
+        private final CovidMetric metric;
+
+        private Column(CovidMetric metric) {
+            this.metric = metric;
+        }
+
+        public <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes) {
+            return columns.apply(metric);
+        }
+
+        public void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes) {
+            metrics.add(metric);
+        }
+    }
+
+    private static class Attribute implements Node
+    {
+        private final BoroughDimension.Attribute attribute;
+
+        private Attribute(BoroughDimension.Attribute attribute) {
+            this.attribute = attribute;
+        }
+
+        public <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes) {
+            return attributes.apply(attribute);
+        }
+
+        public void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes) {
+            attributes.add(attribute);
+        }
+    }
+
+    private static class Negation implements Node
+    {
+        private final Node operand;
+
+        private Negation(Node operand) {
+            this.operand = operand;
+        }
+
+        public <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes) {
+            ToDoubleFunction<T> function = operand.compile(columns, attributes);
+            return row -> -function.applyAsDouble(row);
+        }
+
+        public void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes) {
+            operand.collectColumns(metrics, attributes);
+        }
+    }
+
+    private static class Binary implements Node
+    {
+        private final char operator;
+        private final Node left;
+        private final Node right;
+
+        private Binary(char operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        public <T> ToDoubleFunction<T> compile(Function<CovidMetric, ToDoubleFunction<T>> columns,
+            Function<BoroughDimension.Attribute, ToDoubleFunction<T>> attributes) {
+            if (right.isConstant()) {
+                //the common case of scaling a column, such as "* 100000"
+                ToDoubleFunction<T> a = left.compile(columns, attributes);
+                double b = right.constantValue();
+                switch (operator) {
+                    case '+':
+                        return row -> a.applyAsDouble(row) + b;
+                    case '-':
+                        return row -> a.applyAsDouble(row) - b;
+                    case '*':
+                        return row -> a.applyAsDouble(row) * b;
+                    default:
+                        return b == 0 ? row -> Double.NaN : row -> a.applyAsDouble(row) / b;
+                }
+            }
+            ToDoubleFunction<T> b = right.compile(columns, attributes);
+            if (left.isConstant()) {
+                double a = left.constantValue();
+                switch (operator) {
+                    case '+':
+                        return row -> a + b.applyAsDouble(row);
+                    case '-':
+                        return row -> a - b.applyAsDouble(row);
+                    case '*':
+                        return row -> a * b.applyAsDouble(row);
+                    default:
+                        return row -> divide(a, b.applyAsDouble(row));
+                }
+            }
+            ToDoubleFunction<T> a = left.compile(columns, attributes);
+            switch (operator) {
+                case '+':
+                    return row -> a.applyAsDouble(row) + b.applyAsDouble(row);
+                case '-':
+                    return row -> a.applyAsDouble(row) - b.applyAsDouble(row);
+                case '*':
+                    return row -> a.applyAsDouble(row) * b.applyAsDouble(row);
+                default:
+                    return row -> divide(a.applyAsDouble(row), b.applyAsDouble(row));
+            }
+        }
+
+        public void collectColumns(Set<CovidMetric> metrics, Set<BoroughDimension.Attribute> attributes) {
+            left.collectColumns(metrics, attributes);
+            right.collectColumns(metrics, attributes);
+        }
+
+        private static double divide(double a, double b) {
+            return b == 0 ? Double.NaN : a / b;
+        }
+    }
+
+    /**
+     * Recursive descent parser of expressions, folding the parts without columns into constants
+     */
+    private static class Parser
+    {
+        private final String text;
+        private int position = 0;
+
+        private Parser(String text) {
+            if (text == null || text.isBlank()) {
+                throw new IllegalArgumentException("The expression is empty");
+            }
+            this.text = text;
+        }
+
+        /**
+         * expression := term (('+' | '-') term)*
+         */
+        private Node parseExpression() {
+            Node node = parseTerm();
+            while (peek() == '+' || peek() == '-') {
+                char operator = text.charAt(position++);
+                node = combine(operator, node, parseTerm());
+            }
+            return node;
+        }
+
+        /**
+         * term := factor (('*' | '/') factor)*
+         */
+        private Node parseTerm() {
+            Node node = parseFactor();
+            while (peek() == '*' || peek() == '/') {
+                char operator = text.charAt(position++);
+                node = combine(operator, node, parseFactor());
+            }
+            return node;
+        }
+
+        /**
+         * factor := '-' factor | number | column | attribute | '(' expression ')'
+         */
+        private Node parseFactor() {
+            char next = peek();
+            if (next == '-') {
+                position++;
+                Node operand = parseFactor();
+                return operand.isConstant() ? new Constant(-operand.constantValue()) : new Negation(operand);
+            }
+            if (next == '(') {
+                position++;
+                Node node = parseExpression();
+                if (peek() != ')') {
+                    throw error("Expected )");
+                }
+                position++;
+                return node;
+            }
+            int start = position;
+            if (Character.isDigit(next) || next == '.') {
+                while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+                    position++;
+                }
+                try {
+                    return new Constant(Double.parseDouble(text.substring(start, position)));
+                }
+                catch (NumberFormatException e) {
+                    String number = text.substring(start, position);
+                    position = start;
+                    throw error("Bad number " + number);
+                }
+            }
+            if (Character.isLetter(next)) {
+                while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+                    position++;
+                }
+                String name = text.substring(start, position);
+                CovidMetric metric = metricOf(name);
+                if (metric != null) {
+                    return new Column(metric);
+                }
+                BoroughDimension.Attribute attribute = attributeOf(name);
+                if (attribute != null) {
+                    return new Attribute(attribute);
+                }
+                position = start;
+                throw error("Unknown column " + name);
+            }
+            throw error(next == 0 ? "Unexpected end" : "Unexpected " + next);
+        }
+
+        private Node combine(char operator, Node left, Node right) {
+            Node node = new Binary(operator, left, right);
+            if (left.isConstant() && right.isConstant()) {
+                return new Constant(node.compile(metric -> null, attribute -> null).applyAsDouble(null));
+            }
+            return node;
+        }
+
+        private void expectEnd() {
+            if (peek() != 0) {
+                throw error("Unexpected " + peek());
+            }
+        }
+
+        /**
+         * Skips spaces and returns the next character, or 0 at the end
+         */
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (position + 1) + " of \"" + text + "\"");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DerivedMetricRegistry holds the derived metrics offered by the table, the
+ * comparator, the stats panel and the map. A new metric is defined here, once,
+ * and every page picks it up.
+ *
+ * Besides the standard metrics, metrics are read from a derived_metrics.txt file
+ * next to the data set, one per line in the form "Name = expression". Blank lines
+ * and lines starting with # are skipped.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class DerivedMetricRegistry
+{
+    //file of metrics defined by the user, found next to the data set
+    public static final String METRICS_FILE = "derived_metrics.txt";
+
+    //instance variable to hold the registry used by the application
+    private static DerivedMetricRegistry defaultRegistry;
+
+    private final List<DerivedMetric> metrics = new ArrayList<>();
+
+    /**
+     * Returns the registry used by the application, holding the standard metrics
+     * and those of the metrics file
+     */
+    public static synchronized DerivedMetricRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new DerivedMetricRegistry();
+            defaultRegistry.define("Case Fatality Rate %", "newDeaths * 100 / newCases");
+            defaultRegistry.define("Workplaces minus Residential Mobility", "workplacesGMR - residentialGMR");
+            defaultRegistry.define("New Cases per 100k", "newCases * 100000 / population");
+            defaultRegistry.define("New Deaths per 100k", "newDeaths * 100000 / population");
+            InputStream stream = DerivedMetricRegistry.class.getResourceAsStream(METRICS_FILE);
+            if (stream != null) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                    defaultRegistry.defineAll(reader);
+                }
+                catch (IOException e) {
+                    System.out.println("Something Went Wrong?!");
+                    e.printStackTrace();
+                }
+            }
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Compiles an expression and adds it as a metric, replacing any metric of the same name.
+     *
+     * @return The compiled metric.
+     * @throws IllegalArgumentException if the expression cannot be parsed
+     */
+    public synchronized DerivedMetric define(String name, String expression) {
+        DerivedMetric metric = DerivedMetric.compile(name, expression);
+        DerivedMetric existing = find(metric.getName());
+        if (existing != null) {
+            metrics.set(metrics.indexOf(existing), metric);
+        }
+        else {
+            metrics.add(metric);
+        }
+        return metric;
+    }
+
+    /**
+     * Defines the metrics of the lines of a reader. A line that cannot be parsed is
+     * reported and skipped, so one mistake does not lose the other metrics.
+     */
+    public void defineAll(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            try {
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected Name = expression");
+                }
+                define(line.substring(0, equals), line.substring(equals + 1));
+            }
+            catch (IllegalArgumentException e) {
+                System.out.println("Skipping derived metric \"" + line + "\": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the metric with the given name, or null if none is defined
+     */
+    public synchronized DerivedMetric find(String name) {
+        for (DerivedMetric metric : metrics) {
+            if (metric.getName().equals(name)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a snapshot of the defined metrics
+     */
+    public synchronized List<DerivedMetric> getMetrics() {
+        return Collections.unmodifiableList(new ArrayList<>(metrics));
+    }
+}
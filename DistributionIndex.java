@@ -0,0 +1,351 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * DistributionIndex answers the quantiles of daily values, such as the median new
+ * cases of a borough day, over any date range without sorting the values in it.
+ *
+ * The days are cut into blocks of BLOCK_DAYS, and a QuantileSketch is built once
+ * for every borough, metric and block, with one for all boroughs merged from them.
+ * A range merges the sketches of the blocks it covers and adds the few days at its
+ * edges one by one. When rows are appended only the blocks of their days are
+ * sketched again, and London's sketches of those blocks merged again; the index is
+ * only rebuilt for different records or rows older than the first day.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class DistributionIndex
+{
+    //the daily counts and mobility indexed
+    public static final List<CovidMetric> METRICS = List.of(
+        CovidMetric.NEW_CASES,
+        CovidMetric.NEW_DEATHS,
+        CovidMetric.RETAIL_RECREATION_GMR,
+        CovidMetric.GROCERY_PHARMACY_GMR,
+        CovidMetric.PARKS_GMR,
+        CovidMetric.TRANSIT_GMR,
+        CovidMetric.WORKPLACES_GMR,
+        CovidMetric.RESIDENTIAL_GMR);
+
+    //name standing for every borough together
+    public static final String LONDON = "London";
+
+    public static final int BLOCK_DAYS = 28;
+
+    //records the index was built from, and their number at the time
+    private List<CovidData> indexedRecords;
+    private int indexedSize;
+
+    //daily values of each borough, one row per metric, with room for more days than are used
+    private final TreeMap<String, int[][]> values = new TreeMap<>();
+    private long firstDay;
+    private int days;
+    private int capacity;
+    //sketches of each borough, and of London, by metric and block
+    private final HashMap<String, QuantileSketch[][]> sketches = new HashMap<>();
+
+    /**
+     * Builds the sketches of the records
+     */
+    public synchronized void build(List<CovidData> records) {
+        long start = System.nanoTime();
+        DailySeries series = DailySeries.of(records, METRICS);
+        firstDay = series.getFirstDay();
+        days = series.getDays();
+        capacity = days;
+        values.clear();
+        sketches.clear();
+        for (String borough : series.getBoroughs()) {
+            int[][] boroughValues = new int[METRICS.size()][];
+            for (int m = 0; m < METRICS.size(); m++) {
+                boroughValues[m] = series.getValues(borough, METRICS.get(m)).clone();
+            }
+            values.put(borough, boroughValues);
+        }
+        int blocks = getBlockCount();
+        sketches.put(LONDON, newSketches(blocks));
+        for (String borough : values.keySet()) {
+            sketches.put(borough, newSketches(blocks));
+            for (int block = 0; block < blocks; block++) {
+                sketchBlock(borough, block);
+            }
+        }
+        for (int block = 0; block < blocks; block++) {
+            mergeLondon(block);
+        }
+        indexedRecords = records;
+        indexedSize = records.size();
+        MetricsRegistry.getInstance().timer("distribution.build").recordSince(start);
+    }
+
+    /**
+     * Makes sure the sketches are those of the records, adding only the rows added to
+     * them since the last call if they grew in place, or building them again if they
+     * are different records
+     */
+    public synchronized void ensureBuilt(List<CovidData> records) {
+        if (records == indexedRecords && records.size() == indexedSize) {
+            return;
+        }
+        if (records == indexedRecords && records.size() > indexedSize) {
+            addAll(records, Collections.emptyList(), records.subList(indexedSize, records.size()));
+            return;
+        }
+        build(records);
+    }
+
+    /**
+     * Adds rows added to records that were indexed before, when the grown records are
+     * a new list. Nothing is read if the old records are not the ones indexed last;
+     * they are then all read by the next ensureBuilt.
+     *
+     * @param oldRecords The records before the rows were added.
+     * @param oldSize    Their number before the rows were added.
+     * @param records    The records with the rows added.
+     * @param newRecords The rows added.
+     */
+    public synchronized void append(List<CovidData> oldRecords, int oldSize, List<CovidData> records, List<CovidData> newRecords) {
+        if (oldRecords != indexedRecords || oldSize != indexedSize) {
+            return;
+        }
+        addAll(records, Collections.emptyList(), newRecords);
+        MetricsRegistry.getInstance().counter("distribution.appendedRecords").add(newRecords.size());
+    }
+
+    /**
+     * Takes out the deleted rows and lays out the new values of changed and inserted
+     * rows of a revision, when the revised records are a new list, sketching again
+     * only the blocks of their days. Nothing is read if the old records are not the
+     * ones indexed last; they are then all read by the next ensureBuilt.
+     *
+     * @param oldRecords  The records before the revision.
+     * @param oldSize     Their number before the revision.
+     * @param records     The revised records.
+     * @param deletedRows The rows the revision deleted.
+     * @param newRows     The new values of changed rows, and the inserted rows.
+     */
+    public synchronized void revise(List<CovidData> oldRecords, int oldSize, List<CovidData> records,
+                                    List<CovidData> deletedRows, List<CovidData> newRows) {
+        if (oldRecords != indexedRecords || oldSize != indexedSize) {
+            return;
+        }
+        addAll(records, deletedRows, newRows);
+        MetricsRegistry.getInstance().counter("distribution.revisedRecords").add(deletedRows.size() + newRows.size());
+    }
+
+    /**
+     * Returns a sketch of the daily values of a metric over a range of days.
+     *
+     * @param borough The borough, or LONDON for every borough together.
+     * @param metric  One of METRICS.
+     * @param fromDay The first epoch day of the range.
+     * @param toDay   The last epoch day of the range.
+     * @return        A new sketch, empty if there are no values in the range.
+     * @throws IllegalArgumentException if the metric is not indexed
+     */
+    public synchronized QuantileSketch getSketch(String borough, CovidMetric metric, long fromDay, long toDay) {
+        int m = METRICS.indexOf(metric);
+        if (m < 0) {
+            throw new IllegalArgumentException(metric + " is not indexed");
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        QuantileSketch[][] boroughSketches = sketches.get(borough);
+        if (boroughSketches == null || days == 0) {
+            return sketch;
+        }
+        long lastDay = firstDay + days - 1;
+        int from = (int) (Math.max(fromDay, firstDay) - firstDay);
+        int to = (int) (Math.min(toDay, lastDay) - firstDay);
+        int day = from;
+        while (day <= to) {
+            if (day % BLOCK_DAYS == 0 && day + BLOCK_DAYS - 1 <= to) {
+                sketch.merge(boroughSketches[m][day / BLOCK_DAYS]);
+                day += BLOCK_DAYS;
+            }
+            else {
+                addDay(sketch, borough, metric, day);
+                day++;
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Returns quantiles of the daily values of a metric over a range of days.
+     *
+     * @param fractions The quantiles wanted, each from 0 to 1.
+     * @return          The quantiles in the same order, NaN if there are no values.
+     * @see #getSketch(String, CovidMetric, long, long)
+     */
+    public double[] getQuantiles(String borough, CovidMetric metric, long fromDay, long toDay, double[] fractions) {
+        long start = System.nanoTime();
+        double[] quantiles = getSketch(borough, metric, fromDay, toDay).getQuantiles(fractions);
+        MetricsRegistry.getInstance().timer("distribution.query").recordSince(start);
+        return quantiles;
+    }
+
+    /**
+     * Clears the days of the removed rows, lays out the new rows and sketches again
+     * the blocks of their days, for their boroughs and for London. Rows older than
+     * the first day shift every block, so the index is then built again.
+     */
+    private void addAll(List<CovidData> records, List<CovidData> removedRecords, List<CovidData> newRecords) {
+        long start = System.nanoTime();
+        long earliestDay = Long.MAX_VALUE;
+        for (CovidData record : newRecords) {
+            earliestDay = Math.min(earliestDay, record.getEpochDay());
+        }
+        if (days == 0) {
+            firstDay = earliestDay;
+        }
+        else if (earliestDay < firstDay) {
+            build(records);
+            return;
+        }
+        HashMap<String, BitSet> changedBlocks = new HashMap<>();
+        BitSet londonBlocks = new BitSet();
+        for (CovidData record : removedRecords) {
+            int day = (int) (record.getEpochDay() - firstDay);
+            int[][] boroughValues = values.get(record.getBorough());
+            if (boroughValues == null || day < 0 || day >= days) {
+                continue;
+            }
+            for (int[] column : boroughValues) {
+                column[day] = CovidMetric.MISSING;
+            }
+            changedBlocks.computeIfAbsent(record.getBorough(), borough -> new BitSet()).set(day / BLOCK_DAYS);
+            londonBlocks.set(day / BLOCK_DAYS);
+        }
+        for (CovidData record : newRecords) {
+            int day = (int) (record.getEpochDay() - firstDay);
+            if (day >= days) {
+                growDays(day + 1);
+            }
+            int[][] boroughValues = values.get(record.getBorough());
+            if (boroughValues == null) {
+                boroughValues = new int[METRICS.size()][capacity];
+                for (int[] column : boroughValues) {
+                    Arrays.fill(column, CovidMetric.MISSING);
+                }
+                values.put(record.getBorough(), boroughValues);
+                sketches.put(record.getBorough(), newSketches(getBlockCount()));
+            }
+            for (int m = 0; m < METRICS.size(); m++) {
+                boroughValues[m][day] = METRICS.get(m).getValue(record);
+            }
+            changedBlocks.computeIfAbsent(record.getBorough(), borough -> new BitSet()).set(day / BLOCK_DAYS);
+            londonBlocks.set(day / BLOCK_DAYS);
+        }
+        for (Map.Entry<String, BitSet> entry : changedBlocks.entrySet()) {
+            BitSet blocks = entry.getValue();
+            for (int block = blocks.nextSetBit(0); block >= 0; block = blocks.nextSetBit(block + 1)) {
+                sketchBlock(entry.getKey(), block);
+            }
+        }
+        for (int block = londonBlocks.nextSetBit(0); block >= 0; block = londonBlocks.nextSetBit(block + 1)) {
+            mergeLondon(block);
+        }
+        indexedRecords = records;
+        indexedSize = records.size();
+        MetricsRegistry.getInstance().timer("distribution.append").recordSince(start);
+    }
+
+    /**
+     * Extends every borough to a number of days, with room to spare, and adds empty
+     * sketches for any new blocks
+     */
+    private void growDays(int newDays) {
+        if (newDays > capacity) {
+            capacity = Math.max(newDays, capacity + capacity / 2);
+            for (int[][] boroughValues : values.values()) {
+                for (int m = 0; m < boroughValues.length; m++) {
+                    int[] column = Arrays.copyOf(boroughValues[m], capacity);
+                    Arrays.fill(column, boroughValues[m].length, capacity, CovidMetric.MISSING);
+                    boroughValues[m] = column;
+                }
+            }
+        }
+        int oldBlocks = getBlockCount();
+        days = newDays;
+        int blocks = getBlockCount();
+        if (blocks > oldBlocks) {
+            for (Map.Entry<String, QuantileSketch[][]> entry : sketches.entrySet()) {
+                QuantileSketch[][] grown = newSketches(blocks);
+                for (int m = 0; m < grown.length; m++) {
+                    System.arraycopy(entry.getValue()[m], 0, grown[m], 0, oldBlocks);
+                }
+                entry.setValue(grown);
+            }
+        }
+    }
+
+    /**
+     * Sketches the values of a borough in one block from scratch, as a revised day
+     * cannot be taken out of a sketch
+     */
+    private void sketchBlock(String borough, int block) {
+        int[][] boroughValues = values.get(borough);
+        QuantileSketch[][] boroughSketches = sketches.get(borough);
+        int end = Math.min(days, (block + 1) * BLOCK_DAYS);
+        for (int m = 0; m < METRICS.size(); m++) {
+            QuantileSketch sketch = new QuantileSketch();
+            for (int day = block * BLOCK_DAYS; day < end; day++) {
+                if (boroughValues[m][day] != CovidMetric.MISSING) {
+                    sketch.add(boroughValues[m][day]);
+                }
+            }
+            boroughSketches[m][block] = sketch;
+        }
+    }
+
+    /**
+     * Merges London's sketches of one block from those of the boroughs
+     */
+    private void mergeLondon(int block) {
+        QuantileSketch[][] london = sketches.get(LONDON);
+        for (int m = 0; m < METRICS.size(); m++) {
+            QuantileSketch sketch = new QuantileSketch();
+            for (String borough : values.keySet()) {
+                sketch.merge(sketches.get(borough)[m][block]);
+            }
+            london[m][block] = sketch;
+        }
+    }
+
+    private int getBlockCount() {
+        return (days + BLOCK_DAYS - 1) / BLOCK_DAYS;
+    }
+
+    /**
+     * Adds the values of one day at the edge of a range, from every borough for London
+     */
+    private void addDay(QuantileSketch sketch, String borough, CovidMetric metric, int day) {
+        int m = METRICS.indexOf(metric);
+        if (borough.equals(LONDON)) {
+            for (int[][] boroughValues : values.values()) {
+                if (boroughValues[m][day] != CovidMetric.MISSING) {
+                    sketch.add(boroughValues[m][day]);
+                }
+            }
+        }
+        else if (values.get(borough)[m][day] != CovidMetric.MISSING) {
+            sketch.add(values.get(borough)[m][day]);
+        }
+    }
+
+    private static QuantileSketch[][] newSketches(int blocks) {
+        QuantileSketch[][] sketches = new QuantileSketch[METRICS.size()][blocks];
+        for (QuantileSketch[] metricSketches : sketches) {
+            for (int block = 0; block < blocks; block++) {
+                metricSketches[block] = new QuantileSketch();
+            }
+        }
+        return sketches;
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * HeadlessAnalytics is a command-line entry point that computes statistics without
+ * starting the JavaFX user interface. It reads a spec file of jobs, evaluates them
+ * in parallel over the data set and streams the results to a CSV or JSON file in
+ * the order of the spec.
+ *
+ * Usage: java HeadlessAnalytics spec-file output-file [--data csv-file] [--format csv|json] [--threads n] [--stream]
+ *
+ * Each non-empty line of the spec file that does not start with # describes jobs as
+ * "from,to,boroughs,statistics". Boroughs and statistics may list several values
+ * separated by |, and every combination becomes one job. The borough * stands for
+ * all of London. A statistic is either the name of a CovidMetric, such as NEW_CASES,
+ * or the label of a statistic registered in the StatisticRegistry. For example:
+ *
+ *     2020-03-01,2020-06-30,Camden|Hackney|*,NEW_CASES|TOTAL_DEATHS
+ *
+ * With --stream the data set is not loaded. Instead every job is evaluated in one
+ * pass of a RecordCursor over the file, so memory does not grow with the file.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class HeadlessAnalytics
+{
+    //borough name standing for every borough
+    public static final String ALL_BOROUGHS = "*";
+
+    private final DataManipulator dataManipulator;
+    private final StatisticRegistry registry;
+
+    /**
+     * Constructor for HeadlessAnalytics
+     */
+    public HeadlessAnalytics(DataManipulator dataManipulator, StatisticRegistry registry) {
+        this.dataManipulator = dataManipulator;
+        this.registry = registry;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            exitWithUsage(null);
+        }
+        File specFile = new File(args[0]);
+        File outputFile = new File(args[1]);
+        File dataFile = null;
+        String format = outputFile.getName().toLowerCase().endsWith(".json") ? "json" : "csv";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean stream = false;
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            boolean takesValue = option.equals("--data") || option.equals("--format") || option.equals("--threads");
+            if (takesValue && i + 1 >= args.length) {
+                exitWithUsage("Missing value for " + option);
+            }
+            switch (option) {
+                case "--data":
+                    dataFile = new File(args[++i]);
+                    break;
+                case "--format":
+                    format = args[++i].toLowerCase();
+                    if (!format.equals("csv") && !format.equals("json")) {
+                        exitWithUsage("Unknown format: " + args[i]);
+                    }
+                    break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    }
+                    catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        exitWithUsage("The number of threads must be a whole number of at least 1: " + args[i]);
+                    }
+                    break;
+                case "--stream":
+                    stream = true;
+                    break;
+                default:
+                    exitWithUsage("Unknown option: " + option);
+            }
+        }
+
+        if (stream) {
+            HeadlessAnalytics analytics = new HeadlessAnalytics(null, StatisticRegistry.getDefault());
+            List<Job> jobs = analytics.readSpec(specFile);
+            double[] values = evaluateStreaming(jobs, dataFile != null ? dataFile : new CovidDataLoader().getDefaultFile());
+            try (Writer writer = new BufferedWriter(new FileWriter(outputFile))) {
+                boolean json = format.equals("json");
+                writer.write(json ? "[\n" : "from,to,borough,statistic,value\n");
+                for (int i = 0; i < jobs.size(); i++) {
+                    writeValue(writer, jobs.get(i), values[i], json, i == 0);
+                }
+                writer.write(json ? "\n]\n" : "");
+            }
+            System.out.println("Wrote " + jobs.size() + " results to " + outputFile);
+            return;
+        }
+
+        DataManipulator dataManipulator;
+        if (dataFile != null) {
+            dataManipulator = DataManipulator.forRecords(DataManipulator.loadRecords(new CovidDataLoader(), dataFile));
+        }
+        else {
+            dataManipulator = DataManipulator.getInstance();
+        }
+        HeadlessAnalytics analytics = new HeadlessAnalytics(dataManipulator, StatisticRegistry.getDefault());
+        List<Job> jobs = analytics.readSpec(specFile);
+
+        try (Writer writer = new BufferedWriter(new FileWriter(outputFile))) {
+            analytics.run(jobs, writer, format.equals("json"), threads);
+        }
+        System.out.println("Wrote " + jobs.size() + " results to " + outputFile);
+    }
+
+    /**
+     * Prints a problem with the command line, if there is one, and the usage line, then exits
+     */
+    private static void exitWithUsage(String problem) {
+        if (problem != null) {
+            System.err.println(problem);
+        }
+        System.err.println("Usage: java HeadlessAnalytics spec-file output-file [--data csv-file] [--format csv|json] [--threads n] [--stream]");
+        System.exit(2);
+    }
+
+    /**
+     * Reads the jobs described by a spec file, expanding every line into one job per
+     * combination of its boroughs and statistics.
+     */
+    public List<Job> readSpec(File specFile) throws IOException {
+        ArrayList<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(specFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 4) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": expected from,to,boroughs,statistics");
+                }
+                LocalDate from = LocalDate.parse(fields[0].trim());
+                LocalDate to = LocalDate.parse(fields[1].trim());
+                for (String borough : fields[2].split("\\|")) {
+                    for (String statisticName : fields[3].split("\\|")) {
+                        Statistic statistic = registry.resolve(statisticName.trim());
+                        if (statistic == null) {
+                            throw new IllegalArgumentException("Line " + lineNumber + ": unknown statistic " + statisticName);
+                        }
+                        jobs.add(new Job(from, to, borough.trim(), statistic));
+                    }
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Evaluates the jobs on a pool of threads and writes each result as soon as it
+     * and all the results before it are ready. At most a few jobs per thread are
+     * in flight at a time, so memory stays bounded however many jobs there are.
+     */
+    public void run(List<Job> jobs, Writer writer, boolean json, int threads) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Double>> inFlight = new ArrayDeque<>();
+        ArrayDeque<Job> inFlightJobs = new ArrayDeque<>();
+        int window = threads * 4;
+        boolean first = true;
+
+        writer.write(json ? "[\n" : "from,to,borough,statistic,value\n");
+        try {
+            for (Job job : jobs) {
+                inFlight.add(pool.submit(() -> evaluate(job)));
+                inFlightJobs.add(job);
+                if (inFlight.size() >= window) {
+                    writeResult(writer, inFlightJobs.poll(), inFlight.poll(), json, first);
+                    first = false;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeResult(writer, inFlightJobs.poll(), inFlight.poll(), json, first);
+                first = false;
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        writer.write(json ? "\n]\n" : "");
+    }
+
+    /**
+     * Computes the statistic of one job over the records of its borough and date range
+     */
+    public double evaluate(Job job) {
+        String borough = job.borough.equals(ALL_BOROUGHS) ? null : job.borough;
+        return dataManipulator.computeStatistic(job.from, job.to, borough, job.statistic);
+    }
+
+    /**
+     * Evaluates every job in a single pass over a csv file without loading it. Only
+     * the rows within the jobs' dates and boroughs are decoded, and of those only the
+     * metrics the jobs' statistics read. One accumulator per job is all that is held,
+     * so memory does not grow with the file.
+     *
+     * @return The value of each job, in the order of the jobs.
+     */
+    public static double[] evaluateStreaming(List<Job> jobs, File dataFile) throws IOException {
+        Statistic.Accumulator[] accumulators = new Statistic.Accumulator[jobs.size()];
+        //positions of the jobs of each borough, and of the jobs over all boroughs
+        HashMap<String, List<Integer>> jobsByBorough = new HashMap<>();
+        List<Integer> allBoroughJobs = new ArrayList<>();
+        EnumSet<CovidMetric> metrics = EnumSet.noneOf(CovidMetric.class);
+        LocalDate from = null;
+        LocalDate to = null;
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            accumulators[i] = job.statistic.newAccumulator();
+            if (job.borough.equals(ALL_BOROUGHS)) {
+                allBoroughJobs.add(i);
+            }
+            else {
+                jobsByBorough.computeIfAbsent(job.borough, borough -> new ArrayList<>()).add(i);
+            }
+            metrics.addAll(job.statistic.getMetrics());
+            from = from == null || job.from.isBefore(from) ? job.from : from;
+            to = to == null || job.to.isAfter(to) ? job.to : to;
+        }
+
+        RecordQuery query = new RecordQuery()
+            .setDateRange(from, to)
+            .setBoroughs(allBoroughJobs.isEmpty() ? jobsByBorough.keySet() : null)
+            .setMetrics(metrics);
+        try (RecordCursor cursor = new CovidDataLoader().open(dataFile, query)) {
+            while (cursor.next()) {
+                CovidData record = cursor.toRecord();
+                addToJobs(record, jobs, jobsByBorough.get(record.getBorough()), accumulators);
+                addToJobs(record, jobs, allBoroughJobs, accumulators);
+            }
+        }
+
+        double[] values = new double[jobs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = accumulators[i].getValue();
+        }
+        return values;
+    }
+
+    /**
+     * Adds a record to the accumulators of the listed jobs whose date range holds it
+     */
+    private static void addToJobs(CovidData record, List<Job> jobs, List<Integer> positions, Statistic.Accumulator[] accumulators) {
+        if (positions == null) {
+            return;
+        }
+        LocalDate date = record.getLocalDate();
+        for (int position : positions) {
+            Job job = jobs.get(position);
+            if (!date.isBefore(job.from) && !date.isAfter(job.to)) {
+                accumulators[position].add(record);
+            }
+        }
+    }
+
+    /**
+     * Waits for one result and writes it out
+     */
+    private void writeResult(Writer writer, Job job, Future<Double> result, boolean json, boolean first) throws IOException, InterruptedException {
+        double value;
+        try {
+            value = result.get();
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Job failed: " + job, e.getCause());
+        }
+        writeValue(writer, job, value, json, first);
+    }
+
+    /**
+     * Writes out the value of one job
+     */
+    private static void writeValue(Writer writer, Job job, double value, boolean json, boolean first) throws IOException {
+        if (json) {
+            JsonWriter line = new JsonWriter().beginObject()
+                .member("from", job.from.toString())
+                .member("to", job.to.toString())
+                .member("borough", job.borough)
+                .member("statistic", job.statistic.getLabel())
+                .member("value", value)
+                .endObject();
+            writer.write((first ? "" : ",\n") + line);
+        }
+        else {
+            writer.write(job.from + "," + job.to + "," + csvField(job.borough) + ","
+                + csvField(job.statistic.getLabel()) + "," + csvNumber(value) + "\n");
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String csvNumber(double value) {
+        String number = JsonWriter.formatNumber(value);
+        return number.equals("null") ? "" : number;
+    }
+
+    /**
+     * One statistic to compute for one borough over one date range
+     */
+    public static class Job
+    {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final String borough;
+        private final Statistic statistic;
+
+        public Job(LocalDate from, LocalDate to, String borough, Statistic statistic) {
+            this.from = from;
+            this.to = to;
+            this.borough = borough;
+            this.statistic = statistic;
+        }
+
+        @Override
+        public String toString() {
+            return from + "," + to + "," + borough + "," + statistic.getLabel();
+        }
+    }
+}
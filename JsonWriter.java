@@ -0,0 +1,179 @@
+/**
+ * JsonWriter builds JSON text by hand for the few simple shapes the application
+ * writes out (objects of strings and numbers, and arrays of those objects).
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class JsonWriter
+{
+    private final StringBuilder json = new StringBuilder();
+
+    //whether the next value in the current object or array needs a comma before it
+    private boolean needsComma = false;
+
+    public JsonWriter beginObject() {
+        separate();
+        json.append('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        json.append('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        json.append('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        json.append(']');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of an object
+     */
+    public JsonWriter name(String name) {
+        separate();
+        appendString(name);
+        json.append(':');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            json.append("null");
+        }
+        else {
+            appendString(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        json.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes a number, or null if it is not a finite number
+     */
+    public JsonWriter value(double value) {
+        separate();
+        json.append(formatNumber(value));
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes a member holding a string
+     */
+    public JsonWriter member(String name, String value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a member holding a whole number
+     */
+    public JsonWriter member(String name, long value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a member holding a number
+     */
+    public JsonWriter member(String name, double value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes all the fields of a record as an object
+     */
+    public JsonWriter record(CovidData record) {
+        beginObject();
+        member("date", record.getDate());
+        member("borough", record.getBorough());
+        member("retailRecreationGMR", record.getRetailRecreationGMR());
+        member("groceryPharmacyGMR", record.getGroceryPharmacyGMR());
+        member("parksGMR", record.getParksGMR());
+        member("transitGMR", record.getTransitGMR());
+        member("workplacesGMR", record.getWorkplacesGMR());
+        member("residentialGMR", record.getResidentialGMR());
+        member("newCases", record.getNewCases());
+        member("totalCases", record.getTotalCases());
+        member("newDeaths", record.getNewDeaths());
+        member("totalDeaths", record.getTotalDeaths());
+        return endObject();
+    }
+
+    /**
+     * Formats a number without a trailing ".0" for whole values, or as null if
+     * it is not a finite number
+     */
+    public static String formatNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return json.toString();
+    }
+
+    private void separate() {
+        if (needsComma) {
+            json.append(',');
+            needsComma = false;
+        }
+    }
+
+    private void appendString(String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -9,6 +9,8 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.fxml.FXML;
 import javafx.scene.Parent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 
 /**
  * MainLayout is the entry point for the JavaFX application. It initializes the main 
@@ -22,6 +24,13 @@ import javafx.scene.Parent;
 public class MainLayout extends Application
 {
     private BorderPane rootPane;
+    
+    //Optional query service, running only when its port is configured
+    private QueryService queryService;
+    
+    //Optional follower of the csv file, running only when following is configured
+    private CovidDataLoader.Follower dataFollower;
+    
     @Override
     public void start(Stage primaryStage) throws Exception
     {
@@ -36,9 +45,37 @@ public class MainLayout extends Application
         rootPane.setCenter(welcomePane);
         WelcomePanelController welcomePanelController = loader.getController();
         
+        // Stack the performance overlay above the layout, toggled with F12
+        StackPane stackPane = new StackPane(rootPane);
+        Scene scene = new Scene(stackPane);
+        PerformanceOverlay overlay = new PerformanceOverlay(scene);
+        stackPane.getChildren().add(overlay);
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (event.getCode() == KeyCode.F12) {
+                overlay.toggle();
+                event.consume();
+            }
+        });
+        
         primaryStage.setTitle("Covid 19 Data Viewer");
-        primaryStage.setScene(new Scene(rootPane));
+        primaryStage.setScene(scene);
         primaryStage.show();
+        
+        queryService = QueryService.startIfConfigured();
+        if (Boolean.getBoolean(DataManipulator.FOLLOW_PROPERTY)) {
+            dataFollower = DataManipulator.getInstance().startFollowing();
+        }
+    }
+    
+    @Override
+    public void stop()
+    {
+        if (queryService != null) {
+            queryService.stop();
+        }
+        if (dataFollower != null) {
+            dataFollower.close();
+        }
     }
 
 }
\ No newline at end of file
@@ -26,7 +26,7 @@ public class MainLayoutController
 {
     private BorderPane rootPane;
     private int currentFileIndex = 1;
-    private static final int MAX_FILES = 4;
+    private static final int MAX_FILES = 6;
     
     //Instance variable for Singleton Class Data Manipulator 
     private DataManipulator dataManipulator;
@@ -75,7 +75,7 @@ public class MainLayoutController
             currentFileIndex--;
         }
         else {
-            currentFileIndex = 4;
+            currentFileIndex = MAX_FILES;
         }
         String foundFileName = findFXMLFile(currentFileIndex);
         loadFile(foundFileName);
@@ -107,6 +107,9 @@ public class MainLayoutController
      */
     private void loadFile(String fxmlFileName) {
         if (fxmlFileName != null) {
+            DataLayerEvents.FxmlLoad event = new DataLayerEvents.FxmlLoad();
+            event.begin();
+            long start = System.nanoTime();
             try {
                 FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlFileName));
                 Parent newCenter = loader.load();
@@ -115,6 +118,12 @@ public class MainLayoutController
             catch (IOException e) {
                 e.printStackTrace();
             }
+            MetricsRegistry.getInstance().timer("fxml." + fxmlFileName).recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = fxmlFileName;
+                event.commit();
+            }
         }
     }
     
@@ -137,6 +146,19 @@ public class MainLayoutController
      */
     @FXML
     private void analyseDateRange(ActionEvent event) {
+        long start = System.nanoTime();
+        try {
+            checkDateRange(event);
+        }
+        finally {
+            MetricsRegistry.getInstance().timer("handler.analyseDateRange").recordSince(start);
+        }
+    }
+    
+    /**
+     * Checks the selected dates and updates the records in range once both are valid
+     */
+    private void checkDateRange(ActionEvent event) {
         setButtonDisabled(true);
         
         //obtains the source of the Action Event
@@ -12,6 +12,15 @@ import javafx.event.ActionEvent;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
 import java.io.IOException;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.CheckBox;
+import javafx.scene.layout.HBox;
+import javafx.scene.control.Slider;
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ChangeListener;
+import javafx.geometry.Pos;
 
 /**
  * Controller for the map page
@@ -26,46 +35,45 @@ public class MapController
     
     private ArrayList<String> boroughNames;
     
-    // Hash map to associate the abbreviation of the boroughs to the full name of them as stored in the data
-    private HashMap<String, String> boroughDictionary = new HashMap<String, String>() {{
-        put("ENFI", "Enfield");
-        put("WALT", "Waltham Forest");
-        put("HRGY", "Haringey");
-        put("BARN", "Barnet");
-        put("BREN", "Brent");
-        put("CAMD", "Camden");
-        put("ISLI", "Islington");
-        put("HACK", "Hackney");
-        put("REDB", "Redbridge");
-        put("HRRW", "Harrow");
-        put("HAVE", "Havering");
-        put("HILL", "Hillingdon");
-        put("EALI", "Ealing");
-        put("KENS", "Kensington And Chelsea");
-        put("WSTM", "Westminster");
-        put("TOWH", "Tower Hamlets");
-        put("NEWH", "Newham");
-        put("BARK", "Barking And Dagenham");
-        put("HOUN", "Hounslow");
-        put("HAMM", "Hammersmith And Fulham");
-        put("WAND", "Wandsworth");
-        put("CITY", "City Of London");
-        put("GWCH", "Greenwich");
-        put("BEXL", "Bexley");
-        put("LEWS", "Lewisham");
-        put("STHW", "Southwark");
-        put("RICH", "Richmond Upon Thames");
-        put("MERT", "Merton");
-        put("LAMB", "Lambeth");
-        put("KING", "Kingston Upon Thames");
-        put("SUTT", "Sutton");
-        put("CROY", "Croydon");
-        put("BROM", "Bromley");
-    }};
-    
     //Instance variable for Singleton Class Data Manipulator 
     private DataManipulator dataManipulator;
     
+    // Buttons of the map keyed by the full borough name, with the style they were loaded with
+    private HashMap<String, Button> boroughButtons = new HashMap<>();
+    private HashMap<Button, String> baseStyles = new HashMap<>();
+    
+    // Buttons of the boroughs with a spike or reporting gap in the shown records, which get a border
+    private HashSet<Button> anomalyButtons = new HashSet<>();
+    
+    // Controls for choosing what the map shows; the metric is a CovidMetric or a DerivedMetric
+    private ComboBox<Object> metricComboBox;
+    private ComboBox<ClassBreaks.Method> classificationComboBox;
+    
+    // Controls for colouring the map by clusters of boroughs with similar case curves instead
+    private CheckBox clusterCheckBox;
+    private ComboBox<TrajectoryClustering.Measure> measureComboBox;
+    
+    // Background task currently computing the map colours
+    private Task<?> colourTask;
+    
+    // Border colour of the boroughs with anomalies
+    private static final String ANOMALY_BORDER_COLOUR = "#CC0000";
+    
+    // Frame rate of the time-lapse playback
+    private static final int FRAMES_PER_SECOND = 30;
+    private static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+    
+    // Controls and state of the time-lapse playback
+    private Button playButton;
+    private Slider timeSlider;
+    private Label timeLabel;
+    private TimeLapseFrames frames;
+    private Task<TimeLapseFrames> framesTask;
+    private AnimationTimer playback;
+    
+    // Recomputes the map when records are added to the data set
+    private final ChangeListener<Number> revisionListener = (observable, oldValue, newValue) -> refreshColours();
+    
     /**
      * This method is called as soon as the FXML files are loaded.
      */
@@ -76,55 +84,324 @@ public class MapController
         
         boroughNames = new ArrayList<>();
         
+        // The buttons are named through the borough dimension, which is bundled with the application
+        if (BoroughDimension.getDefault().getBoroughs().isEmpty()) {
+            throw new IllegalStateException(BoroughDimension.BOROUGHS_FILE + " is missing, so the map cannot name its boroughs");
+        }
+        
         // Iterate over all the buttons of root element
         for (Node node : root.getChildrenUnmodifiable()) {
             if (node instanceof Button) {
                 Button button = (Button) node;
                 String buttonText = button.getText();
                 
-                // Retrieve the corresponding borough name from the dictionary
-                String boroughName = boroughDictionary.get(buttonText);
+                // Retrieve the corresponding borough name from the borough dimension
+                BoroughDimension.Borough borough = BoroughDimension.getDefault().getByAbbreviation(buttonText);
+                if (borough == null) {
+                    continue;
+                }
+                String boroughName = borough.getName();
                 
                 boroughNames.add(boroughName);
+                boroughButtons.put(boroughName, button);
+                baseStyles.put(button, button.getStyle());
                 
-                // Retrieve filtered borough records
-                ArrayList<CovidData> filteredBoroughRecords = dataManipulator.getFilterByBorough(boroughName, false);
-                
-                // Get the total deaths for the borough
-                int totalDeaths = dataManipulator.getNewestTotalDeath(filteredBoroughRecords);
-                
-                // Determine the color for the button based on total deaths
-                String buttonColour = determineButtonColour(totalDeaths);
-                
-                // Update the button's color
-                updateButtonColour(button, buttonColour);
+                // Show the borough as having no data until the colours are computed
+                updateButtonColour(button, ChoroplethEngine.NO_DATA_COLOUR);
             }
         }
+        
+        addMapControls();
+        refreshColours();
+        dataManipulator.getRevisionProperty().addListener(revisionListener);
     }
     
     /**
-     * Update the buttons colour
+     * Adds the combo boxes for choosing the metric and the classification method,
+     * or colouring by clusters instead, and the time-lapse controls
      */
-    private void updateButtonColour(Button button, String colour) {
-        button.setStyle(button.getStyle() + "-fx-background-color: " + colour + ";");
+    private void addMapControls() {
+        metricComboBox = new ComboBox<>(FXCollections.observableArrayList((Object[]) CovidMetric.values()));
+        metricComboBox.getItems().addAll(DerivedMetricRegistry.getDefault().getMetrics());
+        metricComboBox.setValue(CovidMetric.TOTAL_DEATHS);
+        metricComboBox.setOnAction(event -> refreshColours());
+        
+        classificationComboBox = new ComboBox<>(FXCollections.observableArrayList(ClassBreaks.Method.values()));
+        classificationComboBox.setValue(ClassBreaks.Method.QUANTILE);
+        classificationComboBox.setOnAction(event -> refreshColours());
+        
+        clusterCheckBox = new CheckBox("Clusters");
+        clusterCheckBox.setOnAction(event -> refreshColours());
+        
+        measureComboBox = new ComboBox<>(FXCollections.observableArrayList(TrajectoryClustering.Measure.values()));
+        measureComboBox.setValue(TrajectoryClustering.Measure.CORRELATION);
+        measureComboBox.setOnAction(event -> refreshColours());
+        
+        playButton = new Button("Play");
+        playButton.setOnAction(event -> togglePlayback());
+        
+        timeSlider = new Slider(0, 0, 0);
+        timeSlider.setBlockIncrement(1);
+        timeSlider.setPrefWidth(200);
+        timeSlider.valueProperty().addListener((observable, oldValue, newValue) -> showFrame((int) Math.round(newValue.doubleValue())));
+        
+        timeLabel = new Label();
+        setTimeLapseDisabled(true);
+        
+        HBox controls = new HBox(10, metricComboBox, classificationComboBox, clusterCheckBox, measureComboBox, playButton, timeSlider, timeLabel);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        AnchorPane.setTopAnchor(controls, 10.0);
+        AnchorPane.setLeftAnchor(controls, 10.0);
+        root.getChildren().add(controls);
+        
+        // Stop the playback once the map page is no longer shown
+        root.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (newScene == null) {
+                dataManipulator.getRevisionProperty().removeListener(revisionListener);
+                stopPlayback();
+                if (frames != null) {
+                    frames.dispose();
+                }
+            }
+        });
     }
     
     /**
-     * Determine the colour based on amount of total deaths
+     * Computes the colours of all boroughs on a background thread and applies
+     * them in one batch once they are ready. The selected range is used when
+     * there is one, otherwise the whole data set.
      */
-    private String determineButtonColour(int totalDeaths) {
-        if (totalDeaths >= 343 && totalDeaths <= 552) {
-            return "#66FF99";
-        } else if (totalDeaths >= 553 && totalDeaths <= 762) {
-            return "#FFFF66";
-        } else if (totalDeaths >= 763 && totalDeaths <= 972) {
-            return "#FFCC66";
-        } else if (totalDeaths >= 973 && totalDeaths <= 1182) {
-            return "#FF6666";
-        } else {
-            return "#CCCCCC";
+    private void refreshColours() {
+        if (colourTask != null) {
+            colourTask.cancel();
         }
-
+        
+        List<CovidData> chosenRecords = dataManipulator.getRecordsInRange();
+        LocalDate asOf = dataManipulator.getToDate();
+        if (chosenRecords == null) {
+            chosenRecords = dataManipulator.getRecords();
+            asOf = null;
+        }
+        List<CovidData> records = chosenRecords;
+        LocalDate date = asOf;
+        Object selectedMetric = metricComboBox.getValue();
+        CovidMetric metric = selectedMetric instanceof CovidMetric ? (CovidMetric) selectedMetric : null;
+        DerivedMetric derivedMetric = selectedMetric instanceof DerivedMetric ? (DerivedMetric) selectedMetric : null;
+        ClassBreaks.Method method = classificationComboBox.getValue();
+        ChoroplethEngine engine = dataManipulator.getChoroplethEngine();
+        
+        anomalyButtons.clear();
+        for (String boroughName : dataManipulator.getBoroughsWithAnomalies(dataManipulator.getRecordsInRange() != null)) {
+            Button button = boroughButtons.get(boroughName);
+            if (button != null) {
+                anomalyButtons.add(button);
+            }
+        }
+        
+        boolean clusters = clusterCheckBox.isSelected();
+        metricComboBox.setDisable(clusters);
+        classificationComboBox.setDisable(clusters);
+        measureComboBox.setDisable(!clusters);
+        if (clusters) {
+            refreshClusterColours(records);
+            //no time-lapse while clusters are shown, so playback cannot paint over them
+            refreshFrames(records, null, method);
+            return;
+        }
+        
+        Task<ChoroplethEngine.Result> task = new Task<ChoroplethEngine.Result>() {
+            @Override
+            protected ChoroplethEngine.Result call() {
+                if (derivedMetric != null) {
+                    return engine.compute(records, derivedMetric, date, method);
+                }
+                return engine.compute(records, metric, date, method);
+            }
+        };
+        task.setOnSucceeded(event -> applyColours(task.getValue()));
+        task.setOnFailed(event -> task.getException().printStackTrace());
+        colourTask = task;
+        
+        Thread thread = new Thread(task, "map-colours");
+        thread.setDaemon(true);
+        thread.start();
+        
+        refreshFrames(records, metric, method);
+    }
+    
+    /**
+     * Clusters the boroughs by the course of their cases on a background thread and
+     * colours each borough by its cluster once they are ready
+     */
+    private void refreshClusterColours(List<CovidData> records) {
+        TrajectoryClustering.Measure measure = measureComboBox.getValue();
+        TrajectoryClustering clustering = dataManipulator.getTrajectoryClustering();
+        //the range the records cover and the data they came from, which identify the result
+        boolean inRange = dataManipulator.getRecordsInRange() != null && dataManipulator.getFromDate() != null && dataManipulator.getToDate() != null;
+        long fromDay = inRange ? dataManipulator.getFromDate().toEpochDay() : Long.MIN_VALUE;
+        long toDay = inRange ? dataManipulator.getToDate().toEpochDay() : Long.MAX_VALUE;
+        String dataVersion = dataManipulator.getDataVersion();
+        
+        Task<TrajectoryClustering.Result> task = new Task<TrajectoryClustering.Result>() {
+            @Override
+            protected TrajectoryClustering.Result call() {
+                return clustering.getResult(records, fromDay, toDay, dataVersion, measure, TrajectoryClustering.DEFAULT_CLUSTERS);
+            }
+        };
+        task.setOnSucceeded(event -> {
+            TrajectoryClustering.Result result = task.getValue();
+            for (Map.Entry<String, Button> entry : boroughButtons.entrySet()) {
+                updateButtonColour(entry.getValue(), result.getColour(entry.getKey()));
+            }
+        });
+        task.setOnFailed(event -> task.getException().printStackTrace());
+        colourTask = task;
+        
+        Thread thread = new Thread(task, "map-clusters");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Precomputes the time-lapse frames for the current selection on a background thread.
+     * There is no time-lapse of a derived metric or of the clusters, for which the metric is null.
+     */
+    private void refreshFrames(List<CovidData> records, CovidMetric metric, ClassBreaks.Method method) {
+        stopPlayback();
+        setTimeLapseDisabled(true);
+        if (framesTask != null) {
+            framesTask.cancel();
+        }
+        if (frames != null) {
+            frames.dispose();
+            frames = null;
+        }
+        if (metric == null) {
+            return;
+        }
+        
+        List<String> boroughs = new ArrayList<>(boroughButtons.keySet());
+        Task<TimeLapseFrames> task = new Task<TimeLapseFrames>() {
+            @Override
+            protected TimeLapseFrames call() {
+                return new TimeLapseFrames(records, boroughs, metric, method);
+            }
+        };
+        task.setOnSucceeded(event -> {
+            TimeLapseFrames newFrames = task.getValue();
+            if (newFrames.getDayCount() > 0) {
+                // Reset the slider before the frames are set so the static map stays shown
+                timeSlider.setMax(newFrames.getDayCount() - 1);
+                timeSlider.setValue(0);
+                timeLabel.setText(newFrames.getDate(0).toString());
+                newFrames.prefetch(0);
+                setTimeLapseDisabled(false);
+            }
+            frames = newFrames;
+        });
+        task.setOnFailed(event -> task.getException().printStackTrace());
+        framesTask = task;
+        
+        Thread thread = new Thread(task, "map-frames");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Starts or pauses the time-lapse playback
+     */
+    private void togglePlayback() {
+        if (playback != null) {
+            stopPlayback();
+            return;
+        }
+        if (frames == null) {
+            return;
+        }
+        // Start again from the first day when the end has been reached
+        if (timeSlider.getValue() >= timeSlider.getMax()) {
+            timeSlider.setValue(0);
+        }
+        
+        playback = new AnimationTimer() {
+            private long lastFrameTime = -1;
+            
+            @Override
+            public void handle(long now) {
+                if (lastFrameTime < 0) {
+                    lastFrameTime = now;
+                    showFrame((int) Math.round(timeSlider.getValue()));
+                    return;
+                }
+                // Advance by the number of whole frame periods elapsed so the pace stays steady
+                long steps = (now - lastFrameTime) / FRAME_NANOS;
+                if (steps == 0) {
+                    return;
+                }
+                lastFrameTime += steps * FRAME_NANOS;
+                double next = Math.min(timeSlider.getMax(), Math.round(timeSlider.getValue()) + steps);
+                timeSlider.setValue(next);
+                if (next >= timeSlider.getMax()) {
+                    stopPlayback();
+                }
+            }
+        };
+        playButton.setText("Pause");
+        playback.start();
+    }
+    
+    /**
+     * Pauses the time-lapse playback
+     */
+    private void stopPlayback() {
+        if (playback != null) {
+            playback.stop();
+            playback = null;
+        }
+        if (playButton != null) {
+            playButton.setText("Play");
+        }
+    }
+    
+    /**
+     * Colours the map with the frame of the given day
+     */
+    private void showFrame(int dayIndex) {
+        if (frames == null || dayIndex < 0 || dayIndex >= frames.getDayCount()) {
+            return;
+        }
+        byte[] frame = frames.getFrame(dayIndex);
+        List<String> boroughs = frames.getBoroughs();
+        for (int i = 0; i < boroughs.size(); i++) {
+            updateButtonColour(boroughButtons.get(boroughs.get(i)), ChoroplethEngine.colourOf(frame[i]));
+        }
+        timeLabel.setText(frames.getDate(dayIndex).toString());
+        frames.prefetch(dayIndex);
+    }
+    
+    /**
+     * Disables the time-lapse controls while the frames are being computed
+     */
+    private void setTimeLapseDisabled(boolean disabled) {
+        playButton.setDisable(disabled);
+        timeSlider.setDisable(disabled);
+    }
+    
+    /**
+     * Applies the computed colours to every borough button
+     */
+    private void applyColours(ChoroplethEngine.Result result) {
+        for (Map.Entry<String, Button> entry : boroughButtons.entrySet()) {
+            updateButtonColour(entry.getValue(), result.getColour(entry.getKey()));
+        }
+    }
+    
+    /**
+     * Update the buttons colour, bordered if the borough has anomalies
+     */
+    private void updateButtonColour(Button button, String colour) {
+        String border = anomalyButtons.contains(button) ? "-fx-border-color: " + ANOMALY_BORDER_COLOUR + "; -fx-border-width: 2;" : "";
+        button.setStyle(baseStyles.get(button) + "-fx-background-color: " + colour + ";" + border);
     }
     
     /**
@@ -134,7 +411,11 @@ public class MapController
     private void openNewWindow(ActionEvent event){
         Button button = (Button) event.getSource();
         String shortName = button.getText();
-        String name = boroughDictionary.get(shortName);
+        BoroughDimension.Borough borough = BoroughDimension.getDefault().getByAbbreviation(shortName);
+        if (borough == null) {
+            return;
+        }
+        String name = borough.getName();
         
         // Now only get records within the time period not general
         ArrayList<CovidData> filteredRecords = dataManipulator.getFilterByBorough(name, true);
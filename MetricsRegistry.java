@@ -0,0 +1,198 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsRegistry is a singleton holding the in-process counters, timers and
+ * histograms of the application, keyed by name. Metrics are created the first
+ * time they are asked for and are safe to update from any thread.
+ *
+ * Histograms keep counts in power-of-two buckets, so recording is a few atomic
+ * adds and percentiles are accurate to within a factor of two.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class MetricsRegistry
+{
+    //instance variable to hold the singleton class MetricsRegistry
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * universal access point
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Returns the timers sorted by name
+     */
+    public Map<String, Timer> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    /**
+     * Returns a plain text summary of every metric, one per line
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            report.append(entry.getKey()).append(" count=").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+            Histogram nanos = entry.getValue().getHistogram();
+            report.append(entry.getKey())
+                .append(" count=").append(nanos.getCount())
+                .append(" meanMs=").append(String.format("%.3f", nanos.getMean() / 1e6))
+                .append(" p99Ms=").append(String.format("%.3f", nanos.getPercentile(99) / 1e6))
+                .append(" maxMs=").append(String.format("%.3f", nanos.getMax() / 1e6)).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            report.append(entry.getKey())
+                .append(" count=").append(histogram.getCount())
+                .append(" mean=").append(String.format("%.1f", histogram.getMean()))
+                .append(" max=").append(histogram.getMax()).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * A count that only goes up
+     */
+    public static class Counter
+    {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * The distribution of a non-negative value, in power-of-two buckets
+     */
+    public static class Histogram
+    {
+        //bucket i holds values from 2^(i-1) to 2^i - 1, and bucket 0 holds zero
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the upper end of the bucket holding the given percentile (0 to 100)
+         */
+        public long getPercentile(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Returns a copy of the bucket counts
+         */
+        public long[] getBuckets() {
+            long[] copy = new long[64];
+            for (int i = 0; i < 64; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * The durations of an operation, in nanoseconds
+     */
+    public static class Timer
+    {
+        private final Histogram nanos = new Histogram();
+
+        //duration of the most recent operation
+        private volatile long lastNanos;
+
+        /**
+         * Records an operation that started at the given System.nanoTime()
+         */
+        public long recordSince(long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            record(elapsed);
+            return elapsed;
+        }
+
+        public void record(long elapsedNanos) {
+            nanos.record(elapsedNanos);
+            lastNanos = elapsedNanos;
+        }
+
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public Histogram getHistogram() {
+            return nanos;
+        }
+    }
+}
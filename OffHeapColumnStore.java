@@ -0,0 +1,154 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * OffHeapColumnStore keeps the record columns in native memory through the
+ * Foreign Memory API, so the heap holds only a handful of objects however many
+ * rows are loaded, and the garbage collector never has to trace them.
+ *
+ * Rows are stored in chunks of 65536. Each chunk is one memory segment holding
+ * twelve int columns one after the other: the day, the borough id and the ten
+ * metrics in CovidMetric order. Rows are appended chunk by chunk, so loading
+ * never copies what was already stored.
+ *
+ * Rows may be read from several threads while one thread appends.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class OffHeapColumnStore implements ColumnStore
+{
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    //column positions within a chunk; metric columns follow from METRIC_COLUMN
+    private static final int DAY_COLUMN = 0;
+    private static final int BOROUGH_COLUMN = 1;
+    private static final int METRIC_COLUMN = 2;
+    private static final int COLUMNS = METRIC_COLUMN + CovidMetric.values().length;
+
+    private static final long CHUNK_BYTES = (long) COLUMNS * CHUNK_ROWS * Integer.BYTES;
+
+    private final Arena arena = Arena.ofShared();
+    private volatile MemorySegment[] chunks = new MemorySegment[0];
+    private volatile int size = 0;
+
+    private final HashMap<String, Integer> boroughIds = new HashMap<>();
+    private volatile String[] boroughNames = new String[0];
+    //ids of the boroughs in the default BoroughDimension, by the ids of this store
+    private volatile int[] dimensionIds = new int[0];
+
+    /**
+     * Appends a record as a new row
+     */
+    @Override
+    public synchronized void add(CovidData record) {
+        int row = size;
+        int chunkIndex = row >>> CHUNK_BITS;
+        MemorySegment[] current = chunks;
+        if (chunkIndex == current.length) {
+            MemorySegment[] grown = new MemorySegment[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[chunkIndex] = arena.allocate(CHUNK_BYTES, Integer.BYTES);
+            chunks = grown;
+            current = grown;
+        }
+        MemorySegment chunk = current[chunkIndex];
+        int offset = row & CHUNK_MASK;
+        set(chunk, DAY_COLUMN, offset, (int) record.getEpochDay());
+        set(chunk, BOROUGH_COLUMN, offset, internBorough(record.getBorough()));
+        for (CovidMetric metric : CovidMetric.values()) {
+            set(chunk, METRIC_COLUMN + metric.ordinal(), offset, metric.getValue(record));
+        }
+        //publish the row only once all its columns are written
+        size = row + 1;
+    }
+
+    @Override
+    public boolean canAppend() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getEpochDay(int row) {
+        return read(DAY_COLUMN, row);
+    }
+
+    @Override
+    public int getBoroughId(int row) {
+        return read(BOROUGH_COLUMN, row);
+    }
+
+    @Override
+    public int getValue(CovidMetric metric, int row) {
+        return read(METRIC_COLUMN + metric.ordinal(), row);
+    }
+
+    @Override
+    public String getBoroughName(int boroughId) {
+        return boroughNames[boroughId];
+    }
+
+    @Override
+    public int getDimensionId(int boroughId) {
+        return dimensionIds[boroughId];
+    }
+
+    @Override
+    public synchronized int getBoroughId(String boroughName) {
+        Integer id = boroughIds.get(boroughName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the number of bytes of native memory held by the store
+     */
+    public long getNativeBytes() {
+        return chunks.length * CHUNK_BYTES;
+    }
+
+    @Override
+    public synchronized void close() {
+        chunks = new MemorySegment[0];
+        size = 0;
+        arena.close();
+    }
+
+    private int read(int column, int row) {
+        MemorySegment chunk = chunks[row >>> CHUNK_BITS];
+        return chunk.getAtIndex(ValueLayout.JAVA_INT, (long) column * CHUNK_ROWS + (row & CHUNK_MASK));
+    }
+
+    private static void set(MemorySegment chunk, int column, int offset, int value) {
+        chunk.setAtIndex(ValueLayout.JAVA_INT, (long) column * CHUNK_ROWS + offset, value);
+    }
+
+    /**
+     * Returns the id of a borough, giving it the next free id if it is new
+     */
+    private int internBorough(String boroughName) {
+        Integer id = boroughIds.get(boroughName);
+        if (id == null) {
+            id = boroughIds.size();
+            boroughIds.put(boroughName, id);
+            int[] grownIds = Arrays.copyOf(dimensionIds, id + 1);
+            grownIds[id] = BoroughDimension.getDefault().getId(boroughName);
+            dimensionIds = grownIds;
+            String[] grown = new String[id + 1];
+            System.arraycopy(boroughNames, 0, grown, 0, id);
+            grown[id] = boroughName;
+            boroughNames = grown;
+        }
+        return id;
+    }
+}
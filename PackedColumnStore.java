@@ -0,0 +1,435 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * PackedColumnStore keeps the record columns compressed in the heap, fitting
+ * several times more borough-days per gigabyte than CovidData objects or plain
+ * int columns.
+ *
+ * Rows are stored in blocks of 1024, and each column of a block is bit-packed at
+ * the fewest bits that hold its values:
+ * - total cases and total deaths only grow within a borough, so each value is
+ *   stored as the zig-zag encoded change from the borough's previous value in the
+ *   block. The first value of each borough in a block is kept whole on the side.
+ *   Code 0 marks a missing value.
+ * - the day, the borough id, the six mobility percentages and the daily counts
+ *   are stored frame-of-reference: as the distance from the block's minimum.
+ *
+ * Frame-of-reference values are read in place. Delta encoded columns are decoded a
+ * whole block at a time, and the last block decoded is kept for the next read.
+ * addTotals sums straight from the packed words. Each block's minimum and maximum
+ * act as zone maps, so range and borough queries skip blocks as they do for
+ * SegmentedColumnStore. The last block is kept unpacked until it is full.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class PackedColumnStore implements ColumnStore
+{
+    private static final int BLOCK_BITS = 10;
+    private static final int BLOCK_ROWS = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_ROWS - 1;
+
+    //column positions within a block; metric columns follow from METRIC_COLUMN
+    private static final int DAY_COLUMN = 0;
+    private static final int BOROUGH_COLUMN = 1;
+    private static final int METRIC_COLUMN = 2;
+    private static final int COLUMNS = METRIC_COLUMN + CovidMetric.values().length;
+
+    private static final int TOTAL_CASES_COLUMN = METRIC_COLUMN + CovidMetric.TOTAL_CASES.ordinal();
+    private static final int TOTAL_DEATHS_COLUMN = METRIC_COLUMN + CovidMetric.TOTAL_DEATHS.ordinal();
+
+    private volatile Block[] blocks = new Block[0];
+    private final int[][] tail = new int[COLUMNS][BLOCK_ROWS];
+    private int tailRows = 0;
+    private volatile int size = 0;
+
+    //the most recently decoded block of each column, as read by the delta encoded columns
+    private final DecodedBlock[] decoded = new DecodedBlock[COLUMNS];
+
+    private final HashMap<String, Integer> boroughIds = new HashMap<>();
+    private volatile String[] boroughNames = new String[0];
+    //ids of the boroughs in the default BoroughDimension, by the ids of this store
+    private volatile int[] dimensionIds = new int[0];
+
+    /**
+     * Appends a record as a new row, packing the last block once it is full
+     */
+    @Override
+    public synchronized void add(CovidData record) {
+        tail[DAY_COLUMN][tailRows] = (int) record.getEpochDay();
+        tail[BOROUGH_COLUMN][tailRows] = internBorough(record.getBorough());
+        for (CovidMetric metric : CovidMetric.values()) {
+            tail[METRIC_COLUMN + metric.ordinal()][tailRows] = metric.getValue(record);
+        }
+        tailRows++;
+        if (tailRows == BLOCK_ROWS) {
+            Block[] grown = new Block[blocks.length + 1];
+            System.arraycopy(blocks, 0, grown, 0, blocks.length);
+            grown[blocks.length] = new Block(tail, BLOCK_ROWS);
+            blocks = grown;
+            tailRows = 0;
+        }
+        size++;
+    }
+
+    @Override
+    public boolean canAppend() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getEpochDay(int row) {
+        return read(DAY_COLUMN, row);
+    }
+
+    @Override
+    public int getBoroughId(int row) {
+        return read(BOROUGH_COLUMN, row);
+    }
+
+    @Override
+    public int getValue(CovidMetric metric, int row) {
+        return read(METRIC_COLUMN + metric.ordinal(), row);
+    }
+
+    @Override
+    public String getBoroughName(int boroughId) {
+        return boroughNames[boroughId];
+    }
+
+    @Override
+    public int getDimensionId(int boroughId) {
+        return dimensionIds[boroughId];
+    }
+
+    @Override
+    public synchronized int getBoroughId(String boroughName) {
+        Integer id = boroughIds.get(boroughName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Each block is a segment, followed by the unpacked last block if it has rows
+     */
+    @Override
+    public int getSegmentCount() {
+        return (size + BLOCK_MASK) >>> BLOCK_BITS;
+    }
+
+    @Override
+    public int getSegmentStart(int segment) {
+        return segment << BLOCK_BITS;
+    }
+
+    @Override
+    public int getSegmentEnd(int segment) {
+        return Math.min(size, (segment + 1) << BLOCK_BITS);
+    }
+
+    @Override
+    public boolean hasZoneMaps() {
+        return true;
+    }
+
+    @Override
+    public boolean mayMatch(int segment, long fromDay, long toDay, int boroughId) {
+        Block[] packed = blocks;
+        if (segment >= packed.length) {
+            return true;
+        }
+        Block block = packed[segment];
+        if (block.min[DAY_COLUMN] > toDay || block.max[DAY_COLUMN] < fromDay) {
+            return false;
+        }
+        return boroughId < 0 || (block.min[BOROUGH_COLUMN] <= boroughId && block.max[BOROUGH_COLUMN] >= boroughId);
+    }
+
+    @Override
+    public boolean mayHaveValues(int segment, CovidMetric metric) {
+        Block[] packed = blocks;
+        if (segment >= packed.length) {
+            return true;
+        }
+        int column = METRIC_COLUMN + metric.ordinal();
+        return packed[segment].min[column] != CovidMetric.MISSING || packed[segment].max[column] != CovidMetric.MISSING;
+    }
+
+    /**
+     * Sums a packed block without unpacking it first. Frame-of-reference values are
+     * added as they are read from the packed words; delta encoded values are decoded
+     * once for the block.
+     */
+    @Override
+    public void addTotals(int segment, CovidMetric metric, long[][] totalsById, int index) {
+        Block[] packed = blocks;
+        if (segment >= packed.length) {
+            synchronized (this) {
+                ColumnStore.super.addTotals(segment, metric, totalsById, index);
+            }
+            return;
+        }
+        Block block = packed[segment];
+        int column = METRIC_COLUMN + metric.ordinal();
+        int[] deltaValues = block.isDelta(column) ? decode(segment, block, column) : null;
+        long[] boroughWords = block.words[BOROUGH_COLUMN];
+        int boroughWidth = block.width[BOROUGH_COLUMN];
+        int boroughMin = block.min[BOROUGH_COLUMN];
+        long[] words = block.words[column];
+        int width = block.width[column];
+        int min = block.min[column];
+        for (int offset = 0; offset < block.rows; offset++) {
+            int boroughId = boroughMin + (int) unpack(boroughWords, boroughWidth, offset);
+            if (boroughId >= totalsById.length || totalsById[boroughId] == null) {
+                continue;
+            }
+            int value = deltaValues != null ? deltaValues[offset] : min + (int) unpack(words, width, offset);
+            if (value != CovidMetric.MISSING) {
+                totalsById[boroughId][index] += value;
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes of heap held by the packed blocks
+     */
+    public long getPackedBytes() {
+        long bytes = 0;
+        for (Block block : blocks) {
+            for (long[] column : block.words) {
+                bytes += column.length * Long.BYTES;
+            }
+            bytes += block.exceptionValues.length * 2L * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * The blocks are ordinary heap objects, so there is nothing to release
+     */
+    @Override
+    public void close() {
+    }
+
+    private int read(int column, int row) {
+        int blockIndex = row >>> BLOCK_BITS;
+        int offset = row & BLOCK_MASK;
+        Block[] packed = blocks;
+        if (blockIndex >= packed.length) {
+            synchronized (this) {
+                if (blockIndex >= blocks.length) {
+                    return tail[column][offset];
+                }
+            }
+            //the block was packed since the blocks were read
+            packed = blocks;
+        }
+        Block block = packed[blockIndex];
+        if (block.isDelta(column)) {
+            return decode(blockIndex, block, column)[offset];
+        }
+        return block.min[column] + (int) unpack(block.words[column], block.width[column], offset);
+    }
+
+    /**
+     * Returns the values of a delta encoded column of a block, decoding them unless
+     * they were the last ones decoded
+     */
+    private int[] decode(int blockIndex, Block block, int column) {
+        DecodedBlock last = decoded[column];
+        if (last != null && last.blockIndex == blockIndex) {
+            return last.values;
+        }
+        int[] values = block.decodeDelta(column, boroughNames.length);
+        decoded[column] = new DecodedBlock(blockIndex, values);
+        return values;
+    }
+
+    /**
+     * Returns the id of a borough, giving it the next free id if it is new
+     */
+    private int internBorough(String boroughName) {
+        Integer id = boroughIds.get(boroughName);
+        if (id == null) {
+            id = boroughIds.size();
+            boroughIds.put(boroughName, id);
+            int[] grownIds = Arrays.copyOf(dimensionIds, id + 1);
+            grownIds[id] = BoroughDimension.getDefault().getId(boroughName);
+            dimensionIds = grownIds;
+            String[] grown = new String[id + 1];
+            System.arraycopy(boroughNames, 0, grown, 0, id);
+            grown[id] = boroughName;
+            boroughNames = grown;
+        }
+        return id;
+    }
+
+    /**
+     * Writes a value of the given bit width at a position of the packed words
+     */
+    private static void pack(long[] words, int width, int position, long value) {
+        if (width == 0) {
+            return;
+        }
+        long bit = (long) position * width;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        words[word] |= value << shift;
+        if (shift + width > 64) {
+            words[word + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Reads the value of the given bit width at a position of the packed words
+     */
+    private static long unpack(long[] words, int width, int position) {
+        if (width == 0) {
+            return 0;
+        }
+        long bit = (long) position * width;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = words[word] >>> shift;
+        if (shift + width > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return value & (-1L >>> (64 - width));
+    }
+
+    private static int bitsFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * The packed columns of a full block of rows
+     */
+    private static class Block
+    {
+        private final int rows;
+        private final int[] min = new int[COLUMNS];
+        private final int[] max = new int[COLUMNS];
+        private final int[] width = new int[COLUMNS];
+        private final long[][] words = new long[COLUMNS][];
+
+        //rows holding the first value of a borough in a delta encoded column, and those values,
+        //total cases before total deaths
+        private final int[] exceptionRows;
+        private final int[] exceptionValues;
+        private int totalCasesExceptions;
+
+        private Block(int[][] columns, int rows) {
+            this.rows = rows;
+            for (int column = 0; column < COLUMNS; column++) {
+                int low = Integer.MAX_VALUE;
+                int high = Integer.MIN_VALUE;
+                for (int row = 0; row < rows; row++) {
+                    low = Math.min(low, columns[column][row]);
+                    high = Math.max(high, columns[column][row]);
+                }
+                min[column] = low;
+                max[column] = high;
+            }
+
+            long[][] codes = new long[COLUMNS][];
+            int[] firstRows = new int[2 * rows];
+            int[] firstValues = new int[2 * rows];
+            int exceptions = 0;
+            for (int column = 0; column < COLUMNS; column++) {
+                codes[column] = new long[rows];
+                if (isDelta(column)) {
+                    //change from the previous value of the same borough, kept by borough id
+                    int[] previous = new int[max[BOROUGH_COLUMN] + 1];
+                    boolean[] seen = new boolean[previous.length];
+                    for (int row = 0; row < rows; row++) {
+                        int value = columns[column][row];
+                        if (value == CovidMetric.MISSING) {
+                            continue;
+                        }
+                        int boroughId = columns[BOROUGH_COLUMN][row];
+                        if (!seen[boroughId]) {
+                            seen[boroughId] = true;
+                            firstRows[exceptions] = row;
+                            firstValues[exceptions] = value;
+                            exceptions++;
+                        }
+                        else {
+                            int delta = value - previous[boroughId];
+                            codes[column][row] = (((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL) + 1;
+                        }
+                        previous[boroughId] = value;
+                    }
+                    if (column == TOTAL_CASES_COLUMN) {
+                        totalCasesExceptions = exceptions;
+                    }
+                }
+                else {
+                    for (int row = 0; row < rows; row++) {
+                        codes[column][row] = (long) columns[column][row] - min[column];
+                    }
+                }
+                long highest = 0;
+                for (long code : codes[column]) {
+                    highest = Math.max(highest, code);
+                }
+                width[column] = bitsFor(highest);
+                words[column] = new long[(int) (((long) rows * width[column] + 63) >>> 6)];
+                for (int row = 0; row < rows; row++) {
+                    pack(words[column], width[column], row, codes[column][row]);
+                }
+            }
+            exceptionRows = Arrays.copyOf(firstRows, exceptions);
+            exceptionValues = Arrays.copyOf(firstValues, exceptions);
+        }
+
+        private boolean isDelta(int column) {
+            return column == TOTAL_CASES_COLUMN || column == TOTAL_DEATHS_COLUMN;
+        }
+
+        /**
+         * Decodes every value of a delta encoded column
+         */
+        private int[] decodeDelta(int column, int boroughCount) {
+            int[] values = new int[rows];
+            int[] previous = new int[boroughCount];
+            int exception = column == TOTAL_CASES_COLUMN ? 0 : totalCasesExceptions;
+            int lastException = column == TOTAL_CASES_COLUMN ? totalCasesExceptions : exceptionRows.length;
+            for (int row = 0; row < rows; row++) {
+                int boroughId = min[BOROUGH_COLUMN] + (int) unpack(words[BOROUGH_COLUMN], width[BOROUGH_COLUMN], row);
+                if (exception < lastException && exceptionRows[exception] == row) {
+                    values[row] = exceptionValues[exception++];
+                    previous[boroughId] = values[row];
+                    continue;
+                }
+                long code = unpack(words[column], width[column], row);
+                if (code == 0) {
+                    values[row] = CovidMetric.MISSING;
+                    continue;
+                }
+                int zigzag = (int) (code - 1);
+                previous[boroughId] += (zigzag >>> 1) ^ -(zigzag & 1);
+                values[row] = previous[boroughId];
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The decoded values of one column of one block
+     */
+    private static class DecodedBlock
+    {
+        private final int blockIndex;
+        private final int[] values;
+
+        private DecodedBlock(int blockIndex, int[] values) {
+            this.blockIndex = blockIndex;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import java.util.Map;
+
+/**
+ * PerformanceOverlay is a panel drawn over the main window showing how long the
+ * JavaFX pulses take, how long the controller handlers and data queries took,
+ * and how much heap is in use, with a histogram of the recent frame times.
+ *
+ * It is toggled with F12. While hidden it does no work at all; while shown it
+ * measures every frame, which keeps JavaFX pulsing continuously.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public final class PerformanceOverlay extends VBox
+{
+    //number of recent frames kept for the histogram
+    private static final int WINDOW = 240;
+
+    //width of a histogram bucket in milliseconds, and number of buckets
+    private static final double BUCKET_MS = 4;
+    private static final int BUCKETS = 12;
+
+    //time between refreshes of the text, in nanoseconds
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    private final Scene scene;
+    private final Label frameLabel = new Label();
+    private final Label timingsLabel = new Label();
+    private final Label heapLabel = new Label();
+    private final Canvas histogramCanvas = new Canvas(BUCKETS * 16, 60);
+
+    //frame times and layout times of the last WINDOW frames, in nanoseconds
+    private final long[] frameNanos = new long[WINDOW];
+    private final long[] layoutNanos = new long[WINDOW];
+    private int frameCount = 0;
+
+    private long lastFrame = -1;
+    private long lastRefresh = 0;
+    private long layoutStart;
+
+    private final Runnable preLayout = () -> layoutStart = System.nanoTime();
+    private final Runnable postLayout = () -> layoutNanos[frameCount % WINDOW] = System.nanoTime() - layoutStart;
+
+    private final AnimationTimer frameTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (lastFrame >= 0) {
+                frameNanos[frameCount % WINDOW] = now - lastFrame;
+                frameCount++;
+            }
+            lastFrame = now;
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Creates a hidden overlay for the scene. Add it above the content in a StackPane.
+     */
+    public PerformanceOverlay(Scene scene) {
+        this.scene = scene;
+        setSpacing(4);
+        setPadding(new Insets(8));
+        setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+        setMouseTransparent(true);
+        setStyle("-fx-background-color: rgba(0, 0, 0, 0.75);");
+        for (Label label : new Label[] {frameLabel, timingsLabel, heapLabel}) {
+            label.setStyle("-fx-text-fill: white; -fx-font-family: monospace; -fx-font-size: 11px;");
+        }
+        getChildren().addAll(frameLabel, histogramCanvas, timingsLabel, heapLabel);
+        StackPane.setAlignment(this, Pos.TOP_RIGHT);
+        setVisible(false);
+    }
+
+    /**
+     * Shows the overlay if hidden and hides it if shown
+     */
+    public void toggle() {
+        if (isVisible()) {
+            frameTimer.stop();
+            scene.removePreLayoutPulseListener(preLayout);
+            scene.removePostLayoutPulseListener(postLayout);
+            setVisible(false);
+        }
+        else {
+            frameCount = 0;
+            lastFrame = -1;
+            scene.addPreLayoutPulseListener(preLayout);
+            scene.addPostLayoutPulseListener(postLayout);
+            frameTimer.start();
+            setVisible(true);
+            refresh();
+        }
+    }
+
+    /**
+     * Updates the text and the histogram
+     */
+    private void refresh() {
+        int frames = Math.min(frameCount, WINDOW);
+        long worstFrame = 0;
+        long totalFrame = 0;
+        long worstLayout = 0;
+        int[] buckets = new int[BUCKETS];
+        for (int i = 0; i < frames; i++) {
+            worstFrame = Math.max(worstFrame, frameNanos[i]);
+            totalFrame += frameNanos[i];
+            worstLayout = Math.max(worstLayout, layoutNanos[i]);
+            int bucket = (int) Math.min(BUCKETS - 1, frameNanos[i] / 1e6 / BUCKET_MS);
+            buckets[bucket]++;
+        }
+        double meanFrameMs = frames == 0 ? 0 : totalFrame / 1e6 / frames;
+        frameLabel.setText(String.format("frame mean %.1f ms  worst %.1f ms  layout worst %.1f ms",
+            meanFrameMs, worstFrame / 1e6, worstLayout / 1e6));
+        drawHistogram(buckets, frames);
+
+        StringBuilder timings = new StringBuilder();
+        for (Map.Entry<String, MetricsRegistry.Timer> entry : MetricsRegistry.getInstance().getTimers().entrySet()) {
+            MetricsRegistry.Histogram nanos = entry.getValue().getHistogram();
+            timings.append(String.format("%-34s last %7.2f  p99 %7.2f ms%n", entry.getKey(),
+                entry.getValue().getLastNanos() / 1e6, nanos.getPercentile(99) / 1e6));
+        }
+        timingsLabel.setText(timings.toString().trim());
+
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        heapLabel.setText(String.format("heap %d / %d MB", used >> 20, runtime.maxMemory() >> 20));
+    }
+
+    /**
+     * Draws the share of recent frames in each frame time bucket; the bucket over
+     * 16 ms and above is drawn in red as those frames missed 60 fps
+     */
+    private void drawHistogram(int[] buckets, int frames) {
+        GraphicsContext graphics = histogramCanvas.getGraphicsContext2D();
+        double width = histogramCanvas.getWidth() / BUCKETS;
+        double height = histogramCanvas.getHeight();
+        graphics.clearRect(0, 0, histogramCanvas.getWidth(), height);
+        for (int i = 0; i < BUCKETS; i++) {
+            double barHeight = frames == 0 ? 0 : height * buckets[i] / frames;
+            graphics.setFill(i * BUCKET_MS >= 16 ? Color.TOMATO : Color.LIGHTGREEN);
+            graphics.fillRect(i * width + 1, height - barHeight, width - 2, barHeight);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+/**
+ * QuantileSketch estimates the quantiles of a stream of values in bounded memory,
+ * following the KLL sketch of Karnin, Lang and Liberty. Values are kept in levels;
+ * a value on level h stands for 2^h values of the stream. When the sketch is full,
+ * its lowest full level is sorted and every other value moves up a level.
+ *
+ * Sketches are mergeable: merging two sketches gives a sketch of both streams with
+ * the same accuracy, so sketches of boroughs or blocks of days can be combined to
+ * answer any range. Until the first level fills, the sketch holds every value and
+ * its quantiles are exact.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class QuantileSketch
+{
+    //size of the top level, which sets the accuracy: with 200 a quantile is usually
+    //within half a percent of its rank, such as the 98.5th to 99.5th for the 99th
+    public static final int DEFAULT_K = 200;
+
+    //smallest size of a level
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    //values of each level, level 0 first, and how many of each array are used
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    //number of values the sketch stands for
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    //which half of a level moves up next, alternated between compactions
+    private boolean oddHalf = false;
+
+    /**
+     * Constructor for a QuantileSketch with the default accuracy
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Constructor for QuantileSketch
+     *
+     * @param k The size of the top level; larger is more accurate.
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        }
+        this.k = k;
+        levels[0] = new double[MIN_CAPACITY];
+    }
+
+    /**
+     * Adds a value to the stream. NaN is ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        append(0, value);
+        count++;
+        min = count == 1 ? value : Math.min(min, value);
+        max = count == 1 ? value : Math.max(max, value);
+        compress();
+    }
+
+    /**
+     * Adds the values of another sketch, which is left unchanged
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        compress();
+    }
+
+    /**
+     * Returns the number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns an estimate of a quantile: the smallest value with at least the given
+     * fraction of the values at or below it.
+     *
+     * @param fraction The fraction, from 0 to 1; 0.5 is the median.
+     * @return         The quantile, or NaN if the sketch is empty.
+     */
+    public double getQuantile(double fraction) {
+        return getQuantiles(new double[] {fraction})[0];
+    }
+
+    /**
+     * Returns estimates of several quantiles, sorting the kept values only once
+     *
+     * @param fractions The fractions, each from 0 to 1.
+     * @return          The quantiles in the same order, NaN if the sketch is empty.
+     */
+    public double[] getQuantiles(double[] fractions) {
+        double[] quantiles = new double[fractions.length];
+        if (count == 0) {
+            Arrays.fill(quantiles, Double.NaN);
+            return quantiles;
+        }
+        //kept values sorted, each with the number of values it stands for
+        int kept = 0;
+        for (int size : sizes) {
+            kept += size;
+        }
+        double[] values = new double[kept];
+        long[] weights = new long[kept];
+        Integer[] order = new Integer[kept];
+        int next = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[next] = levels[h][i];
+                weights[next] = 1L << h;
+                order[next] = next;
+                next++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        for (int q = 0; q < fractions.length; q++) {
+            double fraction = fractions[q];
+            if (!(fraction >= 0 && fraction <= 1)) {
+                throw new IllegalArgumentException("A quantile must be between 0 and 1");
+            }
+            //the extremes are known exactly
+            if (fraction == 0 || fraction == 1) {
+                quantiles[q] = fraction == 0 ? min : max;
+                continue;
+            }
+            double target = fraction * count;
+            long cumulative = 0;
+            quantiles[q] = max;
+            for (Integer i : order) {
+                cumulative += weights[i];
+                if (cumulative >= target) {
+                    quantiles[q] = values[i];
+                    break;
+                }
+            }
+        }
+        return quantiles;
+    }
+
+    /**
+     * Returns the size of a level: the top level holds k values and each level below
+     * it two thirds of the one above, down to a minimum
+     */
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3, depth)));
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]] = value;
+        sizes[level]++;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        levels[levels.length - 1] = new double[MIN_CAPACITY];
+    }
+
+    /**
+     * Halves levels while the sketch holds more values than all its levels can, each
+     * time the lowest level that is over its size: its values are sorted and every
+     * other one moves up a level. Levels may run over their size until the sketch as
+     * a whole is full, which keeps more values than halving each one as it fills.
+     */
+    private void compress() {
+        while (true) {
+            int kept = 0;
+            int capacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                kept += sizes[h];
+                capacity += capacity(h);
+            }
+            if (kept < capacity) {
+                return;
+            }
+            int h = 0;
+            while (sizes[h] < capacity(h)) {
+                h++;
+            }
+            if (h == levels.length - 1) {
+                addLevel();
+            }
+            double[] level = levels[h];
+            Arrays.sort(level, 0, sizes[h]);
+            //an odd value out stays on this level
+            int paired = sizes[h] - sizes[h] % 2;
+            for (int i = oddHalf ? 1 : 0; i < paired; i += 2) {
+                append(h + 1, level[i]);
+            }
+            oddHalf = !oddHalf;
+            if (paired < sizes[h]) {
+                level[0] = level[paired];
+            }
+            sizes[h] -= paired;
+        }
+    }
+}
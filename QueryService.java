@@ -0,0 +1,490 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * QueryService is an optional embedded HTTP server exposing the DataManipulator
+ * queries as JSON, so dashboards can poll the same data set the application loads.
+ * It listens on the loopback address only and handles every request on its own
+ * virtual thread.
+ *
+ * Endpoints (all GET):
+ *   /api/borough?name=Camden[&from=2020-03-01&to=2020-06-30]  records of one borough
+ *   /api/range?from=2020-03-01&to=2020-06-30                   records in a date range
+ *   /api/newest?metric=TOTAL_DEATHS                            newest value of every borough
+ *   /api/aggregate?from=..&to=..&statistic=NEW_CASES[&borough=Camden]  one statistic
+ *   /api/correlation?series=London[&maxLag=0..28&from=..&to=..]  mobility against later new cases
+ *   /api/quantiles?metric=NEW_CASES[&borough=Camden&from=..&to=..&q=0.5,0.9,0.99]  distribution of daily values
+ *   /api/boroughs?metric=TOTAL_CASES                           newest value of every borough with its attributes
+ *
+ * Responses carry an ETag derived from the data version and the request, so a
+ * client sending If-None-Match gets 304 Not Modified until the data changes.
+ * Responses are gzip encoded when the client accepts it, with an ETag of their own
+ * ending in -gz, and connections are kept
+ * alive between requests. Encoded responses are cached per data version.
+ *
+ * Start it with "java QueryService [port]", or launch the application with
+ * -Dcovid.http.port=port to run it alongside the user interface.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class QueryService
+{
+    //system property naming the port to serve on alongside the application
+    public static final String PORT_PROPERTY = "covid.http.port";
+
+    public static final int DEFAULT_PORT = 8080;
+
+    //responses smaller than this are not worth compressing
+    private static final int MIN_GZIP_SIZE = 512;
+
+    private static final int CACHE_SIZE = 256;
+
+    private final DataManipulator dataManipulator;
+    private final StatisticRegistry registry;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private final Map<String, Response> cache = new LinkedHashMap<String, Response>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Constructor for QueryService
+     */
+    public QueryService(DataManipulator dataManipulator, StatisticRegistry registry) {
+        this.dataManipulator = dataManipulator;
+        this.registry = registry;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        QueryService service = new QueryService(DataManipulator.getInstance(), StatisticRegistry.getDefault());
+        service.start(port);
+        System.out.println("Serving Covid London data on http://localhost:" + service.getPort() + "/api/");
+    }
+
+    /**
+     * Starts the service if the port system property is set, returning the running
+     * service or null if it was not requested
+     */
+    public static QueryService startIfConfigured() {
+        String port = System.getProperty(PORT_PROPERTY);
+        if (port == null) {
+            return null;
+        }
+        try {
+            QueryService service = new QueryService(DataManipulator.getInstance(), StatisticRegistry.getDefault());
+            service.start(Integer.parseInt(port));
+            return service;
+        }
+        catch (IOException | NumberFormatException e) {
+            System.out.println("Could not start the query service on port " + port);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Starts listening on the loopback address; port 0 picks a free port
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stops the service, letting requests in progress finish for up to a second
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers one request
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            String target = exchange.getRequestURI().toString();
+            String tag = dataManipulator.getDataVersion() + "-" + Integer.toHexString(target.hashCode());
+            String etag = "\"" + tag + "\"";
+            String gzipEtag = "\"" + tag + "-gz\"";
+            boolean acceptsGzip = acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            //a gzip tag is only given out for bodies large enough to encode, so it holds while the client takes gzip
+            String matchedEtag = acceptsGzip && gzipEtag.equals(ifNoneMatch) ? gzipEtag : !acceptsGzip && etag.equals(ifNoneMatch) ? etag : null;
+            if (matchedEtag != null) {
+                exchange.getResponseHeaders().set("ETag", matchedEtag);
+                exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            String cacheKey = etag + target;
+            Response response;
+            synchronized (cache) {
+                response = cache.get(cacheKey);
+            }
+            if (response == null) {
+                byte[] body = query(exchange.getRequestURI().getPath(), parseQuery(exchange.getRequestURI().getRawQuery()))
+                    .getBytes(StandardCharsets.UTF_8);
+                response = new Response(body);
+                synchronized (cache) {
+                    cache.put(cacheKey, response);
+                }
+            }
+
+            boolean gzip = acceptsGzip && response.body.length >= MIN_GZIP_SIZE;
+            byte[] body = gzip ? response.getGzippedBody() : response.body;
+            if (!gzip && etag.equals(ifNoneMatch)) {
+                //the identity body the client holds is the one it would be sent
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("ETag", gzip ? gzipEtag : etag);
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            //any other failure is still answered, rather than dropping the connection
+            System.out.println("Something Went Wrong?!");
+            e.printStackTrace();
+            sendError(exchange, 500, "Internal error: " + e.getClass().getSimpleName());
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Runs the query of an endpoint and returns the JSON text of the answer
+     */
+    private String query(String path, Map<String, String> parameters) {
+        switch (path) {
+            case "/api/borough":
+                return boroughRecords(required(parameters, "name"), parameters);
+            case "/api/range":
+                return writeRecords(dataManipulator.getRecordsBetween(date(parameters, "from"), date(parameters, "to")), null);
+            case "/api/newest":
+                return newestValues(parameters.getOrDefault("metric", CovidMetric.TOTAL_DEATHS.name()));
+            case "/api/aggregate":
+                return aggregate(parameters);
+            case "/api/correlation":
+                return correlation(parameters);
+            case "/api/quantiles":
+                return quantiles(parameters);
+            case "/api/boroughs":
+                return boroughValues(parameters.getOrDefault("metric", CovidMetric.TOTAL_CASES.name()));
+            default:
+                throw new IllegalArgumentException("Unknown endpoint " + path);
+        }
+    }
+
+    /**
+     * Returns the records of a borough, within a date range if one is given
+     */
+    private String boroughRecords(String borough, Map<String, String> parameters) {
+        if (parameters.containsKey("from") || parameters.containsKey("to")) {
+            return writeRecords(dataManipulator.getRecordsBetween(date(parameters, "from"), date(parameters, "to")), borough);
+        }
+        return writeRecords(dataManipulator.getRecords(), borough);
+    }
+
+    /**
+     * Returns the newest value (or total, for daily metrics) of a metric for every borough
+     */
+    private String newestValues(String metricName) {
+        CovidMetric metric = metric(metricName);
+        Map<String, Double> values = new TreeMap<>(ChoroplethEngine.computeValues(dataManipulator.getRecords(), metric, null));
+        JsonWriter json = new JsonWriter().beginObject().member("metric", metric.name()).name("boroughs").beginObject();
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            json.member(entry.getKey(), entry.getValue());
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * Returns the newest value (or total) of a metric for every borough, joined to the
+     * borough dimension for the attributes and, for counts of cases or deaths, the
+     * value per 100,000 residents. Mobility metrics are percentages, so they have none.
+     */
+    private String boroughValues(String metricName) {
+        CovidMetric metric = metric(metricName);
+        Map<BoroughDimension.Borough, Double> values = BoroughDimension.getDefault()
+            .join(ChoroplethEngine.computeValues(dataManipulator.getRecords(), metric, null));
+        boolean count = metric.getAggregation() != CovidMetric.Aggregation.MEAN;
+        JsonWriter json = new JsonWriter().beginObject().member("metric", metric.name()).name("boroughs").beginArray();
+        for (Map.Entry<BoroughDimension.Borough, Double> entry : values.entrySet()) {
+            BoroughDimension.Borough borough = entry.getKey();
+            json.beginObject()
+                .member("name", borough.getName())
+                .member("code", borough.getCode())
+                .member("population", borough.getPopulation())
+                .member("area", borough.getArea())
+                .member("value", entry.getValue());
+            if (count) {
+                json.member("per100k", entry.getValue() * 100000 / borough.getPopulation());
+            }
+            json.endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    /**
+     * Returns one statistic over a date range, for one borough or for all of them
+     */
+    private String aggregate(Map<String, String> parameters) {
+        LocalDate from = date(parameters, "from");
+        LocalDate to = date(parameters, "to");
+        String statisticName = required(parameters, "statistic");
+        Statistic statistic = registry.resolve(statisticName);
+        if (statistic == null) {
+            throw new IllegalArgumentException("Unknown statistic " + statisticName);
+        }
+        String borough = parameters.get("borough");
+        double value = dataManipulator.computeStatistic(from, to, borough, statistic);
+        return new JsonWriter().beginObject()
+            .member("from", from.toString())
+            .member("to", to.toString())
+            .member("borough", borough)
+            .member("statistic", statistic.getLabel())
+            .member("value", value)
+            .endObject().toString();
+    }
+
+    /**
+     * Returns the correlation of every mobility column with new cases at every lag
+     * for one borough, or London, with the lag of the strongest correlation
+     */
+    private String correlation(Map<String, String> parameters) {
+        String series = parameters.getOrDefault("series", CrossCorrelationEngine.LONDON);
+        int maxLag = Integer.parseInt(parameters.getOrDefault("maxLag", String.valueOf(CrossCorrelationEngine.DEFAULT_MAX_LAG)));
+        if (maxLag < 0 || maxLag > CrossCorrelationEngine.DEFAULT_MAX_LAG) {
+            throw new IllegalArgumentException("maxLag must be from 0 to " + CrossCorrelationEngine.DEFAULT_MAX_LAG);
+        }
+        CrossCorrelationEngine.Result result;
+        if (parameters.containsKey("from") || parameters.containsKey("to")) {
+            result = CrossCorrelationEngine.compute(dataManipulator.getRecordsBetween(date(parameters, "from"), date(parameters, "to")), maxLag);
+        }
+        else if (maxLag != CrossCorrelationEngine.DEFAULT_MAX_LAG) {
+            //computed on the side, so the result cached for the correlation page is kept
+            result = CrossCorrelationEngine.compute(dataManipulator.getRecords(), maxLag);
+        }
+        else {
+            result = dataManipulator.getCrossCorrelations(maxLag, false);
+        }
+        if (!result.getSeriesNames().contains(series)) {
+            throw new IllegalArgumentException("Unknown series " + series);
+        }
+        JsonWriter json = new JsonWriter().beginObject().member("series", series).name("metrics").beginObject();
+        for (CovidMetric metric : CrossCorrelationEngine.MOBILITY_METRICS) {
+            json.name(metric.name()).beginObject()
+                .member("strongestLag", result.getStrongestLag(series, metric))
+                .name("correlations").beginArray();
+            for (int lag = 0; lag <= maxLag; lag++) {
+                json.value(result.getCorrelation(series, metric, lag));
+            }
+            json.endArray().endObject();
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * Returns quantiles of the daily values of a metric for one borough, or London,
+     * over a date range or all the days
+     */
+    private String quantiles(Map<String, String> parameters) {
+        CovidMetric metric = metric(parameters.getOrDefault("metric", CovidMetric.NEW_CASES.name()));
+        if (!DistributionIndex.METRICS.contains(metric)) {
+            throw new IllegalArgumentException("No distribution is kept for " + metric);
+        }
+        String borough = parameters.getOrDefault("borough", DistributionIndex.LONDON);
+        long fromDay = parameters.containsKey("from") ? date(parameters, "from").toEpochDay() : Long.MIN_VALUE;
+        long toDay = parameters.containsKey("to") ? date(parameters, "to").toEpochDay() : Long.MAX_VALUE;
+        String[] fractionTexts = parameters.getOrDefault("q", "0.5,0.9,0.99").split(",");
+        double[] fractions = new double[fractionTexts.length];
+        for (int i = 0; i < fractions.length; i++) {
+            fractions[i] = Double.parseDouble(fractionTexts[i].trim());
+        }
+        double[] quantiles = dataManipulator.getQuantiles(borough, metric, fractions, fromDay, toDay);
+        JsonWriter json = new JsonWriter().beginObject()
+            .member("metric", metric.name())
+            .member("borough", borough)
+            .name("quantiles").beginObject();
+        for (int i = 0; i < fractions.length; i++) {
+            json.member(fractionTexts[i].trim(), quantiles[i]);
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * Writes the records, keeping only those of one borough unless it is null
+     */
+    private static String writeRecords(List<CovidData> records, String borough) {
+        JsonWriter json = new JsonWriter().beginArray();
+        int boroughId = BoroughDimension.getDefault().findId(borough);
+        if (borough != null && boroughId < 0) {
+            return json.endArray().toString();
+        }
+        for (CovidData record : records) {
+            if (borough == null || record.getBoroughId() == boroughId) {
+                json.record(record);
+            }
+        }
+        return json.endArray().toString();
+    }
+
+    /**
+     * Returns true if an Accept-Encoding header allows gzip: listed, or covered by *,
+     * with a quality above 0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzipQuality = -1;
+        double anyQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    }
+                    catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzipQuality = quality;
+            }
+            else if (name.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static LocalDate date(Map<String, String> parameters, String name) {
+        return LocalDate.parse(required(parameters, name));
+    }
+
+    private static CovidMetric metric(String name) {
+        try {
+            return CovidMetric.valueOf(name);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown metric " + name);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = new JsonWriter().beginObject().member("error", message).endObject().toString()
+            .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * An encoded response body, with its gzip form created the first time it is asked for
+     */
+    private static class Response
+    {
+        private final byte[] body;
+        private volatile byte[] gzippedBody;
+
+        private Response(byte[] body) {
+            this.body = body;
+        }
+
+        private byte[] getGzippedBody() throws IOException {
+            if (gzippedBody == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(body);
+                }
+                gzippedBody = bytes.toByteArray();
+            }
+            return gzippedBody;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * RankingEngine ranks the boroughs by a metric: the top or bottom K boroughs by the
+ * metric summarised over a range, and the leading K boroughs of each day.
+ *
+ * Every ranking is made in a single pass over the records. The boroughs are picked
+ * with a heap holding only the K best so far, so only the K picked are ever sorted,
+ * and the daily leaders hold at most K boroughs per day.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RankingEngine
+{
+    public static final int DEFAULT_K = 5;
+
+    /**
+     * Ranks the boroughs by a metric summarised over the records, the way the
+     * metric is summarised on the map.
+     *
+     * @param records The records to rank, usually those in the selected range.
+     * @param metric  The metric to rank by.
+     * @param k       The number of boroughs to return.
+     * @param highest True for the boroughs with the highest values, false for the lowest.
+     * @return        Up to k boroughs, best first.
+     */
+    public static List<Ranked> rankBoroughs(List<CovidData> records, CovidMetric metric, int k, boolean highest) {
+        long start = System.nanoTime();
+        ArrayList<Ranked> candidates = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : ChoroplethEngine.computeValues(records, metric, null).entrySet()) {
+            candidates.add(new Ranked(entry.getKey(), entry.getValue(), 0));
+        }
+        List<Ranked> top = selectTop(candidates, k, order(highest));
+        MetricsRegistry.getInstance().timer("ranking.boroughs").recordSince(start);
+        return top;
+    }
+
+    /**
+     * Finds the leading boroughs of every day by the daily value of a metric.
+     *
+     * @param records The records to rank, usually those in the selected range.
+     * @param metric  The metric to rank by.
+     * @param k       The number of boroughs to keep per day.
+     * @param highest True for the boroughs with the highest values, false for the lowest.
+     * @return        Up to k boroughs per epoch day, best first, in date order.
+     */
+    public static TreeMap<Long, List<Ranked>> rankDays(List<CovidData> records, CovidMetric metric, int k, boolean highest) {
+        long start = System.nanoTime();
+        Comparator<Ranked> order = order(highest);
+        HashMap<Long, PriorityQueue<Ranked>> heaps = new HashMap<>();
+        for (CovidData record : records) {
+            int value = metric.getValue(record);
+            if (value == CovidMetric.MISSING || k <= 0) {
+                continue;
+            }
+            Ranked ranked = new Ranked(record.getBorough(), value, record.getEpochDay());
+            PriorityQueue<Ranked> heap = heaps.computeIfAbsent(ranked.epochDay, day -> new PriorityQueue<>(k + 1, order));
+            offer(heap, ranked, k, order);
+        }
+
+        TreeMap<Long, List<Ranked>> leaders = new TreeMap<>();
+        for (Map.Entry<Long, PriorityQueue<Ranked>> entry : heaps.entrySet()) {
+            leaders.put(entry.getKey(), sortedBestFirst(entry.getValue(), order));
+        }
+        MetricsRegistry.getInstance().timer("ranking.days").recordSince(start);
+        return leaders;
+    }
+
+    /**
+     * Picks the k greatest items in an order with a heap of at most k items.
+     *
+     * @return The k greatest items, greatest first.
+     */
+    public static <T> List<T> selectTop(Iterable<T> items, int k, Comparator<? super T> order) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        //the least of the items kept is at the head, ready to be replaced
+        PriorityQueue<T> heap = new PriorityQueue<>(k + 1, order);
+        for (T item : items) {
+            offer(heap, item, k, order);
+        }
+        return sortedBestFirst(heap, order);
+    }
+
+    private static <T> void offer(PriorityQueue<T> heap, T item, int k, Comparator<? super T> order) {
+        if (heap.size() < k) {
+            heap.add(item);
+        }
+        else if (order.compare(item, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(item);
+        }
+    }
+
+    private static <T> List<T> sortedBestFirst(PriorityQueue<T> heap, Comparator<? super T> order) {
+        ArrayList<T> sorted = new ArrayList<>(heap);
+        sorted.sort(order);
+        Collections.reverse(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the order in which greater is better: by value, then by borough name
+     * so that ties are broken alphabetically
+     */
+    private static Comparator<Ranked> order(boolean highest) {
+        Comparator<Ranked> byValue = Comparator.comparingDouble(Ranked::getValue);
+        if (!highest) {
+            byValue = byValue.reversed();
+        }
+        return byValue.thenComparing(Ranked::getBorough, Comparator.reverseOrder());
+    }
+
+    /**
+     * A borough and the value it was ranked by
+     */
+    public static class Ranked
+    {
+        private final String borough;
+        private final double value;
+        private final long epochDay;
+
+        private Ranked(String borough, double value, long epochDay) {
+            this.borough = borough;
+            this.value = value;
+            this.epochDay = epochDay;
+        }
+
+        public String getBorough() {
+            return borough;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the day of a daily ranking, or 0 for a ranking over a range
+         */
+        public long getEpochDay() {
+            return epochDay;
+        }
+
+        @Override
+        public String toString() {
+            return borough + " (" + JsonWriter.formatNumber(value) + ")";
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import javafx.fxml.FXML;
+import javafx.collections.FXCollections;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Controller for the ranking page, which lists the top or bottom K boroughs by a
+ * metric over the selected range, and the leading boroughs of each day in it.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RankingPanelController
+{
+    private static final String HIGHEST = "Highest";
+    private static final String LOWEST = "Lowest";
+
+    @FXML
+    private BorderPane rootPane;
+
+    @FXML
+    private ComboBox<String> directionComboBox;
+
+    @FXML
+    private Spinner<Integer> kSpinner;
+
+    @FXML
+    private ComboBox<CovidMetric> metricComboBox;
+
+    @FXML
+    private TableView<RankingEngine.Ranked> rankingTable;
+
+    @FXML
+    private TableColumn<RankingEngine.Ranked, Number> rankColumn;
+
+    @FXML
+    private TableColumn<RankingEngine.Ranked, String> boroughColumn;
+
+    @FXML
+    private TableColumn<RankingEngine.Ranked, String> valueColumn;
+
+    @FXML
+    private TableView<Map.Entry<Long, List<RankingEngine.Ranked>>> dailyTable;
+
+    @FXML
+    private TableColumn<Map.Entry<Long, List<RankingEngine.Ranked>>, String> dayColumn;
+
+    @FXML
+    private TableColumn<Map.Entry<Long, List<RankingEngine.Ranked>>, String> leadersColumn;
+
+    private DataManipulator dataManipulator;
+
+    // Reranks when records are added to the data set
+    private final ChangeListener<Number> revisionListener = (observable, oldValue, newValue) -> updateRankings();
+
+    /**
+     * This method is called as soon as the FXML files are loaded.
+     */
+    @FXML
+    private void initialize() {
+        dataManipulator = DataManipulator.getInstance();
+
+        directionComboBox.setItems(FXCollections.observableArrayList(HIGHEST, LOWEST));
+        directionComboBox.setValue(HIGHEST);
+        metricComboBox.setItems(FXCollections.observableArrayList(CovidMetric.values()));
+        metricComboBox.setValue(CovidMetric.NEW_CASES);
+        kSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 33, RankingEngine.DEFAULT_K));
+        kSpinner.valueProperty().addListener((observable, oldValue, newValue) -> updateRankings());
+
+        rankColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(rankingTable.getItems().indexOf(cellData.getValue()) + 1));
+        boroughColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getBorough()));
+        valueColumn.setCellValueFactory(cellData -> new SimpleStringProperty(JsonWriter.formatNumber(cellData.getValue().getValue())));
+        dayColumn.setCellValueFactory(cellData -> new SimpleStringProperty(LocalDate.ofEpochDay(cellData.getValue().getKey()).toString()));
+        leadersColumn.setCellValueFactory(cellData -> new SimpleStringProperty(joinLeaders(cellData.getValue().getValue())));
+
+        dataManipulator.getRevisionProperty().addListener(revisionListener);
+        rootPane.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (newScene == null) {
+                dataManipulator.getRevisionProperty().removeListener(revisionListener);
+            }
+        });
+        updateRankings();
+    }
+
+    /**
+     * Handles the selection of a metric or a direction from the combo boxes.
+     */
+    @FXML
+    private void handleSelection() {
+        updateRankings();
+    }
+
+    /**
+     * Ranks the boroughs of the selected range, or of all the records if no range is selected
+     */
+    private void updateRankings() {
+        long start = System.nanoTime();
+        CovidMetric metric = metricComboBox.getValue();
+        Integer k = kSpinner.getValue();
+        if (metric == null || k == null) {
+            return;
+        }
+        boolean highest = !LOWEST.equals(directionComboBox.getValue());
+        boolean selectedRange = dataManipulator.getRecordsInRange() != null;
+
+        rankingTable.getItems().setAll(dataManipulator.getBoroughRanking(metric, k, highest, selectedRange));
+        TreeMap<Long, List<RankingEngine.Ranked>> leaders = dataManipulator.getDailyLeaders(metric, k, highest, selectedRange);
+        dailyTable.getItems().setAll(new ArrayList<>(leaders.entrySet()));
+        MetricsRegistry.getInstance().timer("handler.updateRankings").recordSince(start);
+    }
+
+    private static String joinLeaders(List<RankingEngine.Ranked> leaders) {
+        StringBuilder text = new StringBuilder();
+        for (RankingEngine.Ranked ranked : leaders) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(ranked);
+        }
+        return text.toString();
+    }
+}
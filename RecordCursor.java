@@ -0,0 +1,331 @@
+import com.opencsv.CSVParser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * RecordCursor reads the rows of a csv file laid out like the Covid London data set
+ * one at a time, holding only the current row, so a file of any size is processed in
+ * constant memory.
+ *
+ * The query is pushed down into the parsing. The date and borough of each row are
+ * compared where they lie in the line, and rows that fail are skipped without
+ * creating any objects. Only the metrics asked for are parsed for the rows that
+ * remain. Lines holding quotes are parsed in full as a fallback.
+ *
+ * Move through the rows with next() and read them with the getters, or use stream()
+ * for a Stream of records. Close the cursor, or the stream, when done.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RecordCursor implements AutoCloseable
+{
+    //csv column of each metric, in CovidMetric order
+    private static final int[] CSV_COLUMNS = {8, 9, 10, 11, 2, 3, 4, 5, 6, 7};
+    private static final int FIELDS = 12;
+
+    private final BufferedReader reader;
+    private final String fromText;
+    private final String toText;
+    //null for every borough
+    private final String[] boroughs;
+    //ids of the boroughs asked for in the default BoroughDimension
+    private final int[] boroughIds;
+    private final BoroughDimension dimension = BoroughDimension.getDefault();
+    private final CovidMetric[] metrics;
+    private final boolean[] projected = new boolean[CovidMetric.values().length];
+
+    //the current line, where each of its fields starts, and its decoded values
+    private String line;
+    private final int[] fieldStarts = new int[FIELDS + 1];
+    private String[] quotedFields;
+    private final int[] values = new int[CovidMetric.values().length];
+    private String date;
+    private String borough;
+    //-1 until the id of the current row's borough is known
+    private int boroughId;
+
+    private final CSVParser parser = new CSVParser();
+    private long scanned = 0;
+    private long matched = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens a cursor over a csv file, positioned before the first row
+     */
+    public RecordCursor(File file, RecordQuery query) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        //skip the first row (column headers)
+        reader.readLine();
+        fromText = query.getFrom() == null ? null : query.getFrom().toString();
+        toText = query.getTo() == null ? null : query.getTo().toString();
+        List<String> boroughList = query.getBoroughs();
+        boroughs = boroughList == null ? null : boroughList.toArray(new String[0]);
+        boroughIds = boroughs == null ? null : new int[boroughs.length];
+        for (int i = 0; boroughs != null && i < boroughs.length; i++) {
+            boroughIds[i] = dimension.getId(boroughs[i]);
+        }
+        metrics = query.getMetrics().toArray(new CovidMetric[0]);
+        for (CovidMetric metric : metrics) {
+            projected[metric.ordinal()] = true;
+        }
+        Arrays.fill(values, CovidMetric.MISSING);
+    }
+
+    /**
+     * Moves to the next row matching the query, returning false at the end of the file
+     */
+    public boolean next() throws IOException {
+        while ((line = reader.readLine()) != null) {
+            scanned++;
+            date = null;
+            borough = null;
+            boroughId = -1;
+            quotedFields = null;
+            if (line.isEmpty()) {
+                continue;
+            }
+            boolean found = line.indexOf('"') >= 0 ? matchQuoted() : matchPlain();
+            if (found) {
+                matched++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the date of the current row, as written in the file
+     */
+    public String getDate() {
+        if (date == null) {
+            date = quotedFields != null ? quotedFields[0] : line.substring(fieldStarts[0], fieldStarts[1] - 1);
+        }
+        return date;
+    }
+
+    public long getEpochDay() {
+        return LocalDate.parse(getDate()).toEpochDay();
+    }
+
+    public String getBorough() {
+        if (borough == null) {
+            borough = quotedFields != null ? quotedFields[1] : line.substring(fieldStarts[1], fieldStarts[2] - 1);
+        }
+        return borough;
+    }
+
+    /**
+     * Returns the id of the current row's borough in the default BoroughDimension
+     */
+    public int getBoroughId() {
+        if (boroughId < 0) {
+            boroughId = dimension.getId(getBorough());
+        }
+        return boroughId;
+    }
+
+    /**
+     * Returns the value of a metric of the current row, or -1 if it is missing
+     *
+     * @throws IllegalStateException if the metric was not asked for in the query
+     */
+    public int getValue(CovidMetric metric) {
+        if (!projected[metric.ordinal()]) {
+            throw new IllegalStateException(metric + " was not asked for in the query");
+        }
+        return values[metric.ordinal()];
+    }
+
+    /**
+     * Creates a record of the current row; metrics not asked for are missing
+     */
+    public CovidData toRecord() {
+        return new CovidData(getDate(), getBorough(), getBoroughId(),
+            values[CovidMetric.RETAIL_RECREATION_GMR.ordinal()], values[CovidMetric.GROCERY_PHARMACY_GMR.ordinal()],
+            values[CovidMetric.PARKS_GMR.ordinal()], values[CovidMetric.TRANSIT_GMR.ordinal()],
+            values[CovidMetric.WORKPLACES_GMR.ordinal()], values[CovidMetric.RESIDENTIAL_GMR.ordinal()],
+            values[CovidMetric.NEW_CASES.ordinal()], values[CovidMetric.TOTAL_CASES.ordinal()],
+            values[CovidMetric.NEW_DEATHS.ordinal()], values[CovidMetric.TOTAL_DEATHS.ordinal()]);
+    }
+
+    /**
+     * Returns the remaining matching rows as a sequential stream of records.
+     * Closing the stream closes the cursor.
+     */
+    public Stream<CovidData> stream() {
+        Spliterator<CovidData> rows = new Spliterators.AbstractSpliterator<CovidData>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super CovidData> action) {
+                try {
+                    if (!next()) {
+                        return false;
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                action.accept(toRecord());
+                return true;
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(this::close);
+    }
+
+    /**
+     * Returns the number of rows read so far, matching or not
+     */
+    public long getScannedRows() {
+        return scanned;
+    }
+
+    public long getMatchedRows() {
+        return matched;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        metricsRegistry.counter("cursor.scannedRows").add(scanned);
+        metricsRegistry.counter("cursor.matchedRows").add(matched);
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Tests and decodes a line without quotes in place
+     */
+    private boolean matchPlain() {
+        int field = 0;
+        fieldStarts[0] = 0;
+        for (int i = 0; i < line.length() && field < FIELDS; i++) {
+            if (line.charAt(i) == ',') {
+                fieldStarts[++field] = i + 1;
+            }
+        }
+        if (field < FIELDS - 1) {
+            System.out.println("Skipping malformed row: " + line);
+            return false;
+        }
+        if (field == FIELDS - 1) {
+            fieldStarts[FIELDS] = line.length() + 1;
+        }
+
+        int dateEnd = fieldStarts[1] - 1;
+        if (fromText != null && compareRegion(fieldStarts[0], dateEnd, fromText) < 0) {
+            return false;
+        }
+        if (toText != null && compareRegion(fieldStarts[0], dateEnd, toText) > 0) {
+            return false;
+        }
+        if (boroughs != null) {
+            int start = fieldStarts[1];
+            int length = fieldStarts[2] - 1 - start;
+            for (int i = 0; i < boroughs.length && boroughId < 0; i++) {
+                if (boroughs[i].length() == length && line.regionMatches(start, boroughs[i], 0, length)) {
+                    boroughId = boroughIds[i];
+                }
+            }
+            if (boroughId < 0) {
+                return false;
+            }
+        }
+
+        try {
+            for (CovidMetric metric : metrics) {
+                int column = CSV_COLUMNS[metric.ordinal()];
+                values[metric.ordinal()] = parseInt(fieldStarts[column], fieldStarts[column + 1] - 1);
+            }
+        }
+        catch (NumberFormatException e) {
+            System.out.println("Skipping malformed row: " + line);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tests and decodes a line with quotes, parsing it in full
+     */
+    private boolean matchQuoted() throws IOException {
+        String[] fields = parser.parseLine(line);
+        if (fields.length < FIELDS) {
+            System.out.println("Skipping malformed row: " + line);
+            return false;
+        }
+        if ((fromText != null && fields[0].compareTo(fromText) < 0) || (toText != null && fields[0].compareTo(toText) > 0)) {
+            return false;
+        }
+        if (boroughs != null) {
+            int index = List.of(boroughs).indexOf(fields[1]);
+            if (index < 0) {
+                return false;
+            }
+            boroughId = boroughIds[index];
+        }
+        try {
+            for (CovidMetric metric : metrics) {
+                String text = fields[CSV_COLUMNS[metric.ordinal()]].trim();
+                values[metric.ordinal()] = text.isEmpty() ? CovidMetric.MISSING : Integer.parseInt(text);
+            }
+        }
+        catch (NumberFormatException e) {
+            System.out.println("Skipping malformed row: " + line);
+            return false;
+        }
+        quotedFields = fields;
+        return true;
+    }
+
+    /**
+     * Compares a region of the line with a text, the way String.compareTo would
+     */
+    private int compareRegion(int start, int end, String text) {
+        int length = Math.min(end - start, text.length());
+        for (int i = 0; i < length; i++) {
+            int difference = line.charAt(start + i) - text.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (end - start) - text.length();
+    }
+
+    /**
+     * Parses the integer in a region of the line, returning -1 for an empty region
+     */
+    private int parseInt(int start, int end) {
+        while (start < end && line.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return CovidMetric.MISSING;
+        }
+        return Integer.parseInt(line, start, end, 10);
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RecordDiff is the change set between the loaded records and a new revision of
+ * the data set, in which publishers may have revised any past day. Rows are
+ * matched on their date and borough, and a 64-bit hash of each row's values tells
+ * whether a matched row changed.
+ *
+ * The new revision is streamed from its file and compared row by row against the
+ * hashes of the loaded records, so only the loaded records and the changes are
+ * held in memory. DataManipulator.applyDiff then applies just the changes.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RecordDiff
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    //the records the diff was computed against, and their number at the time
+    private final List<CovidData> base;
+    private final int baseSize;
+
+    private final ArrayList<CovidData> inserted = new ArrayList<>();
+    //new values of changed rows, keyed by their position in the base records
+    private final TreeMap<Integer, CovidData> changed = new TreeMap<>();
+    //positions in the base records of the rows missing from the new revision
+    private final BitSet deleted = new BitSet();
+    private long unchanged = 0;
+
+    private RecordDiff(List<CovidData> base) {
+        this.base = base;
+        this.baseSize = base.size();
+    }
+
+    /**
+     * Compares the records against a new revision of the data set read from a file.
+     *
+     * @param base   The loaded records.
+     * @param loader The loader used to stream the new revision.
+     * @param file   The csv file of the new revision.
+     * @return       The rows inserted, changed and deleted by the new revision.
+     */
+    public static RecordDiff compute(List<CovidData> base, CovidDataLoader loader, File file) {
+        RecordDiff diff = new RecordDiff(base);
+        int size = diff.baseSize;
+        HashMap<String, Integer> rowsByKey = new HashMap<>(size * 4 / 3 + 1);
+        long[] hashes = new long[size];
+        for (int row = 0; row < size; row++) {
+            CovidData record = base.get(row);
+            rowsByKey.put(key(record), row);
+            hashes[row] = hash(record);
+        }
+
+        BitSet seen = new BitSet(size);
+        loader.load(file, record -> {
+            Integer row = rowsByKey.get(key(record));
+            if (row == null || seen.get(row)) {
+                diff.inserted.add(record);
+            }
+            else {
+                seen.set(row);
+                if (hashes[row] != hash(record)) {
+                    diff.changed.put(row, record);
+                }
+                else {
+                    diff.unchanged++;
+                }
+            }
+        });
+        diff.deleted.set(0, size);
+        diff.deleted.andNot(seen);
+        return diff;
+    }
+
+    /**
+     * Returns the records the diff was computed against
+     */
+    public List<CovidData> getBase() {
+        return base;
+    }
+
+    /**
+     * Returns the number of records the diff was computed against
+     */
+    public int getBaseSize() {
+        return baseSize;
+    }
+
+    /**
+     * Returns the rows of the new revision matching no loaded row
+     */
+    public List<CovidData> getInserted() {
+        return Collections.unmodifiableList(inserted);
+    }
+
+    /**
+     * Returns the new values of the changed rows, keyed by their position in the base records
+     */
+    public Map<Integer, CovidData> getChanged() {
+        return Collections.unmodifiableMap(changed);
+    }
+
+    /**
+     * Returns whether the row at a position of the base records is missing from the new revision
+     */
+    public boolean isDeleted(int row) {
+        return deleted.get(row);
+    }
+
+    public int getInsertedCount() {
+        return inserted.size();
+    }
+
+    public int getChangedCount() {
+        return changed.size();
+    }
+
+    public int getDeletedCount() {
+        return deleted.cardinality();
+    }
+
+    public long getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Returns true if the new revision holds exactly the loaded rows
+     */
+    public boolean isEmpty() {
+        return inserted.isEmpty() && changed.isEmpty() && deleted.isEmpty();
+    }
+
+    /**
+     * Returns a one line summary of the change set
+     */
+    @Override
+    public String toString() {
+        return getInsertedCount() + " inserted, " + getChangedCount() + " changed, " + getDeletedCount()
+            + " deleted, " + getUnchangedCount() + " unchanged";
+    }
+
+    /**
+     * Returns the key matching a row across revisions: its day and borough
+     */
+    private static String key(CovidData record) {
+        return record.getEpochDay() + "|" + record.getBorough();
+    }
+
+    /**
+     * Returns the FNV-1a hash of the values of a row
+     */
+    static long hash(CovidData record) {
+        long hash = FNV_OFFSET;
+        for (CovidMetric metric : CovidMetric.values()) {
+            hash = (hash ^ metric.getValue(record)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,68 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * RecordQuery describes which rows and columns of a data set a RecordCursor should
+ * decode: the rows of some boroughs within a date range, and only some metrics of
+ * them. By default every row and every metric is wanted.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RecordQuery
+{
+    private LocalDate from;
+    private LocalDate to;
+    //null for every borough
+    private List<String> boroughs;
+    private EnumSet<CovidMetric> metrics = EnumSet.allOf(CovidMetric.class);
+
+    /**
+     * Keeps only the rows between two dates (inclusive); either may be null for no limit
+     */
+    public RecordQuery setDateRange(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Keeps only the rows of the given boroughs, or of every borough if null
+     */
+    public RecordQuery setBoroughs(Collection<String> boroughs) {
+        this.boroughs = boroughs == null ? null : new ArrayList<>(boroughs);
+        return this;
+    }
+
+    /**
+     * Decodes only the given metrics; the others read as missing
+     */
+    public RecordQuery setMetrics(Collection<CovidMetric> metrics) {
+        this.metrics = metrics.isEmpty() ? EnumSet.noneOf(CovidMetric.class) : EnumSet.copyOf(metrics);
+        return this;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the boroughs kept, or null for every borough
+     */
+    public List<String> getBoroughs() {
+        return boroughs == null ? null : Collections.unmodifiableList(boroughs);
+    }
+
+    public Set<CovidMetric> getMetrics() {
+        return Collections.unmodifiableSet(metrics);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * RollingAnalytics smooths the noisy daily counts of every borough. For new cases
+ * and new deaths it computes 7-day and 14-day moving averages, the week-over-week
+ * growth and the doubling time for every day.
+ *
+ * The averages are computed with sliding windows: each day adds the value entering
+ * the window and subtracts the value leaving it, so every series costs one step per
+ * day whatever the window length. All boroughs are computed together in one pass
+ * over the records, and the result is reused for as long as the records do not
+ * change.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RollingAnalytics
+{
+    //the metrics smoothed, in the order of the arrays of a series
+    public static final List<CovidMetric> METRICS = List.of(CovidMetric.NEW_CASES, CovidMetric.NEW_DEATHS);
+
+    public static final int SHORT_WINDOW = 7;
+    public static final int LONG_WINDOW = 14;
+
+    //records of the last computation, with the series of each borough
+    private List<CovidData> computedRecords;
+    private int computedSize;
+    private HashMap<String, Series> seriesByBorough = new HashMap<>();
+
+    /**
+     * Returns the smoothed series of a borough, computing the series of every
+     * borough first if the records have changed since the last call.
+     *
+     * @param records The records to smooth, usually all records so that the start
+     *                of a selected range still has a full window behind it.
+     * @param borough The name of the borough.
+     * @return        The series of the borough, or null if it has no records.
+     */
+    public synchronized Series getSeries(List<CovidData> records, String borough) {
+        if (records != computedRecords || records.size() != computedSize) {
+            long start = System.nanoTime();
+            seriesByBorough = compute(records);
+            computedRecords = records;
+            computedSize = records.size();
+            MetricsRegistry.getInstance().timer("rolling.compute").recordSince(start);
+        }
+        return seriesByBorough.get(borough);
+    }
+
+    /**
+     * Computes the series of every borough found in the records
+     */
+    public static HashMap<String, Series> compute(List<CovidData> records) {
+        DailySeries daily = DailySeries.of(records, METRICS);
+        HashMap<String, Series> result = new HashMap<>();
+        for (String borough : daily.getBoroughs()) {
+            int[][] values = new int[METRICS.size()][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = daily.getValues(borough, METRICS.get(i));
+            }
+            result.put(borough, new Series(daily.getFirstDay(), values));
+        }
+        return result;
+    }
+
+    /**
+     * Averages the present values of a sliding window ending on each day. The
+     * average is NaN on days whose window holds no values.
+     */
+    static double[] slidingAverages(int[] values, int window) {
+        double[] averages = new double[values.length];
+        long sum = 0;
+        int count = 0;
+        for (int day = 0; day < values.length; day++) {
+            if (values[day] != CovidMetric.MISSING) {
+                sum += values[day];
+                count++;
+            }
+            int leaving = day - window;
+            if (leaving >= 0 && values[leaving] != CovidMetric.MISSING) {
+                sum -= values[leaving];
+                count--;
+            }
+            averages[day] = count == 0 ? Double.NaN : (double) sum / count;
+        }
+        return averages;
+    }
+
+    /**
+     * The smoothed daily series of one borough
+     */
+    public static class Series
+    {
+        private final long firstDay;
+        //one row per metric, one entry per day from the first day
+        private final double[][] shortAverages;
+        private final double[][] longAverages;
+
+        private Series(long firstDay, int[][] dailyValues) {
+            this.firstDay = firstDay;
+            shortAverages = new double[dailyValues.length][];
+            longAverages = new double[dailyValues.length][];
+            for (int i = 0; i < dailyValues.length; i++) {
+                shortAverages[i] = slidingAverages(dailyValues[i], SHORT_WINDOW);
+                longAverages[i] = slidingAverages(dailyValues[i], LONG_WINDOW);
+            }
+        }
+
+        /**
+         * Returns the 7-day moving average of a metric ending on a day, or NaN if unknown
+         */
+        public double getShortAverage(CovidMetric metric, long epochDay) {
+            return valueOn(shortAverages, metric, epochDay);
+        }
+
+        /**
+         * Returns the 14-day moving average of a metric ending on a day, or NaN if unknown
+         */
+        public double getLongAverage(CovidMetric metric, long epochDay) {
+            return valueOn(longAverages, metric, epochDay);
+        }
+
+        /**
+         * Returns the growth of the 7-day average of a metric over the week before a
+         * day, as a fraction: 0.5 means half as much again. NaN if unknown.
+         */
+        public double getWeekOverWeekGrowth(CovidMetric metric, long epochDay) {
+            double current = getShortAverage(metric, epochDay);
+            double previous = getShortAverage(metric, epochDay - SHORT_WINDOW);
+            if (Double.isNaN(current) || Double.isNaN(previous) || previous == 0) {
+                return Double.NaN;
+            }
+            return current / previous - 1;
+        }
+
+        /**
+         * Returns the number of days a metric takes to double at the growth of the
+         * week before a day, or NaN if it is not growing
+         */
+        public double getDoublingDays(CovidMetric metric, long epochDay) {
+            double growth = getWeekOverWeekGrowth(metric, epochDay);
+            if (!(growth > 0)) {
+                return Double.NaN;
+            }
+            return SHORT_WINDOW * Math.log(2) / Math.log1p(growth);
+        }
+
+        private double valueOn(double[][] series, CovidMetric metric, long epochDay) {
+            int i = METRICS.indexOf(metric);
+            if (i < 0) {
+                throw new IllegalArgumentException(metric + " is not smoothed");
+            }
+            long day = epochDay - firstDay;
+            if (day < 0 || day >= series[i].length) {
+                return Double.NaN;
+            }
+            return series[i][(int) day];
+        }
+    }
+}
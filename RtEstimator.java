@@ -0,0 +1,336 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * RtEstimator estimates the reproduction number Rt of every borough, and of London
+ * as a whole, from the new cases of each day with the renewal equation: the cases of
+ * a day are Rt times the infection pressure of the cases before it, weighted by the
+ * serial interval. Rt is taken from the cases of a 7-day window ending on each day,
+ * giving a gamma posterior with a weak prior as in the method of Cori et al. Missing
+ * days count as no cases.
+ *
+ * The daily cases, infection pressure and estimates of each borough are kept. When
+ * records arrive, only the days from the earliest one they touch are recomputed,
+ * rather than refitting from the first day, and the boroughs that changed are
+ * recomputed in parallel.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RtEstimator
+{
+    //serial interval of SARS-CoV-2 in days, after Nishiura et al. (2020)
+    public static final double DEFAULT_SERIAL_INTERVAL_MEAN = 4.7;
+    public static final double DEFAULT_SERIAL_INTERVAL_SD = 2.9;
+
+    public static final int WINDOW_DAYS = 7;
+
+    //name of the series of London as a whole
+    public static final String LONDON = "London";
+
+    //gamma prior of Rt: a mean of 5 with a large spread
+    private static final double PRIOR_SHAPE = 1;
+    private static final double PRIOR_SCALE = 5;
+
+    //longest serial interval considered, in days
+    private static final int MAX_SERIAL_INTERVAL = 30;
+
+    //normal quantile of the edges of the 95% credible interval
+    private static final double Z_95 = 1.959964;
+
+    private final double serialIntervalMean;
+    private final double serialIntervalSd;
+    //probability of each serial interval in days, from 0
+    private final double[] serialInterval;
+
+    //records read so far, and their number at the time
+    private List<CovidData> estimatedRecords;
+    private int estimatedSize;
+
+    private final HashMap<String, BoroughSeries> series = new HashMap<>();
+
+    /**
+     * Constructor for RtEstimator
+     *
+     * @param serialIntervalMean The mean of the serial interval, in days.
+     * @param serialIntervalSd   Its standard deviation, in days.
+     */
+    public RtEstimator(double serialIntervalMean, double serialIntervalSd) {
+        if (!(serialIntervalMean > 0) || !(serialIntervalSd > 0)) {
+            throw new IllegalArgumentException("The serial interval must have a positive mean and standard deviation");
+        }
+        this.serialIntervalMean = serialIntervalMean;
+        this.serialIntervalSd = serialIntervalSd;
+        this.serialInterval = discretiseGamma(serialIntervalMean, serialIntervalSd, MAX_SERIAL_INTERVAL);
+    }
+
+    public double getSerialIntervalMean() {
+        return serialIntervalMean;
+    }
+
+    public double getSerialIntervalSd() {
+        return serialIntervalSd;
+    }
+
+    /**
+     * Brings the estimates up to date with the records: only the rows added since the
+     * last call are read if the records grew in place, or all of them if they are
+     * different records
+     */
+    public synchronized void update(List<CovidData> records) {
+        if (records == estimatedRecords && records.size() == estimatedSize) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (records == estimatedRecords && records.size() > estimatedSize) {
+            addAll(records.subList(estimatedSize, records.size()));
+        }
+        else {
+            series.clear();
+            addAll(records);
+        }
+        estimatedRecords = records;
+        estimatedSize = records.size();
+        MetricsRegistry.getInstance().timer("rt.update").recordSince(start);
+    }
+
+    /**
+     * Updates the estimates with rows added to records that were read before, when the
+     * grown records are a new list. Nothing is read if the old records are not the
+     * ones read last; they are then all read by the next update.
+     *
+     * @param oldRecords The records before the rows were added.
+     * @param oldSize    Their number before the rows were added.
+     * @param records    The records with the rows added.
+     * @param newRecords The rows added.
+     */
+    public synchronized void append(List<CovidData> oldRecords, int oldSize, List<CovidData> records, List<CovidData> newRecords) {
+        if (oldRecords != estimatedRecords || oldSize != estimatedSize) {
+            return;
+        }
+        addAll(newRecords);
+        estimatedRecords = records;
+        estimatedSize = records.size();
+    }
+
+    /**
+     * Returns the names of the boroughs estimated, and London
+     */
+    public synchronized List<String> getSeriesNames() {
+        ArrayList<String> names = new ArrayList<>(series.keySet());
+        names.remove(LONDON);
+        names.sort(null);
+        if (series.containsKey(LONDON)) {
+            names.add(LONDON);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the estimate of Rt for a borough, or London, on a day.
+     *
+     * @return The estimate, or null if there is none for that day.
+     */
+    public synchronized Estimate getEstimate(String seriesName, long epochDay) {
+        BoroughSeries boroughSeries = series.get(seriesName);
+        if (boroughSeries == null) {
+            return null;
+        }
+        long day = epochDay - boroughSeries.firstDay;
+        if (day < 0 || day >= boroughSeries.days || Double.isNaN(boroughSeries.shapes[(int) day])) {
+            return null;
+        }
+        return new Estimate(epochDay, boroughSeries.shapes[(int) day], boroughSeries.rates[(int) day]);
+    }
+
+    /**
+     * Records the new cases of the rows, then recomputes the changed days of every
+     * borough that changed, in parallel
+     */
+    private void addAll(List<CovidData> records) {
+        HashSet<BoroughSeries> changed = new HashSet<>();
+        for (CovidData record : records) {
+            int newCases = Math.max(0, record.getNewCases());
+            BoroughSeries boroughSeries = series.computeIfAbsent(record.getBorough(), name -> new BoroughSeries());
+            BoroughSeries london = series.computeIfAbsent(LONDON, name -> new BoroughSeries());
+            long day = record.getEpochDay();
+            double previous = boroughSeries.set(day, newCases);
+            london.set(day, london.get(day) - previous + newCases);
+            changed.add(boroughSeries);
+            changed.add(london);
+        }
+        changed.parallelStream().forEach(boroughSeries -> boroughSeries.recompute(serialInterval));
+    }
+
+    /**
+     * Returns the probability of each whole number of days under a gamma distribution,
+     * each day taking the probability of the day either side of it, up to a maximum
+     */
+    static double[] discretiseGamma(double mean, double sd, int maxDays) {
+        double shape = mean * mean / (sd * sd);
+        double scale = sd * sd / mean;
+        double[] probabilities = new double[maxDays + 1];
+        double total = 0;
+        for (int day = 1; day <= maxDays; day++) {
+            //midpoint rule over the day, with a few steps for the sharp start of the curve
+            double sum = 0;
+            int steps = 8;
+            for (int step = 0; step < steps; step++) {
+                double x = day - 0.5 + (step + 0.5) / steps;
+                sum += Math.exp((shape - 1) * Math.log(x) - x / scale);
+            }
+            probabilities[day] = sum;
+            total += sum;
+        }
+        for (int day = 1; day <= maxDays; day++) {
+            probabilities[day] /= total;
+        }
+        return probabilities;
+    }
+
+    /**
+     * The daily cases and estimates of one borough, or of London
+     */
+    private static class BoroughSeries
+    {
+        private long firstDay;
+        private int days = 0;
+        private double[] cases = new double[0];
+        //infection pressure: the cases before each day weighted by the serial interval
+        private double[] pressures = new double[0];
+        //gamma posterior of Rt for the window ending on each day, NaN if there is none
+        private double[] shapes = new double[0];
+        private double[] rates = new double[0];
+        //first day whose estimates are out of date
+        private int changedFrom = Integer.MAX_VALUE;
+
+        private double get(long epochDay) {
+            long day = epochDay - firstDay;
+            return days == 0 || day < 0 || day >= days ? 0 : cases[(int) day];
+        }
+
+        /**
+         * Sets the cases of a day, growing the arrays to hold it, and returns what they were
+         */
+        private double set(long epochDay, double value) {
+            if (days == 0) {
+                firstDay = epochDay;
+            }
+            if (epochDay < firstDay) {
+                int shift = (int) (firstDay - epochDay);
+                double[] shifted = new double[days + shift];
+                System.arraycopy(cases, 0, shifted, shift, days);
+                cases = shifted;
+                days += shift;
+                firstDay = epochDay;
+                changedFrom = 0;
+            }
+            int day = (int) (epochDay - firstDay);
+            if (day >= cases.length) {
+                cases = Arrays.copyOf(cases, Math.max(day + 1, cases.length * 2));
+            }
+            days = Math.max(days, day + 1);
+            double previous = cases[day];
+            cases[day] = value;
+            changedFrom = Math.min(changedFrom, day);
+            return previous;
+        }
+
+        /**
+         * Recomputes the pressure and estimates from the first changed day onwards
+         */
+        private void recompute(double[] serialInterval) {
+            if (changedFrom >= days) {
+                return;
+            }
+            if (pressures.length < cases.length) {
+                pressures = Arrays.copyOf(pressures, cases.length);
+                shapes = Arrays.copyOf(shapes, cases.length);
+                rates = Arrays.copyOf(rates, cases.length);
+            }
+            for (int day = changedFrom; day < days; day++) {
+                double pressure = 0;
+                for (int lag = 1; lag < serialInterval.length && lag <= day; lag++) {
+                    pressure += serialInterval[lag] * cases[day - lag];
+                }
+                pressures[day] = pressure;
+            }
+
+            //sums over the window ending on the day before the first one recomputed
+            double caseSum = 0;
+            double pressureSum = 0;
+            for (int day = Math.max(0, changedFrom - WINDOW_DAYS); day < changedFrom; day++) {
+                caseSum += cases[day];
+                pressureSum += pressures[day];
+            }
+            for (int day = changedFrom; day < days; day++) {
+                caseSum += cases[day];
+                pressureSum += pressures[day];
+                if (day >= WINDOW_DAYS) {
+                    caseSum -= cases[day - WINDOW_DAYS];
+                    pressureSum -= pressures[day - WINDOW_DAYS];
+                }
+                if (day < WINDOW_DAYS || pressureSum <= 0) {
+                    shapes[day] = Double.NaN;
+                    rates[day] = Double.NaN;
+                }
+                else {
+                    shapes[day] = PRIOR_SHAPE + caseSum;
+                    rates[day] = 1 / PRIOR_SCALE + pressureSum;
+                }
+            }
+            changedFrom = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The estimate of Rt on one day: the mean of its posterior and a 95% credible interval
+     */
+    public static class Estimate
+    {
+        private final long epochDay;
+        private final double mean;
+        private final double lower;
+        private final double upper;
+
+        private Estimate(long epochDay, double shape, double rate) {
+            this.epochDay = epochDay;
+            this.mean = shape / rate;
+            this.lower = gammaQuantile(shape, rate, -Z_95);
+            this.upper = gammaQuantile(shape, rate, Z_95);
+        }
+
+        public long getEpochDay() {
+            return epochDay;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+
+        /**
+         * Approximates a quantile of a gamma distribution with the Wilson-Hilferty
+         * transformation, from the matching quantile z of the normal distribution
+         */
+        private static double gammaQuantile(double shape, double rate, double z) {
+            double cube = 1 - 1 / (9 * shape) + z / (3 * Math.sqrt(shape));
+            return Math.max(0, shape / rate * cube * cube * cube);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f (%.2f to %.2f)", mean, lower, upper);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import javafx.fxml.FXML;
+import javafx.collections.FXCollections;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
+import javafx.scene.layout.BorderPane;
+import javafx.beans.value.ChangeListener;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Controller for the reproduction number page, which charts the estimated Rt of a
+ * borough, or of London, over the selected range with its 95% credible interval.
+ * The serial interval the estimates are based on can be changed on the page.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class RtPanelController
+{
+    @FXML
+    private BorderPane rootPane;
+
+    @FXML
+    private ComboBox<String> seriesComboBox;
+
+    @FXML
+    private Spinner<Double> meanSpinner;
+
+    @FXML
+    private Spinner<Double> sdSpinner;
+
+    @FXML
+    private LineChart<String, Number> rtChart;
+
+    @FXML
+    private Label latestLabel;
+
+    private DataManipulator dataManipulator;
+
+    // Redraws the chart when records are added to the data set
+    private final ChangeListener<Number> revisionListener = (observable, oldValue, newValue) -> updateChart();
+
+    /**
+     * This method is called as soon as the FXML files are loaded.
+     */
+    @FXML
+    private void initialize() {
+        dataManipulator = DataManipulator.getInstance();
+        RtEstimator estimator = dataManipulator.getRtEstimator();
+
+        meanSpinner.setValueFactory(new SpinnerValueFactory.DoubleSpinnerValueFactory(1, 14, estimator.getSerialIntervalMean(), 0.1));
+        sdSpinner.setValueFactory(new SpinnerValueFactory.DoubleSpinnerValueFactory(0.5, 10, estimator.getSerialIntervalSd(), 0.1));
+        meanSpinner.valueProperty().addListener((observable, oldValue, newValue) -> updateChart());
+        sdSpinner.valueProperty().addListener((observable, oldValue, newValue) -> updateChart());
+
+        seriesComboBox.setItems(FXCollections.observableArrayList(estimator.getSeriesNames()));
+        seriesComboBox.setValue(RtEstimator.LONDON);
+
+        dataManipulator.getRevisionProperty().addListener(revisionListener);
+        rootPane.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (newScene == null) {
+                dataManipulator.getRevisionProperty().removeListener(revisionListener);
+            }
+        });
+        updateChart();
+    }
+
+    /**
+     * Handles the selection of a borough from the combo box.
+     */
+    @FXML
+    private void handleSelection() {
+        updateChart();
+    }
+
+    /**
+     * Charts the estimates of the chosen borough for every day of the selected range
+     */
+    private void updateChart() {
+        long start = System.nanoTime();
+        dataManipulator.setSerialInterval(meanSpinner.getValue(), sdSpinner.getValue());
+        RtEstimator estimator = dataManipulator.getRtEstimator();
+        String seriesName = seriesComboBox.getValue();
+        LocalDate fromDate = dataManipulator.getFromDate();
+        LocalDate toDate = dataManipulator.getToDate();
+
+        if (seriesName == null || fromDate == null || toDate == null) {
+            rtChart.getData().clear();
+            latestLabel.setText("Select a date range to see the reproduction number");
+            return;
+        }
+
+        XYChart.Series<String, Number> means = new XYChart.Series<>();
+        means.setName("Rt");
+        XYChart.Series<String, Number> lowers = new XYChart.Series<>();
+        lowers.setName("Lower 95%");
+        XYChart.Series<String, Number> uppers = new XYChart.Series<>();
+        uppers.setName("Upper 95%");
+        RtEstimator.Estimate latest = null;
+        for (LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) {
+            RtEstimator.Estimate estimate = estimator.getEstimate(seriesName, date.toEpochDay());
+            if (estimate != null) {
+                String day = date.toString();
+                means.getData().add(new XYChart.Data<>(day, estimate.getMean()));
+                lowers.getData().add(new XYChart.Data<>(day, estimate.getLower()));
+                uppers.getData().add(new XYChart.Data<>(day, estimate.getUpper()));
+                latest = estimate;
+            }
+        }
+        List<XYChart.Series<String, Number>> seriesList = new ArrayList<>();
+        seriesList.add(means);
+        seriesList.add(lowers);
+        seriesList.add(uppers);
+        rtChart.getData().setAll(seriesList);
+
+        if (latest == null) {
+            latestLabel.setText("Not enough cases to estimate the reproduction number");
+        }
+        else {
+            latestLabel.setText("Rt of " + seriesName + " on " + LocalDate.ofEpochDay(latest.getEpochDay()) + ": " + latest);
+        }
+        MetricsRegistry.getInstance().timer("handler.updateRtChart").recordSince(start);
+    }
+}
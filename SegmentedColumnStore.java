@@ -0,0 +1,318 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * SegmentedColumnStore queries a directory of column files that are memory-mapped
+ * rather than read, so the data set may be larger than the heap or even than the
+ * memory of the machine: the operating system pages columns in as they are used.
+ *
+ * Each file holds one segment of consecutive rows. Its header records the number
+ * of rows and a zone map, the minimum and maximum of every column in the segment:
+ * the day, the borough id and the ten metrics. Queries ask mayMatch before reading
+ * a segment, so a date range or borough that lies outside a segment's zone map
+ * skips the segment without touching its pages. Rows are written in the order of
+ * the csv file, which for the Covid London data is date order, so date ranges
+ * skip well.
+ *
+ * Layout of a segment file, all little-endian ints:
+ *   magic, version, rows, columns, then min and max of each column,
+ *   then each column in turn, rows values long
+ * The directory also holds boroughs.txt, the borough names in id order, which is
+ * written last and so marks the directory as complete.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class SegmentedColumnStore implements ColumnStore
+{
+    public static final int DEFAULT_SEGMENT_ROWS = 1 << 16;
+
+    private static final int MAGIC = 0x434F5644;
+    private static final int VERSION = 1;
+
+    //column positions within a segment; metric columns follow from METRIC_COLUMN
+    private static final int DAY_COLUMN = 0;
+    private static final int BOROUGH_COLUMN = 1;
+    private static final int METRIC_COLUMN = 2;
+    private static final int COLUMNS = METRIC_COLUMN + CovidMetric.values().length;
+
+    //header ints: magic, version, rows, columns and a min and max per column
+    private static final int HEADER_INTS = 4 + 2 * COLUMNS;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private static final String BOROUGH_FILE = "boroughs.txt";
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment[] segments;
+    private final int[] segmentRows;
+    //zone maps of each segment, min and max of each column in turn
+    private final int[][] zoneMaps;
+    private final int rowsPerSegment;
+    private final int size;
+
+    private final String[] boroughNames;
+    private final HashMap<String, Integer> boroughIds = new HashMap<>();
+    //ids of the boroughs in the default BoroughDimension, by the ids of this store
+    private final int[] dimensionIds;
+
+    /**
+     * Maps the segment files of a directory written by a Writer
+     */
+    public SegmentedColumnStore(File directory) throws IOException {
+        List<String> names = Files.readAllLines(new File(directory, BOROUGH_FILE).toPath(), StandardCharsets.UTF_8);
+        boroughNames = names.toArray(new String[0]);
+        dimensionIds = new int[boroughNames.length];
+        for (int i = 0; i < boroughNames.length; i++) {
+            boroughIds.put(boroughNames[i], i);
+            dimensionIds[i] = BoroughDimension.getDefault().getId(boroughNames[i]);
+        }
+
+        int count = 0;
+        while (segmentFile(directory, count).exists()) {
+            count++;
+        }
+        segments = new MemorySegment[count];
+        segmentRows = new int[count];
+        zoneMaps = new int[count][];
+        int total = 0;
+        try {
+            for (int s = 0; s < count; s++) {
+                try (FileChannel channel = FileChannel.open(segmentFile(directory, s).toPath(), StandardOpenOption.READ)) {
+                    segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                }
+                if (segments[s].getAtIndex(INT, 0) != MAGIC || segments[s].getAtIndex(INT, 1) != VERSION
+                    || segments[s].getAtIndex(INT, 3) != COLUMNS) {
+                    throw new IOException("Not a segment file: " + segmentFile(directory, s));
+                }
+                segmentRows[s] = segments[s].getAtIndex(INT, 2);
+                zoneMaps[s] = new int[2 * COLUMNS];
+                for (int i = 0; i < zoneMaps[s].length; i++) {
+                    zoneMaps[s][i] = segments[s].getAtIndex(INT, 4 + i);
+                }
+                total += segmentRows[s];
+            }
+        }
+        catch (IOException e) {
+            arena.close();
+            throw e;
+        }
+        rowsPerSegment = count == 0 ? DEFAULT_SEGMENT_ROWS : segmentRows[0];
+        size = total;
+    }
+
+    /**
+     * Opens the segments of a directory, first writing them from the csv file if the
+     * directory is incomplete or older than the file. Rows are streamed from the csv
+     * file to the segment files, so the heap never holds more than one segment.
+     */
+    public static SegmentedColumnStore openOrBuild(File directory, File csvFile, CovidDataLoader loader) throws IOException {
+        File boroughFile = new File(directory, BOROUGH_FILE);
+        if (!boroughFile.exists() || boroughFile.lastModified() < csvFile.lastModified()) {
+            try (Writer writer = new Writer(directory, DEFAULT_SEGMENT_ROWS)) {
+                loader.load(csvFile, writer::add);
+            }
+        }
+        return new SegmentedColumnStore(directory);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getEpochDay(int row) {
+        return read(DAY_COLUMN, row);
+    }
+
+    @Override
+    public int getBoroughId(int row) {
+        return read(BOROUGH_COLUMN, row);
+    }
+
+    @Override
+    public int getValue(CovidMetric metric, int row) {
+        return read(METRIC_COLUMN + metric.ordinal(), row);
+    }
+
+    @Override
+    public String getBoroughName(int boroughId) {
+        return boroughNames[boroughId];
+    }
+
+    @Override
+    public int getDimensionId(int boroughId) {
+        return dimensionIds[boroughId];
+    }
+
+    @Override
+    public int getBoroughId(String boroughName) {
+        Integer id = boroughIds.get(boroughName);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    @Override
+    public int getSegmentStart(int segment) {
+        return segment * rowsPerSegment;
+    }
+
+    @Override
+    public int getSegmentEnd(int segment) {
+        return segment * rowsPerSegment + segmentRows[segment];
+    }
+
+    @Override
+    public boolean hasZoneMaps() {
+        return true;
+    }
+
+    @Override
+    public boolean mayMatch(int segment, long fromDay, long toDay, int boroughId) {
+        int[] zoneMap = zoneMaps[segment];
+        if (zoneMap[2 * DAY_COLUMN] > toDay || zoneMap[2 * DAY_COLUMN + 1] < fromDay) {
+            return false;
+        }
+        return boroughId < 0
+            || (zoneMap[2 * BOROUGH_COLUMN] <= boroughId && zoneMap[2 * BOROUGH_COLUMN + 1] >= boroughId);
+    }
+
+    @Override
+    public boolean mayHaveValues(int segment, CovidMetric metric) {
+        int column = METRIC_COLUMN + metric.ordinal();
+        int[] zoneMap = zoneMaps[segment];
+        return zoneMap[2 * column] != CovidMetric.MISSING || zoneMap[2 * column + 1] != CovidMetric.MISSING;
+    }
+
+    /**
+     * Unmaps the segment files
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private int read(int column, int row) {
+        int segment = row / rowsPerSegment;
+        int offset = row - segment * rowsPerSegment;
+        return segments[segment].getAtIndex(INT, HEADER_INTS + (long) column * segmentRows[segment] + offset);
+    }
+
+    private static File segmentFile(File directory, int segment) {
+        return new File(directory, String.format("segment-%05d.col", segment));
+    }
+
+    /**
+     * Writer turns a stream of records into the segment files of a directory,
+     * replacing any segments already there. Close it to write the last segment.
+     */
+    public static class Writer implements AutoCloseable
+    {
+        private final File directory;
+        private final int segmentRows;
+        private final int[][] columns;
+        private int rows = 0;
+        private int segment = 0;
+
+        private final HashMap<String, Integer> boroughIds = new HashMap<>();
+        private final ArrayList<String> boroughNames = new ArrayList<>();
+
+        public Writer(File directory, int segmentRows) throws IOException {
+            this.directory = directory;
+            this.segmentRows = segmentRows;
+            this.columns = new int[COLUMNS][segmentRows];
+            Files.createDirectories(directory.toPath());
+            //the borough file is removed first so an interrupted write leaves the directory incomplete
+            Files.deleteIfExists(new File(directory, BOROUGH_FILE).toPath());
+            for (int s = 0; segmentFile(directory, s).exists(); s++) {
+                Files.delete(segmentFile(directory, s).toPath());
+            }
+        }
+
+        /**
+         * Appends a record, writing out the segment when it is full
+         */
+        public void add(CovidData record) {
+            Integer boroughId = boroughIds.get(record.getBorough());
+            if (boroughId == null) {
+                boroughId = boroughNames.size();
+                boroughIds.put(record.getBorough(), boroughId);
+                boroughNames.add(record.getBorough());
+            }
+            columns[DAY_COLUMN][rows] = (int) record.getEpochDay();
+            columns[BOROUGH_COLUMN][rows] = boroughId;
+            for (CovidMetric metric : CovidMetric.values()) {
+                columns[METRIC_COLUMN + metric.ordinal()][rows] = metric.getValue(record);
+            }
+            rows++;
+            if (rows == segmentRows) {
+                try {
+                    flush();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Writes the last segment and the borough names
+         */
+        @Override
+        public void close() throws IOException {
+            if (rows > 0) {
+                flush();
+            }
+            Files.write(new File(directory, BOROUGH_FILE).toPath(), boroughNames, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Writes the buffered rows as the next segment file
+         */
+        private void flush() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + COLUMNS * rows) * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(COLUMNS);
+            for (int[] column : columns) {
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (int row = 0; row < rows; row++) {
+                    min = Math.min(min, column[row]);
+                    max = Math.max(max, column[row]);
+                }
+                buffer.putInt(min).putInt(max);
+            }
+            for (int[] column : columns) {
+                buffer.asIntBuffer().put(column, 0, rows);
+                buffer.position(buffer.position() + rows * Integer.BYTES);
+            }
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(segmentFile(directory, segment).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            segment++;
+            rows = 0;
+        }
+    }
+}
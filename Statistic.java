@@ -0,0 +1,235 @@
+import java.text.DecimalFormat;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Statistic describes one statistic shown on the stats panel. A statistic does not
+ * loop over the records itself; it hands out an accumulator that is fed one record
+ * at a time, so any number of statistics can share a single pass over the data.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public interface Statistic
+{
+    /**
+     * Collects the records of one pass and produces the value of the statistic
+     */
+    interface Accumulator
+    {
+        void add(CovidData record);
+
+        double getValue();
+    }
+
+    /**
+     * Returns the description shown above the value
+     */
+    String getLabel();
+
+    /**
+     * Returns a new, empty accumulator for one pass over the records
+     */
+    Accumulator newAccumulator();
+
+    /**
+     * Returns the metrics the statistic reads, so a pass can skip decoding the others.
+     * Unless a statistic says otherwise it may read any of them.
+     */
+    default Set<CovidMetric> getMetrics() {
+        return EnumSet.allOf(CovidMetric.class);
+    }
+
+    /**
+     * Formats a value of this statistic for display
+     */
+    default String format(double value) {
+        return new DecimalFormat("0.00").format(value);
+    }
+
+    /**
+     * Returns a statistic summing a column over the records
+     */
+    static Statistic sum(String label, ToIntFunction<CovidData> column) {
+        return new Statistic() {
+            public String getLabel() {
+                return label;
+            }
+
+            public Accumulator newAccumulator() {
+                return new Accumulator() {
+                    private long sum;
+
+                    public void add(CovidData record) {
+                        sum += column.applyAsInt(record);
+                    }
+
+                    public double getValue() {
+                        return sum;
+                    }
+                };
+            }
+
+            public String format(double value) {
+                return "" + (long) value;
+            }
+        };
+    }
+
+    /**
+     * Returns a statistic averaging a column over the records
+     */
+    static Statistic average(String label, ToIntFunction<CovidData> column) {
+        return new Statistic() {
+            public String getLabel() {
+                return label;
+            }
+
+            public Accumulator newAccumulator() {
+                return new Accumulator() {
+                    private long sum;
+                    private int count;
+
+                    public void add(CovidData record) {
+                        sum += column.applyAsInt(record);
+                        count++;
+                    }
+
+                    public double getValue() {
+                        return (double) sum / count;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns a statistic summarising a metric the way the metric is meant to be
+     * combined over several days, leaving out missing values. Cumulative metrics
+     * give the newest value of each borough, added up over the boroughs seen.
+     * The label is the name of the metric, for example NEW_CASES.
+     */
+    static Statistic of(CovidMetric metric) {
+        return new Statistic() {
+            public String getLabel() {
+                return metric.name();
+            }
+
+            public Set<CovidMetric> getMetrics() {
+                return EnumSet.of(metric);
+            }
+
+            public Accumulator newAccumulator() {
+                return new Accumulator() {
+                    private long sum;
+                    private int count;
+                    private final HashMap<String, long[]> latestByBorough = new HashMap<>();
+
+                    public void add(CovidData record) {
+                        int value = metric.getValue(record);
+                        if (value == CovidMetric.MISSING) {
+                            return;
+                        }
+                        sum += value;
+                        count++;
+                        if (metric.getAggregation() == CovidMetric.Aggregation.LATEST) {
+                            //newest day and value of the borough
+                            long[] latest = latestByBorough.computeIfAbsent(record.getBorough(), borough -> new long[] {Long.MIN_VALUE, 0});
+                            if (record.getEpochDay() > latest[0]) {
+                                latest[0] = record.getEpochDay();
+                                latest[1] = value;
+                            }
+                        }
+                    }
+
+                    public double getValue() {
+                        if (count == 0) {
+                            return Double.NaN;
+                        }
+                        switch (metric.getAggregation()) {
+                            case SUM:
+                                return sum;
+                            case MEAN:
+                                return (double) sum / count;
+                            default:
+                                long total = 0;
+                                for (long[] latest : latestByBorough.values()) {
+                                    total += latest[1];
+                                }
+                                return total;
+                        }
+                    }
+                };
+            }
+
+            public String format(double value) {
+                if (metric.getAggregation() == CovidMetric.Aggregation.MEAN) {
+                    return new DecimalFormat("0.00").format(value);
+                }
+                return "" + (long) value;
+            }
+        };
+    }
+
+    /**
+     * Returns a statistic of a derived metric: each column it reads is summarised as
+     * by Statistic.of, each borough attribute is the total over the boroughs of the
+     * records, and the expression is evaluated on the summaries. The label is the
+     * name of the derived metric.
+     */
+    static Statistic of(DerivedMetric derivedMetric) {
+        CovidMetric[] metrics = derivedMetric.getMetrics().toArray(new CovidMetric[0]);
+        BoroughDimension.Attribute[] attributes = derivedMetric.getAttributes().toArray(new BoroughDimension.Attribute[0]);
+        Statistic[] columns = new Statistic[metrics.length];
+        for (int i = 0; i < metrics.length; i++) {
+            columns[i] = of(metrics[i]);
+        }
+        return new Statistic() {
+            public String getLabel() {
+                return derivedMetric.getName();
+            }
+
+            public Set<CovidMetric> getMetrics() {
+                return derivedMetric.getMetrics();
+            }
+
+            public Accumulator newAccumulator() {
+                Accumulator[] accumulators = new Accumulator[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    accumulators[i] = columns[i].newAccumulator();
+                }
+                //ids of the boroughs seen, whose attributes are added up
+                BitSet boroughIds = new BitSet();
+                return new Accumulator() {
+                    public void add(CovidData record) {
+                        for (Accumulator accumulator : accumulators) {
+                            accumulator.add(record);
+                        }
+                        if (attributes.length > 0) {
+                            boroughIds.set(record.getBoroughId());
+                        }
+                    }
+
+                    public double getValue() {
+                        double[] summaries = new double[DerivedMetric.SUMMARY_LENGTH];
+                        for (int i = 0; i < metrics.length; i++) {
+                            summaries[DerivedMetric.getSummaryIndex(metrics[i])] = accumulators[i].getValue();
+                        }
+                        BoroughDimension dimension = BoroughDimension.getDefault();
+                        for (BoroughDimension.Attribute attribute : attributes) {
+                            double total = boroughIds.isEmpty() ? Double.NaN : 0;
+                            for (int id = boroughIds.nextSetBit(0); id >= 0; id = boroughIds.nextSetBit(id + 1)) {
+                                total += dimension.get(id).get(attribute);
+                            }
+                            summaries[DerivedMetric.getSummaryIndex(attribute)] = total;
+                        }
+                        return derivedMetric.evaluate(summaries);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * StatisticRegistry holds the statistics shown on the stats panel, in the order
+ * of their pages. New statistics are added by registering them here; they are
+ * computed in the same pass over the records as all the others.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class StatisticRegistry
+{
+    //instance variable to hold the registry used by the application
+    private static StatisticRegistry defaultRegistry;
+
+    private final List<Statistic> statistics = new ArrayList<>();
+
+    /**
+     * Returns the registry used by the application, holding the standard statistics
+     */
+    public static synchronized StatisticRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new StatisticRegistry();
+            defaultRegistry.register(Statistic.average("Parks Mobility Average % Change:", CovidData::getParksGMR));
+            defaultRegistry.register(Statistic.average("Transit Mobility Average % Change:", CovidData::getTransitGMR));
+            defaultRegistry.register(Statistic.sum("Total Number of Total Deaths", CovidData::getTotalDeaths));
+            defaultRegistry.register(Statistic.average("Total Cases Average:", CovidData::getTotalCases));
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Adds a statistic as the last page
+     */
+    public synchronized void register(Statistic statistic) {
+        statistics.add(statistic);
+    }
+
+    /**
+     * Returns the statistic with the given label, or null if none is registered
+     */
+    public synchronized Statistic find(String label) {
+        for (Statistic statistic : statistics) {
+            if (statistic.getLabel().equals(label)) {
+                return statistic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the statistic for a name, which is the name of a CovidMetric, such as
+     * NEW_CASES, the label of a registered statistic or the name of a derived metric.
+     * Returns null if the name matches none of them.
+     */
+    public Statistic resolve(String name) {
+        for (CovidMetric metric : CovidMetric.values()) {
+            if (metric.name().equals(name)) {
+                return Statistic.of(metric);
+            }
+        }
+        Statistic statistic = find(name);
+        if (statistic == null) {
+            DerivedMetric derivedMetric = DerivedMetricRegistry.getDefault().find(name);
+            if (derivedMetric != null) {
+                statistic = Statistic.of(derivedMetric);
+            }
+        }
+        return statistic;
+    }
+
+    /**
+     * Returns a snapshot of the registered statistics
+     */
+    public synchronized List<Statistic> getStatistics() {
+        return Collections.unmodifiableList(new ArrayList<>(statistics));
+    }
+
+    public synchronized int size() {
+        return statistics.size();
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.List;
+
+/**
+ * StatisticsEngine computes all registered statistics over a list of records in one
+ * fused pass, feeding every record to the accumulator of every statistic.
+ *
+ * The pass is only made when a value is first asked for, and is reused for as long
+ * as the same records are shown. Values are formatted one page at a time as they
+ * are displayed.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class StatisticsEngine
+{
+    private final StatisticRegistry registry;
+
+    //records and statistics of the last pass, with its results
+    private List<CovidData> computedRecords;
+    private int computedSize;
+    private List<Statistic> computedStatistics;
+    private Statistic.Accumulator[] accumulators;
+    private String[] formattedResults;
+
+    /**
+     * Constructor for StatisticsEngine
+     */
+    public StatisticsEngine(StatisticRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Feeds every record to a new accumulator of every statistic in a single pass.
+     *
+     * @param records    The records to compute the statistics over.
+     * @param statistics The statistics to compute.
+     * @return           The filled accumulators, in the order of the statistics.
+     */
+    public static Statistic.Accumulator[] accumulate(List<CovidData> records, List<Statistic> statistics) {
+        Statistic.Accumulator[] accumulators = new Statistic.Accumulator[statistics.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = statistics.get(i).newAccumulator();
+        }
+        for (CovidData record : records) {
+            for (Statistic.Accumulator accumulator : accumulators) {
+                accumulator.add(record);
+            }
+        }
+        return accumulators;
+    }
+
+    /**
+     * Returns the number of statistics, which is the number of pages
+     */
+    public int getPageCount() {
+        return registry.size();
+    }
+
+    /**
+     * Returns the label of the statistic on a page
+     */
+    public String getLabel(int page) {
+        return registry.getStatistics().get(page).getLabel();
+    }
+
+    /**
+     * Returns the formatted value of the statistic on a page, computing all the
+     * statistics first if the records have changed since the last pass.
+     */
+    public synchronized String getFormattedResult(int page, List<CovidData> records) {
+        ensureComputed(records);
+        if (formattedResults[page] == null) {
+            Statistic statistic = computedStatistics.get(page);
+            DataLayerEvents.StatisticValue event = new DataLayerEvents.StatisticValue();
+            event.begin();
+            long start = System.nanoTime();
+            formattedResults[page] = statistic.format(accumulators[page].getValue());
+            MetricsRegistry.getInstance().timer("statistic." + statistic.getLabel()).recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.statistic = statistic.getLabel();
+                event.value = formattedResults[page];
+                event.commit();
+            }
+        }
+        return formattedResults[page];
+    }
+
+    /**
+     * Returns the value of the statistic on a page
+     */
+    public synchronized double getResult(int page, List<CovidData> records) {
+        ensureComputed(records);
+        return accumulators[page].getValue();
+    }
+
+    /**
+     * Makes the fused pass unless the last one was over the same records and statistics
+     */
+    private void ensureComputed(List<CovidData> records) {
+        List<Statistic> statistics = registry.getStatistics();
+        if (records == computedRecords && records.size() == computedSize && statistics.equals(computedStatistics)) {
+            return;
+        }
+        DataLayerEvents.StatisticsPass event = new DataLayerEvents.StatisticsPass();
+        event.begin();
+        long start = System.nanoTime();
+        accumulators = accumulate(records, statistics);
+        MetricsRegistry.getInstance().timer("statistics.pass").recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.records = records.size();
+            event.statistics = statistics.size();
+            event.commit();
+        }
+        formattedResults = new String[statistics.size()];
+        computedRecords = records;
+        computedSize = records.size();
+        computedStatistics = statistics;
+    }
+}
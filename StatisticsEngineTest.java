@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+
+/**
+ * The test class StatisticsEngineTest.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class StatisticsEngineTest
+{
+    private ArrayList<CovidData> sampleRecords;
+
+    /**
+     * Default constructor for test class StatisticsEngineTest
+     */
+    public StatisticsEngineTest()
+    {
+    }
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp()
+    {
+        sampleRecords = new ArrayList<>();
+        sampleRecords.add(new CovidData("2022-01-01", "Borough1", 1, 1, 10, -20, 1, 1, 1, 100, 1, 5));
+        sampleRecords.add(new CovidData("2022-01-02", "Borough1", 1, 1, 20, -30, 1, 1, 1, 200, 1, 7));
+        sampleRecords.add(new CovidData("2022-01-03", "Borough2", 1, 1, 60, -40, 1, 1, 1, 600, 1, 9));
+    }
+
+    /**
+     * Tests that the standard statistics give the same values as the stats panel calculations.
+     */
+    @Test
+    public void testDefaultStatistics() {
+        StatisticsEngine engine = new StatisticsEngine(StatisticRegistry.getDefault());
+
+        assertEquals(4, engine.getPageCount());
+        assertEquals("30.00", engine.getFormattedResult(0, sampleRecords)); // parks average
+        assertEquals("-30.00", engine.getFormattedResult(1, sampleRecords)); // transit average
+        assertEquals("21", engine.getFormattedResult(2, sampleRecords)); // sum of total deaths
+        assertEquals("300.00", engine.getFormattedResult(3, sampleRecords)); // total cases average
+    }
+
+    /**
+     * Tests that all statistics are computed in one pass, which is reused until the records change.
+     */
+    @Test
+    public void testSinglePass() {
+        int[] recordsSeen = {0};
+        StatisticRegistry registry = new StatisticRegistry();
+        registry.register(Statistic.sum("New Cases", CovidData::getNewCases));
+        registry.register(new Statistic() {
+            public String getLabel() {
+                return "Records";
+            }
+
+            public Accumulator newAccumulator() {
+                return new Accumulator() {
+                    public void add(CovidData record) {
+                        recordsSeen[0]++;
+                    }
+
+                    public double getValue() {
+                        return recordsSeen[0];
+                    }
+                };
+            }
+        });
+        StatisticsEngine engine = new StatisticsEngine(registry);
+
+        assertEquals(3.0, engine.getResult(0, sampleRecords));
+        assertEquals(3.0, engine.getResult(1, sampleRecords));
+        assertEquals(3, recordsSeen[0]); // both pages were served by the same pass
+
+        ArrayList<CovidData> otherRecords = new ArrayList<>(sampleRecords.subList(0, 1));
+        assertEquals(1.0, engine.getResult(0, otherRecords));
+        assertEquals(4, recordsSeen[0]); // new records need a new pass
+    }
+
+    /**
+     * Tests that a derived metric is evaluated per record and on the summaries of its columns.
+     */
+    @Test
+    public void testDerivedMetric() {
+        DerivedMetric ratio = DerivedMetric.compile("Deaths per 100 Total Cases", "totalDeaths * 100 / TOTAL_CASES");
+
+        assertEquals(5.0, ratio.evaluate(sampleRecords.get(0)));
+        assertTrue(Double.isNaN(DerivedMetric.compile("Zero", "newCases / (parksGMR - 10)").evaluate(sampleRecords.get(0))));
+        assertThrows(IllegalArgumentException.class, () -> DerivedMetric.compile("Bad", "newCases * vaccinations"));
+
+        // Cumulative columns take the newest value of each borough, added up: (7 + 9) * 100 / (200 + 600)
+        StatisticRegistry registry = new StatisticRegistry();
+        registry.register(Statistic.of(ratio));
+        StatisticsEngine engine = new StatisticsEngine(registry);
+        assertEquals(2.0, engine.getResult(0, sampleRecords));
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+    }
+}
@@ -11,21 +11,37 @@ import javafx.fxml.FXML;
 import javafx.scene.Parent;
 import java.io.IOException;
 import java.io.File;
+import java.text.DecimalFormat;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.text.DecimalFormat;
+import java.util.List;
 
 /** 
  *  StatsPanelController 
  *  
- *  Controls the display of the data on the stats panel, as well as calculate
- *  the actual statistics displayed
+ *  Controls the display of the data on the stats panel. The statistics
+ *  themselves are registered in the StatisticRegistry and computed by the
+ *  StatisticsEngine. They are followed by a page for every derived metric of
+ *  the DerivedMetricRegistry, then by pages giving the distribution of the
+ *  daily values of a borough, from the sketches of the DistributionIndex
  *  
  * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
  * @version 03/2024
  */
 public class StatsPanelController {
-    private DecimalFormat formattedDec = new DecimalFormat("0.00");
+    // Quantiles shown on the distribution pages: the median, 90th and 99th percentiles
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    
+    // Metrics with a distribution page, after the registered statistics
+    private static final List<CovidMetric> DISTRIBUTION_METRICS = List.of(
+        CovidMetric.NEW_CASES,
+        CovidMetric.RETAIL_RECREATION_GMR,
+        CovidMetric.GROCERY_PHARMACY_GMR,
+        CovidMetric.PARKS_GMR,
+        CovidMetric.TRANSIT_GMR,
+        CovidMetric.WORKPLACES_GMR,
+        CovidMetric.RESIDENTIAL_GMR);
+    
     private DataManipulator dataManipulator;
     
     @FXML
@@ -37,15 +53,11 @@ public class StatsPanelController {
     @FXML
     private Label statLabel;
 
-    private String[] information = {"Parks Mobility Average % Change:", "Transit Mobility Average % Change:", "Total Number of Total Deaths","Total Cases Average:" };
-    private int currentInfoIndex = 0;
-
-    private String[] stats = {"", "", "", ""}; // initially empty, leaving space for the calculated data to be placed in
-    private int currentStatIndex = 0;
-    
-    
-    
-    private boolean initialised = false;
+    // Engine computing every registered statistic in one pass over the records in range
+    private StatisticsEngine statisticsEngine;
+    // Engine computing the derived metrics in one pass over the records in range
+    private StatisticsEngine derivedEngine;
+    private int currentPage = 0;
 
     
     /**
@@ -53,7 +65,12 @@ public class StatsPanelController {
      */
     public void initialize() {
         dataManipulator = DataManipulator.getInstance();
-        statisticInRange();
+        statisticsEngine = dataManipulator.getStatisticsEngine();
+        StatisticRegistry derivedStatistics = new StatisticRegistry();
+        for (DerivedMetric metric : DerivedMetricRegistry.getDefault().getMetrics()) {
+            derivedStatistics.register(Statistic.of(metric));
+        }
+        derivedEngine = new StatisticsEngine(derivedStatistics);
         updateInfoLabel();
     }
 
@@ -63,12 +80,7 @@ public class StatsPanelController {
      */
     @FXML
     void forwardStat(ActionEvent event) {
-        if (!initialised) {
-            statisticInRange();
-            initialised = true;
-        }
-        currentInfoIndex = (currentInfoIndex + 1) % information.length;
-        currentStatIndex = (currentStatIndex + 1) % stats.length;
+        currentPage = (currentPage + 1) % getPageCount();
         updateInfoLabel();
     }
 
@@ -78,102 +90,72 @@ public class StatsPanelController {
      */
     @FXML
     void prevStat(ActionEvent event) {
-        if (!initialised) {
-            statisticInRange();
-            initialised = true;
-        }
-        currentInfoIndex = (currentInfoIndex - 1 + information.length) % information.length;
-        currentStatIndex = (currentStatIndex - 1 + stats.length) % stats.length;
+        currentPage = (currentPage - 1 + getPageCount()) % getPageCount();
         updateInfoLabel();
     }
     
     /**
-     *  Updates the label to show the appropriate data
+     *  Returns the number of pages: the registered statistics, the derived
+     *  metrics, then the distributions
+     */
+    private int getPageCount() {
+        return statisticsEngine.getPageCount() + derivedEngine.getPageCount() + DISTRIBUTION_METRICS.size();
+    }
+    
+    /**
+     *  Updates the labels to show the current page
      */
     private void updateInfoLabel() {
-        infoLabel.setText(information[currentInfoIndex]);
-        statLabel.setText(stats[currentStatIndex]);
+        statLabel.setText("");
+        int page = currentPage;
+        if (page < statisticsEngine.getPageCount()) {
+            updateStatisticLabel(statisticsEngine, page);
+            return;
+        }
+        page -= statisticsEngine.getPageCount();
+        if (page < derivedEngine.getPageCount()) {
+            updateStatisticLabel(derivedEngine, page);
+            return;
+        }
+        updateDistributionLabel(DISTRIBUTION_METRICS.get(page - derivedEngine.getPageCount()));
     }
     
     /**
-     *  Returns the records in range, calculates the statistics from that data and places
-     *  calculated data into the respective array list.
+     *  Updates the label to show the appropriate data. The statistics are
+     *  computed over the records in range when a page is first shown.
      */
-    private void statisticInRange() {
+    private void updateStatisticLabel(StatisticsEngine engine, int page) {
+        infoLabel.setText(engine.getLabel(page));
+        
         LocalDate fromDate = dataManipulator.getFromDate();
         LocalDate toDate = dataManipulator.getToDate();
         
         if (fromDate != null && toDate != null) {
             ArrayList<CovidData> recordsInRange = dataManipulator.getRecordsInRange(); // returns all the records in time range
-            if (!(recordsInRange.isEmpty())) {
-                
-                int totalDeaths = calculateTotalDeaths(recordsInRange);
-                double newTotalCasesAvg = calculateTotalCasesAvg(recordsInRange);
-                double newParksAvg = calculateParksGMRAvg(recordsInRange);
-                double newTransitAvg = calculateTransitGMRAvg(recordsInRange);
-                stats[0] = "" + formattedDec.format(newParksAvg);
-                stats[1] = "" + formattedDec.format(newTransitAvg);
-                stats[2] = "" + totalDeaths;
-                stats[3] = "" + formattedDec.format(newTotalCasesAvg); //converts to 2 decimal places
-                
-
+            if (recordsInRange == null || recordsInRange.isEmpty()) {
+                infoLabel.setText("No data");
             }
             else {
-                infoLabel.setText("No data");
-                statLabel.setText("");
+                statLabel.setText(engine.getFormattedResult(page, recordsInRange));
             }
         }
     }
     
     /**
-     * Returns the total of total deaths across all boroughs in that time period
+     *  Shows the median, 90th and 99th percentiles of the daily values of a
+     *  metric over all boroughs and the days in range
      */
-    private int calculateTotalDeaths(ArrayList<CovidData> recordsInRange) {
-        int totalDeaths = 0;
-        for (CovidData record : recordsInRange) { // iterates through the records, finding records in range
-            totalDeaths += record.getTotalDeaths();
+    private void updateDistributionLabel(CovidMetric metric) {
+        infoLabel.setText(metric.getLabel() + " per Borough per Day (Median / 90th / 99th Percentile):");
+        if (dataManipulator.getFromDate() == null || dataManipulator.getToDate() == null) {
+            return;
         }
-        return totalDeaths;
-    }
-    
-
-    /**
-     * Calculates the average of total cases
-     */
-    private double calculateTotalCasesAvg(ArrayList<CovidData> recordsInRange) {
-        int totalCases = 0;
-        for (CovidData record : recordsInRange) { // iterates through the records, finding records in range
-            totalCases += record.getTotalCases();
+        double[] quantiles = dataManipulator.getQuantiles(DistributionIndex.LONDON, metric, QUANTILES, true);
+        if (Double.isNaN(quantiles[0])) {
+            infoLabel.setText("No data");
+            return;
         }
-        return (double) totalCases / recordsInRange.size();
+        DecimalFormat format = new DecimalFormat("0");
+        statLabel.setText(format.format(quantiles[0]) + " / " + format.format(quantiles[1]) + " / " + format.format(quantiles[2]));
     }
-    
-    
-    /**
-     * Calculates the change in parks mobility over that time period
-     */
-      private double calculateParksGMRAvg(ArrayList<CovidData> recordsInRange) {
-        int sum = 0;
-        int count = 0;
-        for (CovidData record : recordsInRange) { // iterates through the records, finding records in range
-            sum += record.getParksGMR();
-            count++;
-        }
-        return (double) sum / count; 
-    }
-    
-    /**
-     * Calculates the change in transit over that time period
-     */
-      private double calculateTransitGMRAvg(ArrayList<CovidData> recordsInRange) {
-        int sum = 0;
-        int count = 0;
-        for (CovidData record : recordsInRange) { // iterates through the records, finding records in range
-            sum += record.getTransitGMR();
-            count++;
-        }
-        return (double) sum / count; 
-    }
-    
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,311 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * SyntheticDataGenerator produces data sets in the layout of covid_london.csv for
+ * load, memory and latency testing. The output depends only on the settings and
+ * the seed, so the same settings always produce the same file.
+ *
+ * Rows are produced day by day, one per borough, keeping only a few numbers per
+ * borough in memory, so files of any size can be written. New cases follow a few
+ * epidemic waves scaled by borough size, total cases and total deaths are running
+ * sums of the daily values, deaths follow cases two weeks later, and mobility drops
+ * while cases are high. Any cell may be left empty at the configured missing rate.
+ *
+ * Usage: java SyntheticDataGenerator output-file [--rows n] [--days n] [--boroughs n]
+ *        [--start yyyy-mm-dd] [--missing rate] [--seed n]
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class SyntheticDataGenerator
+{
+    public static final String HEADER = "date,area_name,retail_and_recreation,grocery_and_pharmacy,parks,"
+        + "transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths";
+
+    private static final String[] LONDON_BOROUGHS = {
+        "Barking And Dagenham", "Barnet", "Bexley", "Brent", "Bromley", "Camden", "City Of London",
+        "Croydon", "Ealing", "Enfield", "Greenwich", "Hackney", "Hammersmith And Fulham", "Haringey",
+        "Harrow", "Havering", "Hillingdon", "Hounslow", "Islington", "Kensington And Chelsea",
+        "Kingston Upon Thames", "Lambeth", "Lewisham", "Merton", "Newham", "Redbridge",
+        "Richmond Upon Thames", "Southwark", "Sutton", "Tower Hamlets", "Waltham Forest",
+        "Wandsworth", "Westminster"
+    };
+
+    //days between a case and a death
+    private static final int DEATH_LAG = 14;
+
+    //share of cases that end in a death
+    private static final double FATALITY_RATE = 0.012;
+
+    //peak day, width in days and height (cases per day in an average borough) of each wave
+    private static final double[][] WAVES = {{45, 20, 90}, {300, 35, 250}, {500, 25, 400}, {700, 40, 150}};
+
+    private long seed = 42;
+    private int boroughCount = LONDON_BOROUGHS.length;
+    private int days = 730;
+    private long maxRows = Long.MAX_VALUE;
+    private LocalDate startDate = LocalDate.of(2020, 2, 1);
+    private double missingRate = 0.0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java SyntheticDataGenerator output-file [--rows n] [--days n] [--boroughs n]"
+                + " [--start yyyy-mm-dd] [--missing rate] [--seed n]");
+            System.exit(2);
+        }
+        SyntheticDataGenerator generator = new SyntheticDataGenerator();
+        long rows = -1;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows":
+                    rows = Long.parseLong(args[i + 1]);
+                    break;
+                case "--days":
+                    generator.setDays(Integer.parseInt(args[i + 1]));
+                    break;
+                case "--boroughs":
+                    generator.setBoroughCount(Integer.parseInt(args[i + 1]));
+                    break;
+                case "--start":
+                    generator.setStartDate(LocalDate.parse(args[i + 1]));
+                    break;
+                case "--missing":
+                    generator.setMissingRate(Double.parseDouble(args[i + 1]));
+                    break;
+                case "--seed":
+                    generator.setSeed(Long.parseLong(args[i + 1]));
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (rows >= 0) {
+            generator.setRows(rows);
+        }
+        long written = generator.write(new File(args[0]));
+        System.out.println("Wrote " + written + " rows to " + args[0]);
+    }
+
+    public SyntheticDataGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the number of boroughs; the first 33 are the London boroughs and any
+     * further ones are numbered
+     */
+    public SyntheticDataGenerator setBoroughCount(int boroughCount) {
+        this.boroughCount = boroughCount;
+        return this;
+    }
+
+    public SyntheticDataGenerator setDays(int days) {
+        this.days = days;
+        return this;
+    }
+
+    public SyntheticDataGenerator setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+        return this;
+    }
+
+    /**
+     * Sets the chance of each value being left empty, from 0 to 1
+     */
+    public SyntheticDataGenerator setMissingRate(double missingRate) {
+        this.missingRate = missingRate;
+        return this;
+    }
+
+    /**
+     * Sets the exact number of rows to produce, which then decides the number of days
+     */
+    public SyntheticDataGenerator setRows(long rows) {
+        this.maxRows = rows;
+        return this;
+    }
+
+    /**
+     * Writes the data set to a file, returning the number of rows written
+     */
+    public long write(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            return write(writer);
+        }
+    }
+
+    /**
+     * Writes the header and the rows of the data set, returning the number of rows written
+     */
+    public long write(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        StringBuilder line = new StringBuilder(128);
+        long rows = 0;
+        Generation generation = new Generation();
+        while (generation.next()) {
+            line.setLength(0);
+            line.append(generation.date).append(',').append(generation.borough);
+            for (int i = 0; i < generation.values.length; i++) {
+                line.append(',');
+                if (!generation.missing[i]) {
+                    line.append(generation.values[i]);
+                }
+            }
+            line.append('\n');
+            writer.append(line);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Passes every record of the data set to the consumer, with missing values as -1
+     * the way CovidDataLoader reads them
+     */
+    public void generate(Consumer<CovidData> consumer) {
+        Generation generation = new Generation();
+        while (generation.next()) {
+            int[] v = new int[generation.values.length];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = generation.missing[i] ? CovidMetric.MISSING : generation.values[i];
+            }
+            consumer.accept(new CovidData(generation.date, generation.borough,
+                v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9]));
+        }
+    }
+
+    /**
+     * Returns the name of a borough
+     */
+    public static String boroughName(int index) {
+        if (index < LONDON_BOROUGHS.length) {
+            return LONDON_BOROUGHS[index];
+        }
+        return "Borough " + (index + 1);
+    }
+
+    /**
+     * The state of one run through the data set, producing one row at a time in
+     * the column order of the csv file after the date and borough
+     */
+    private class Generation
+    {
+        private final Random random = new Random(seed);
+        private final double[] boroughScale = new double[boroughCount];
+        private final double[] boroughMobility = new double[boroughCount];
+        private final long[] totalCases = new long[boroughCount];
+        private final long[] totalDeaths = new long[boroughCount];
+        //new cases of the last DEATH_LAG days of each borough
+        private final int[][] recentCases = new int[boroughCount][DEATH_LAG];
+
+        private final int[] values = new int[10];
+        private final boolean[] missing = new boolean[10];
+        private String date;
+        private String borough;
+
+        private final long dayCount = maxRows == Long.MAX_VALUE ? days : (maxRows + boroughCount - 1) / boroughCount;
+        private int day = 0;
+        private int boroughIndex = -1;
+        private long rows = 0;
+        private double dayIntensity;
+
+        private Generation() {
+            for (int b = 0; b < boroughCount; b++) {
+                boroughScale[b] = 0.4 + 1.2 * random.nextDouble();
+                boroughMobility[b] = random.nextGaussian() * 5;
+            }
+            startDay();
+        }
+
+        /**
+         * Moves on to the next row, returning false at the end of the data set
+         */
+        private boolean next() {
+            boroughIndex++;
+            if (boroughIndex == boroughCount) {
+                boroughIndex = 0;
+                day++;
+                startDay();
+            }
+            if (day >= dayCount || rows >= maxRows) {
+                return false;
+            }
+            rows++;
+
+            int b = boroughIndex;
+            borough = boroughName(b);
+
+            int newCases = poisson(dayIntensity * boroughScale[b]);
+            int lagged = recentCases[b][day % DEATH_LAG];
+            recentCases[b][day % DEATH_LAG] = newCases;
+            int newDeaths = poisson(lagged * FATALITY_RATE);
+            totalCases[b] += newCases;
+            totalDeaths[b] += newDeaths;
+
+            //mobility falls as cases rise, with parks following the seasons instead
+            double restriction = Math.min(1.0, dayIntensity / 300.0);
+            double season = Math.sin(2 * Math.PI * (startDate.getDayOfYear() + day - 100) / 365.0);
+            values[0] = gmr(-70 * restriction + boroughMobility[b], 6);
+            values[1] = gmr(-30 * restriction + boroughMobility[b], 5);
+            values[2] = gmr(40 * season - 20 * restriction, 15);
+            values[3] = gmr(-65 * restriction - 10 + boroughMobility[b], 6);
+            values[4] = gmr(-55 * restriction - 10 + boroughMobility[b], 5);
+            values[5] = gmr(20 * restriction + 2, 3);
+            values[6] = newCases;
+            values[7] = (int) totalCases[b];
+            values[8] = newDeaths;
+            values[9] = (int) totalDeaths[b];
+
+            for (int i = 0; i < missing.length; i++) {
+                missing[i] = missingRate > 0 && random.nextDouble() < missingRate;
+            }
+            return true;
+        }
+
+        /**
+         * Works out the values shared by all boroughs on the current day
+         */
+        private void startDay() {
+            date = startDate.plusDays(day).toString();
+            dayIntensity = 2;
+            for (double[] wave : WAVES) {
+                double distance = (day - wave[0]) / wave[1];
+                dayIntensity += wave[2] * Math.exp(-0.5 * distance * distance);
+            }
+        }
+
+        private int gmr(double mean, double spread) {
+            return (int) Math.round(mean + random.nextGaussian() * spread);
+        }
+
+        /**
+         * Draws from a Poisson distribution, approximated by a normal one for large means
+         */
+        private int poisson(double mean) {
+            if (mean <= 0) {
+                return 0;
+            }
+            if (mean > 30) {
+                return Math.max(0, (int) Math.round(mean + random.nextGaussian() * Math.sqrt(mean)));
+            }
+            double limit = Math.exp(-mean);
+            double product = random.nextDouble();
+            int count = 0;
+            while (product > limit) {
+                product *= random.nextDouble();
+                count++;
+            }
+            return count;
+        }
+    }
+}
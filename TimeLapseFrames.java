@@ -0,0 +1,208 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TimeLapseFrames holds the frames of the map time-lapse: for every day of a range,
+ * the colour class of every borough as the chosen metric stood on that day.
+ *
+ * The records are read once into per-borough running totals indexed by day, so any
+ * frame can be produced without another pass over the records. Frames are encoded
+ * on a background thread in chunks ahead of the playhead and kept once encoded.
+ * The class breaks are those of the last day, so the final frame matches the static
+ * map for the same selection.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class TimeLapseFrames
+{
+    //number of frames encoded ahead of the playhead
+    public static final int PREFETCH_FRAMES = 60;
+
+    //class index stored in a frame for a borough without data
+    public static final byte NO_DATA = -1;
+
+    private final List<String> boroughs;
+    private final CovidMetric metric;
+    private final long firstDay;
+    private final int dayCount;
+
+    //running sum and count of the valid values of each borough, [borough][day + 1]
+    private final long[][] prefixSums;
+    private final int[][] prefixCounts;
+
+    //newest valid value of each borough on or before each day, [borough][day]
+    private final int[][] latestValues;
+
+    private final ClassBreaks breaks;
+    private final AtomicReferenceArray<byte[]> frames;
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "time-lapse-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile int prefetchedUpTo = -1;
+
+    /**
+     * Reads the records into running totals and derives the class breaks. This does
+     * a full pass over the records and should not be called on the FX thread.
+     *
+     * @param records  The records to animate, usually the records in the selected range.
+     * @param boroughs The boroughs in the order their class indices are stored in a frame.
+     * @param metric   The metric to animate.
+     * @param method   The method used to derive the class breaks.
+     */
+    public TimeLapseFrames(List<CovidData> records, List<String> boroughs, CovidMetric metric, ClassBreaks.Method method) {
+        this.boroughs = boroughs;
+        this.metric = metric;
+
+        long minDay = Long.MAX_VALUE;
+        long maxDay = Long.MIN_VALUE;
+        for (CovidData record : records) {
+            long day = record.getEpochDay();
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+        }
+        firstDay = records.isEmpty() ? 0 : minDay;
+        dayCount = records.isEmpty() ? 0 : (int) (maxDay - minDay + 1);
+
+        HashMap<String, Integer> boroughIndex = new HashMap<>();
+        for (int i = 0; i < boroughs.size(); i++) {
+            boroughIndex.put(boroughs.get(i), i);
+        }
+
+        //daily values of every borough, filled in a single pass
+        int[][] dailyValues = new int[boroughs.size()][dayCount];
+        for (int[] values : dailyValues) {
+            Arrays.fill(values, CovidMetric.MISSING);
+        }
+        for (CovidData record : records) {
+            Integer index = boroughIndex.get(record.getBorough());
+            if (index != null) {
+                dailyValues[index][(int) (record.getEpochDay() - firstDay)] = metric.getValue(record);
+            }
+        }
+
+        prefixSums = new long[boroughs.size()][dayCount + 1];
+        prefixCounts = new int[boroughs.size()][dayCount + 1];
+        latestValues = new int[boroughs.size()][dayCount];
+        for (int b = 0; b < boroughs.size(); b++) {
+            int latest = CovidMetric.MISSING;
+            for (int day = 0; day < dayCount; day++) {
+                int value = dailyValues[b][day];
+                boolean valid = value != CovidMetric.MISSING;
+                prefixSums[b][day + 1] = prefixSums[b][day] + (valid ? value : 0);
+                prefixCounts[b][day + 1] = prefixCounts[b][day] + (valid ? 1 : 0);
+                if (valid) {
+                    latest = value;
+                }
+                latestValues[b][day] = latest;
+            }
+        }
+
+        double[] lastDayValues = new double[boroughs.size()];
+        int count = 0;
+        for (int b = 0; b < boroughs.size(); b++) {
+            double value = valueOn(b, dayCount - 1);
+            if (!Double.isNaN(value)) {
+                lastDayValues[count++] = value;
+            }
+        }
+        breaks = ClassBreaks.of(Arrays.copyOf(lastDayValues, count), ChoroplethEngine.CLASS_COLOURS.length, method);
+        frames = new AtomicReferenceArray<>(dayCount);
+    }
+
+    /**
+     * Returns the frame of the given day, encoding it now if the prefetcher has
+     * not reached it yet. Each entry is a class index or NO_DATA.
+     */
+    public byte[] getFrame(int dayIndex) {
+        byte[] frame = frames.get(dayIndex);
+        if (frame == null) {
+            frame = encodeFrame(dayIndex);
+            frames.set(dayIndex, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Makes sure the frames following the playhead are being encoded in the background
+     */
+    public void prefetch(int playhead) {
+        int target = Math.min(dayCount - 1, playhead + PREFETCH_FRAMES);
+        if (target <= prefetchedUpTo) {
+            return;
+        }
+        int start = Math.max(playhead, prefetchedUpTo + 1);
+        prefetchedUpTo = target;
+        prefetcher.execute(() -> {
+            for (int day = start; day <= target; day++) {
+                if (frames.get(day) == null) {
+                    frames.set(day, encodeFrame(day));
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the background prefetching
+     */
+    public void dispose() {
+        prefetcher.shutdownNow();
+    }
+
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    public LocalDate getDate(int dayIndex) {
+        return LocalDate.ofEpochDay(firstDay + dayIndex);
+    }
+
+    public List<String> getBoroughs() {
+        return boroughs;
+    }
+
+    public CovidMetric getMetric() {
+        return metric;
+    }
+
+    public ClassBreaks getBreaks() {
+        return breaks;
+    }
+
+    /**
+     * Encodes the class index of every borough on one day
+     */
+    private byte[] encodeFrame(int dayIndex) {
+        byte[] frame = new byte[boroughs.size()];
+        for (int b = 0; b < boroughs.size(); b++) {
+            double value = valueOn(b, dayIndex);
+            frame[b] = Double.isNaN(value) ? NO_DATA : (byte) breaks.classify(value);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the metric of a borough as it stood on a day, or NaN without data
+     */
+    private double valueOn(int borough, int dayIndex) {
+        if (dayIndex < 0 || prefixCounts[borough][dayIndex + 1] == 0) {
+            return Double.NaN;
+        }
+        switch (metric.getAggregation()) {
+            case SUM:
+                return prefixSums[borough][dayIndex + 1];
+            case MEAN:
+                return (double) prefixSums[borough][dayIndex + 1] / prefixCounts[borough][dayIndex + 1];
+            default:
+                return latestValues[borough][dayIndex];
+        }
+    }
+}
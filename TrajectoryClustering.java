@@ -0,0 +1,375 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * TrajectoryClustering finds the boroughs whose epidemics took a similar course. The
+ * new cases of every borough are smoothed with a 7-day moving average and
+ * normalised to a mean of 0 and a standard deviation of 1, so boroughs of different
+ * sizes can be compared by shape alone. Every pair of curves is then compared, and
+ * the boroughs are grouped with k-medoids clustering on the resulting distances.
+ *
+ * Curves are compared either by correlation, or by dynamic time warping within a
+ * band of days, which also matches curves that rose or fell a few days apart. The
+ * pairs are compared in parallel, and results are cached per date range, version
+ * of the data, measure and number of clusters, so returning to a range reuses its
+ * result without keeping its records.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class TrajectoryClustering
+{
+    /**
+     * The ways two curves can be compared
+     */
+    public enum Measure { CORRELATION, DTW }
+
+    //colours of the clusters on the map
+    public static final String[] CLUSTER_COLOURS = {"#66C2A5", "#FC8D62", "#8DA0CB", "#E78AC3", "#A6D854", "#FFD92F"};
+
+    public static final int DEFAULT_CLUSTERS = 4;
+
+    //furthest two days may be matched apart by dynamic time warping
+    public static final int DTW_BAND_DAYS = 7;
+
+    private static final int CACHE_SIZE = 8;
+
+    private static final int MAX_SWAP_ROUNDS = 100;
+
+    private final Map<CacheKey, Result> cache = new LinkedHashMap<CacheKey, Result>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Compares and clusters the boroughs found in the records, reusing the result
+     * of an earlier call for the same range, data version, measure and number of clusters.
+     *
+     * @param records     The records to compare, usually those in the selected range.
+     * @param fromDay     The first epoch day of the range the records cover, Long.MIN_VALUE for no limit.
+     * @param toDay       The last epoch day of the range the records cover, Long.MAX_VALUE for no limit.
+     * @param dataVersion The version of the data the records were taken from, as DataManipulator.getDataVersion.
+     * @param measure     The way the curves are compared.
+     * @param clusters    The number of clusters, at most the number of colours.
+     */
+    public Result getResult(List<CovidData> records, long fromDay, long toDay, String dataVersion, Measure measure, int clusters) {
+        CacheKey key = new CacheKey(fromDay, toDay, dataVersion, measure, clusters);
+        synchronized (cache) {
+            Result cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Result result = compute(records, measure, clusters);
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Compares every pair of boroughs in parallel and clusters them.
+     *
+     * @param records  The records to compare.
+     * @param measure  The way the curves are compared.
+     * @param clusters The number of clusters, at most the number of colours.
+     */
+    public static Result compute(List<CovidData> records, Measure measure, int clusters) {
+        if (clusters < 1 || clusters > CLUSTER_COLOURS.length) {
+            throw new IllegalArgumentException("Between 1 and " + CLUSTER_COLOURS.length + " clusters can be shown");
+        }
+        long start = System.nanoTime();
+        DailySeries daily = DailySeries.of(records, List.of(CovidMetric.NEW_CASES));
+        List<String> boroughs = daily.getBoroughs();
+        int n = boroughs.size();
+        double[][] curves = new double[n][];
+        for (int i = 0; i < n; i++) {
+            curves[i] = normalise(RollingAnalytics.slidingAverages(daily.getValues(boroughs.get(i), CovidMetric.NEW_CASES), RollingAnalytics.SHORT_WINDOW));
+        }
+
+        //one task per pair of boroughs, numbered row by row through the upper triangle
+        double[][] distances = new double[n][n];
+        int pairs = n * (n - 1) / 2;
+        IntStream.range(0, pairs).parallel().forEach(pair -> {
+            int i = 0;
+            int rowStart = 0;
+            while (pair >= rowStart + n - 1 - i) {
+                rowStart += n - 1 - i;
+                i++;
+            }
+            int j = i + 1 + pair - rowStart;
+            double distance = measure == Measure.DTW ? dtwDistance(curves[i], curves[j], DTW_BAND_DAYS) : correlationDistance(curves[i], curves[j]);
+            distances[i][j] = distance;
+            distances[j][i] = distance;
+        });
+
+        int[] medoids = kMedoids(distances, Math.min(clusters, n));
+        int[] assignments = assign(distances, medoids);
+        MetricsRegistry.getInstance().timer("clustering.compute").recordSince(start);
+        return new Result(boroughs, distances, medoids, assignments);
+    }
+
+    /**
+     * Shifts and scales a curve to a mean of 0 and a standard deviation of 1. Unknown
+     * days become 0, the mean, so they neither pull curves together nor apart.
+     */
+    static double[] normalise(double[] curve) {
+        double mean = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (double value : curve) {
+            if (!Double.isNaN(value)) {
+                n++;
+                double delta = value - mean;
+                mean += delta / n;
+                sumSquares += delta * (value - mean);
+            }
+        }
+        double deviation = n > 1 ? Math.sqrt(sumSquares / n) : 0;
+        double[] normalised = new double[curve.length];
+        for (int day = 0; day < curve.length; day++) {
+            if (!Double.isNaN(curve[day]) && deviation > 0) {
+                normalised[day] = (curve[day] - mean) / deviation;
+            }
+        }
+        return normalised;
+    }
+
+    /**
+     * Returns 1 minus the correlation of two curves: 0 for curves of the same shape,
+     * 1 for unrelated curves and 2 for opposite ones
+     */
+    static double correlationDistance(double[] a, double[] b) {
+        double correlation = CrossCorrelationEngine.laggedCorrelation(a, b, 0);
+        return Double.isNaN(correlation) ? 1 : 1 - correlation;
+    }
+
+    /**
+     * Returns the dynamic time warping distance of two curves of the same length,
+     * matching days at most band days apart. Only two rows of the cost table are kept.
+     */
+    static double dtwDistance(double[] a, double[] b, int band) {
+        int length = a.length;
+        if (length == 0) {
+            return 0;
+        }
+        double[] previous = new double[length + 1];
+        double[] current = new double[length + 1];
+        Arrays.fill(previous, Double.POSITIVE_INFINITY);
+        previous[0] = 0;
+        for (int i = 1; i <= length; i++) {
+            Arrays.fill(current, Double.POSITIVE_INFINITY);
+            int from = Math.max(1, i - band);
+            int to = Math.min(length, i + band);
+            for (int j = from; j <= to; j++) {
+                double cost = a[i - 1] - b[j - 1];
+                current[j] = cost * cost + Math.min(previous[j - 1], Math.min(previous[j], current[j - 1]));
+            }
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.sqrt(previous[length] / length);
+    }
+
+    /**
+     * Picks k medoids with the greedy build step of partitioning around medoids, then
+     * swaps medoids for other points while that lowers the total distance of every
+     * point to its nearest medoid
+     */
+    static int[] kMedoids(double[][] distances, int k) {
+        int n = distances.length;
+        int[] medoids = new int[k];
+        //distance of every point to its nearest medoid so far
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        boolean[] isMedoid = new boolean[n];
+        for (int m = 0; m < k; m++) {
+            int best = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int candidate = 0; candidate < n; candidate++) {
+                if (isMedoid[candidate]) {
+                    continue;
+                }
+                double cost = 0;
+                for (int point = 0; point < n; point++) {
+                    cost += Math.min(nearest[point], distances[point][candidate]);
+                }
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = candidate;
+                }
+            }
+            medoids[m] = best;
+            isMedoid[best] = true;
+            for (int point = 0; point < n; point++) {
+                nearest[point] = Math.min(nearest[point], distances[point][best]);
+            }
+        }
+
+        double cost = totalCost(distances, medoids);
+        for (int round = 0; round < MAX_SWAP_ROUNDS; round++) {
+            int bestMedoid = -1;
+            int bestPoint = -1;
+            double bestCost = cost;
+            for (int m = 0; m < k; m++) {
+                int old = medoids[m];
+                for (int point = 0; point < n; point++) {
+                    if (isMedoid[point]) {
+                        continue;
+                    }
+                    medoids[m] = point;
+                    double swappedCost = totalCost(distances, medoids);
+                    if (swappedCost < bestCost - 1e-12) {
+                        bestCost = swappedCost;
+                        bestMedoid = m;
+                        bestPoint = point;
+                    }
+                }
+                medoids[m] = old;
+            }
+            if (bestMedoid < 0) {
+                break;
+            }
+            isMedoid[medoids[bestMedoid]] = false;
+            isMedoid[bestPoint] = true;
+            medoids[bestMedoid] = bestPoint;
+            cost = bestCost;
+        }
+        return medoids;
+    }
+
+    private static double totalCost(double[][] distances, int[] medoids) {
+        double cost = 0;
+        for (double[] row : distances) {
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int medoid : medoids) {
+                nearest = Math.min(nearest, row[medoid]);
+            }
+            cost += nearest;
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the position in the medoids of the nearest medoid of every point
+     */
+    private static int[] assign(double[][] distances, int[] medoids) {
+        int[] assignments = new int[distances.length];
+        for (int point = 0; point < distances.length; point++) {
+            for (int m = 1; m < medoids.length; m++) {
+                if (distances[point][medoids[m]] < distances[point][medoids[assignments[point]]]) {
+                    assignments[point] = m;
+                }
+            }
+        }
+        return assignments;
+    }
+
+    /**
+     * The distances between the boroughs and the cluster of each
+     */
+    public static class Result
+    {
+        private final List<String> boroughs;
+        private final double[][] distances;
+        private final int[] medoids;
+        private final int[] assignments;
+
+        private Result(List<String> boroughs, double[][] distances, int[] medoids, int[] assignments) {
+            this.boroughs = boroughs;
+            this.distances = distances;
+            this.medoids = medoids;
+            this.assignments = assignments;
+        }
+
+        /**
+         * Returns the names of the boroughs compared, in alphabetical order
+         */
+        public List<String> getBoroughs() {
+            return boroughs;
+        }
+
+        public int getClusterCount() {
+            return medoids.length;
+        }
+
+        /**
+         * Returns the cluster of a borough, from 0, or -1 if it was not compared
+         */
+        public int getCluster(String borough) {
+            int i = boroughs.indexOf(borough);
+            return i < 0 ? -1 : assignments[i];
+        }
+
+        /**
+         * Returns the borough at the centre of a cluster
+         */
+        public String getMedoid(int cluster) {
+            return boroughs.get(medoids[cluster]);
+        }
+
+        /**
+         * Returns the distance between the curves of two boroughs; smaller is more alike
+         *
+         * @throws IllegalArgumentException if either borough was not compared
+         */
+        public double getDistance(String borough, String other) {
+            int i = boroughs.indexOf(borough);
+            int j = boroughs.indexOf(other);
+            if (i < 0 || j < 0) {
+                throw new IllegalArgumentException("Unknown borough " + (i < 0 ? borough : other));
+            }
+            return distances[i][j];
+        }
+
+        /**
+         * Returns the map colour of a borough's cluster
+         */
+        public String getColour(String borough) {
+            int cluster = getCluster(borough);
+            return cluster < 0 ? ChoroplethEngine.NO_DATA_COLOUR : CLUSTER_COLOURS[cluster];
+        }
+    }
+
+    /**
+     * Identifies one computation: the date range and version of the data, measure and number of clusters
+     */
+    private static class CacheKey
+    {
+        private final long fromDay;
+        private final long toDay;
+        private final String dataVersion;
+        private final Measure measure;
+        private final int clusters;
+
+        private CacheKey(long fromDay, long toDay, String dataVersion, Measure measure, int clusters) {
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.dataVersion = dataVersion;
+            this.measure = measure;
+            this.clusters = clusters;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey key = (CacheKey) other;
+            return fromDay == key.fromDay && toDay == key.toDay && dataVersion.equals(key.dataVersion)
+                && measure == key.measure && clusters == key.clusters;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromDay, toDay, dataVersion, measure, clusters);
+        }
+    }
+}
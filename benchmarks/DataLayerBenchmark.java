@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for the data layer: loading the csv file, selecting a date range,
+ * filtering by borough, finding the newest total deaths, validating dates, the stats
+ * panel statistics and the borough table sorts. Every benchmark runs over synthetic
+ * data sets of 1k to 10M rows and reports throughput and average time; the GC
+ * profiler is added for the allocation rate.
+ *
+ * The benchmarks need JMH, so they are compiled separately from the application.
+ * From the project directory, with jmh-core, jmh-generator-annprocess, opencsv,
+ * guava and the JavaFX jars in $CP:
+ *
+ *     javac -cp "$CP" -d bench-classes *.java benchmarks/*.java
+ *     java -cp "bench-classes:$CP" benchmarks.DataLayerBenchmark [jmh options]
+ *
+ * Without options the whole suite runs; otherwise the options are passed on to
+ * JMH, for example "DataLayerBenchmark.load -p rows=1000".
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class DataLayerBenchmark
+{
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private DataLayerOps ops;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ops = DataLayerOps.create();
+        ops.setUp(rows, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    public Object load() {
+        return ops.load();
+    }
+
+    @Benchmark
+    public Object updateRecordsInRange() {
+        return ops.updateRecordsInRange();
+    }
+
+    @Benchmark
+    public Object getFilterByBorough() {
+        return ops.getFilterByBorough();
+    }
+
+    @Benchmark
+    public int getNewestTotalDeath() {
+        return ops.getNewestTotalDeath();
+    }
+
+    @Benchmark
+    public void checkValidDate(Blackhole blackhole) {
+        blackhole.consume(ops.checkValidDate(true));
+        blackhole.consume(ops.checkValidDate(false));
+    }
+
+    @Benchmark
+    public Object statistics() {
+        return ops.statistics();
+    }
+
+    @Benchmark
+    public Object sortByDate() {
+        return ops.sort("Date");
+    }
+
+    @Benchmark
+    public Object sortByNewCases() {
+        return ops.sort("New cases");
+    }
+
+    @Benchmark
+    public Object sortByMobility() {
+        return ops.sort("Google mobility data");
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        OptionsBuilder builder = new OptionsBuilder();
+        if (args.length == 0) {
+            builder.include(DataLayerBenchmark.class.getSimpleName());
+        }
+        else {
+            builder.parent(new CommandLineOptions(args));
+        }
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
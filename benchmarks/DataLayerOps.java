@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The data layer operations measured by DataLayerBenchmark.
+ *
+ * JMH only accepts benchmarks in a named package, while the application classes
+ * live in the unnamed package and cannot be referred to from one. The operations
+ * are therefore reached through this interface, implemented by DataLayerTargets
+ * in the unnamed package and loaded by name.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public interface DataLayerOps
+{
+    /**
+     * Generates a data set of the given number of rows, writes it to a csv file
+     * and selects a date range covering the middle half of it
+     */
+    void setUp(int rows, long seed) throws IOException;
+
+    /**
+     * Deletes the csv file
+     */
+    void tearDown();
+
+    Object load();
+
+    Object updateRecordsInRange();
+
+    Object getFilterByBorough();
+
+    int getNewestTotalDeath();
+
+    boolean checkValidDate(boolean existing);
+
+    Object statistics();
+
+    Object sort(String selectedSort);
+
+    /**
+     * Creates the implementation from the unnamed package
+     */
+    static DataLayerOps create() {
+        try {
+            return (DataLayerOps) Class.forName("DataLayerTargets").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("DataLayerTargets is not on the classpath", e);
+        }
+    }
+}
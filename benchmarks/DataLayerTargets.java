@@ -0,0 +1,84 @@
+import benchmarks.DataLayerOps;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DataLayerTargets calls the application's data layer for DataLayerBenchmark. It
+ * belongs to the unnamed package like the application classes, which is why it is
+ * kept beside the benchmark rather than in the benchmarks package.
+ *
+ * @author Rojus Cesonis, William Costales, Ye Win, Ruijie Li
+ * @version 03/2024
+ */
+public class DataLayerTargets implements DataLayerOps
+{
+    private static final LocalDate FIRST_DAY = LocalDate.of(2020, 2, 1);
+
+    private File csvFile;
+    private ArrayList<CovidData> boroughRecords;
+    private DataManipulator dataManipulator;
+    private List<Statistic> statistics;
+    private LocalDate existingDate;
+    private LocalDate missingDate;
+
+    public void setUp(int rows, long seed) throws IOException {
+        SyntheticDataGenerator generator = new SyntheticDataGenerator()
+            .setSeed(seed)
+            .setStartDate(FIRST_DAY)
+            .setRows(rows);
+        csvFile = Files.createTempFile("covid-benchmark", ".csv").toFile();
+        generator.write(csvFile);
+        ArrayList<CovidData> records = new ArrayList<>(rows);
+        generator.generate(records::add);
+
+        dataManipulator = DataManipulator.forRecords(records);
+        int days = Math.max(1, rows / 33);
+        dataManipulator.setFromDate(FIRST_DAY.plusDays(days / 4));
+        dataManipulator.setToDate(FIRST_DAY.plusDays(days * 3 / 4));
+        dataManipulator.updateRecordsInRange();
+
+        existingDate = FIRST_DAY.plusDays(days - 1);
+        missingDate = FIRST_DAY.minusDays(1);
+        boroughRecords = dataManipulator.getFilterByBorough("Camden", false);
+        statistics = StatisticRegistry.getDefault().getStatistics();
+    }
+
+    public void tearDown() {
+        csvFile.delete();
+    }
+
+    public Object load() {
+        return new CovidDataLoader().load(csvFile);
+    }
+
+    public Object updateRecordsInRange() {
+        dataManipulator.updateRecordsInRange();
+        return dataManipulator.getRecordsInRange();
+    }
+
+    public Object getFilterByBorough() {
+        return dataManipulator.getFilterByBorough("Camden", false);
+    }
+
+    public int getNewestTotalDeath() {
+        return dataManipulator.getNewestTotalDeath(boroughRecords);
+    }
+
+    public boolean checkValidDate(boolean existing) {
+        return dataManipulator.checkValidDate(existing ? existingDate : missingDate);
+    }
+
+    public Object statistics() {
+        return StatisticsEngine.accumulate(dataManipulator.getRecordsInRange(), statistics);
+    }
+
+    public Object sort(String selectedSort) {
+        ArrayList<CovidData> sortedList = new ArrayList<>(boroughRecords);
+        sortedList.sort(BoroughDataController.getComparator(selectedSort));
+        return sortedList;
+    }
+}